@@ -35,7 +35,11 @@ ASTLabelType=CommonTree;
 package com.sonyericsson.hudson.plugins.metadata.search.antlr;
 
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataIndexWarmUp;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataPath;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataPathIndex;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.NumberArrayMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
 
 import java.util.EnumSet;
@@ -182,10 +186,12 @@ enum Compare {
      */
     public boolean searchMeatadata(String sleftVal, String srightVal,
                 MetadataContainer mDataProperty) {
-    MetadataValue lvalue = (MetadataValue) TreeStructureUtil.getPath(mDataProperty,
-            sleftVal.trim().split("\\."));
-    MetadataValue rvalue = (MetadataValue) TreeStructureUtil.getPath(mDataProperty,
-            srightVal.trim().split("\\."));
+    MetadataPathIndex index = mDataProperty.getBuiltPathIndex();
+    if (index == null && !MetadataIndexWarmUp.getInstance().isWarmingUp()) {
+        index = mDataProperty.getPathIndex();
+    }
+    MetadataValue lvalue = lookup(index, mDataProperty, sleftVal);
+    MetadataValue rvalue = lookup(index, mDataProperty, srightVal);
     if (rvalue != null && lvalue != null) {
        if (compareValues(lvalue, rvalue)) {
           return true;
@@ -206,6 +212,39 @@ enum Compare {
     return false;
     }
 
+    /**
+     * Method will find the metadata value at the path, or the aggregate of a number array
+     * if the path ends with the name of an aggregate, e.g. durations.max.
+     * The tree is scanned instead if there is no index, while the warm-up hasn't got to the container yet.
+     * @param index the path index of the metadata, or null.
+     * @param container the metadata.
+     * @param path the path.
+     */
+    private static MetadataValue lookup(MetadataPathIndex index, MetadataContainer container, String path) {
+        MetadataPath metadataPath = MetadataPath.parse(path.trim());
+        MetadataValue value = (MetadataValue) find(index, container, metadataPath);
+        if (value == null && metadataPath.getDepth() > 1) {
+            Object parent = find(index, container, metadataPath.getParent());
+            if (parent instanceof NumberArrayMetadataValue) {
+                value = ((NumberArrayMetadataValue) parent).getAggregate(metadataPath.getName());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Method will find the metadata at the path, in the index if there is one.
+     * @param index the path index of the metadata, or null.
+     * @param container the metadata.
+     * @param path the path.
+     */
+    private static Object find(MetadataPathIndex index, MetadataContainer container, MetadataPath path) {
+        if (index != null) {
+            return index.get(path);
+        }
+        return TreeStructureUtil.getPath(container, path.getNames());
+    }
+
     /**
      * Method will compare the argument metadata values values.
      * @param lv left metadata.
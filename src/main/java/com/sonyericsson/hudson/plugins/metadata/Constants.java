@@ -68,6 +68,53 @@ public abstract class Constants {
      */
     public static final String METADATA_CHECKS_URL_NAME = "MetadataChecks";
 
+    /**
+     * The name of the file in the build directory that
+     * {@link com.sonyericsson.hudson.plugins.metadata.model.MetadataBuildAction} stores the build's metadata in.
+     */
+    public static final String BUILD_METADATA_FILE = "metadata.xml";
+
+    /**
+     * The name of the file in the build directory that
+     * {@link com.sonyericsson.hudson.plugins.metadata.model.MetadataBuildAction} stores the build's metadata in when
+     * it can be written in the binary format of
+     * {@link com.sonyericsson.hudson.plugins.metadata.model.values.BinaryMetadataCodec}.
+     */
+    public static final String BUILD_METADATA_BINARY_FILE = "metadata.bin";
+
+    /**
+     * The name of the file next to the metadata file of a build or node, that updates are appended to until the
+     * metadata is saved, see {@link com.sonyericsson.hudson.plugins.metadata.model.MetadataJournal}.
+     */
+    public static final String METADATA_JOURNAL_FILE = "metadata.journal";
+
+    /**
+     * The name of the file in Jenkins home that updates to the master's node metadata are appended to.
+     */
+    public static final String MASTER_METADATA_JOURNAL_FILE = "metadata-master.journal";
+
+    /**
+     * The directory in Jenkins home with a directory per node, where
+     * {@link com.sonyericsson.hudson.plugins.metadata.model.MetadataNodeProperty} stores the node's metadata.
+     */
+    public static final String NODES_DIR = "nodes";
+
+    /**
+     * The name of the file in the node's directory that the node's metadata is stored in.
+     */
+    public static final String NODE_METADATA_FILE = "metadata.xml";
+
+    /**
+     * The name of the file in Jenkins home that the master's node metadata is stored in.
+     * Not in {@link #NODES_DIR} so that it can't be mistaken for a node with the same name as the master.
+     */
+    public static final String MASTER_METADATA_FILE = "metadata-master.xml";
+
+    /**
+     * The name of the directory in the job's directory that the columns of the build metadata are stored in.
+     */
+    public static final String BUILD_METADATA_COLUMNS_DIR = "metadata-columns";
+
     /**
      * The icon to display for the actions.
      */
@@ -85,6 +132,12 @@ public abstract class Constants {
      */
     public static final String SERIALIZATION_ALIAS_NUMBER = "metadata-number";
 
+    /**
+     * Serialization alias (XStream and JSON) for
+     * {@link com.sonyericsson.hudson.plugins.metadata.model.values.NumberArrayMetadataValue}.
+     */
+    public static final String SERIALIZATION_ALIAS_NUMBER_ARRAY = "metadata-number-array";
+
     /**
      * Serialization alias (XStream and JSON) for
      * {@link com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue}.
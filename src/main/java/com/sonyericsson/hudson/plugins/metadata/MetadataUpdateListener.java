@@ -26,7 +26,10 @@ package com.sonyericsson.hudson.plugins.metadata;
 
 import hudson.ExtensionList;
 import hudson.ExtensionPoint;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataNodeProperty;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataTreeDiff;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
 import hudson.model.Hudson;
 
 /**
@@ -54,4 +57,27 @@ public abstract class MetadataUpdateListener implements ExtensionPoint {
      */
     public void metadataNodePropertyChanged(MetadataNodeProperty property) {
     }
+
+    /**
+     * Finds all the MetadataUpdateListeners and runs metadataContainerChanged on them
+     * when a diff has been applied to a container.
+     * @param container the changed container.
+     * @param diff what was changed.
+     */
+    public static void notifyMetadataContainerChanged(MetadataContainer<MetadataValue> container,
+                                                      MetadataTreeDiff diff) {
+        ExtensionList<MetadataUpdateListener> extensionList =
+                Hudson.getInstance().getExtensionList(MetadataUpdateListener.class);
+        for (MetadataUpdateListener listener : extensionList) {
+            listener.metadataContainerChanged(container, diff);
+        }
+    }
+
+    /**
+     * Run when a diff has been applied to the Metadata in a container. Not run if nothing was changed.
+     * @param container the changed container.
+     * @param diff what was changed.
+     */
+    public void metadataContainerChanged(MetadataContainer<MetadataValue> container, MetadataTreeDiff diff) {
+    }
 }
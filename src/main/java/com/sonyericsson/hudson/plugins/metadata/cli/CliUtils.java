@@ -41,6 +41,7 @@ import org.kohsuke.args4j.CmdLineException;
 import java.io.IOException;
 
 import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 import static java.net.HttpURLConnection.HTTP_OK;
 
@@ -73,6 +74,10 @@ public abstract class CliUtils {
          * (2)
          */
         ERR_BAD_DATA(2, HTTP_BAD_REQUEST),
+        /**
+         * Status code indicating that the user lacks the permission to do it. (3)
+         */
+        ERR_NO_PERMISSION(3, HTTP_FORBIDDEN),
         /**
          * Commandline status indicating that the metadata could not be saved to disk.
          */
@@ -170,6 +175,10 @@ public abstract class CliUtils {
                         } else if (createContainer) {
                             action = new MetadataBuildAction();
                             buildByNumber.addAction(action);
+                            if (!buildByNumber.isBuilding()) {
+                                //Jenkins saves build.xml of a running build when it completes, but not of this one.
+                                buildByNumber.save();
+                            }
                             container = action;
                         } else {
                             throw new NoMetadataException("Build #" + build + " of job "
@@ -23,7 +23,9 @@
  */
 package com.sonyericsson.hudson.plugins.metadata.cli;
 
+import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataPath;
 import com.sonyericsson.hudson.plugins.metadata.model.PluginImpl;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
 import hudson.Extension;
@@ -32,6 +34,8 @@ import net.sf.json.JSON;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.Option;
 
+import java.util.List;
+
 /**
  * Command for listing/viewing data on stuff.
  *
@@ -40,7 +44,7 @@ import org.kohsuke.args4j.Option;
 @Extension
 public class GetMetadataCommand extends CLICommand {
 
-    //CS IGNORE VisibilityModifier FOR NEXT 25 LINES. REASON: Standard Jenkins Args4J design pattern.
+    //CS IGNORE VisibilityModifier FOR NEXT 40 LINES. REASON: Standard Jenkins Args4J design pattern.
 
     /**
      * The job argument. The name of the job/project to add data to. If job is not provided {@link #node} must be.
@@ -60,6 +64,24 @@ public class GetMetadataCommand extends CLICommand {
     @Option(name = "-node", usage = "The name of the node/computer to get.")
     public String node;
 
+    /**
+     * The path argument. The path to the value to get, ex: <code>hardware.cpu.cores</code>.
+     */
+    @Option(name = "-path", usage = "The path to the value to get, the names separated by dots.")
+    public String path;
+
+    /**
+     * The depth argument. The number of levels of the tree to get.
+     */
+    @Option(name = "-depth", usage = "The number of levels of the tree to get.")
+    public Integer depth;
+
+    /**
+     * The fields argument. The attributes of each value to get, ex: <code>name,value</code>.
+     */
+    @Option(name = "-fields", usage = "A comma separated list of the attributes of each value to get.")
+    public String fields;
+
     @Override
     public String getShortDescription() {
         return "Gets the metadata for a job, build or node.";
@@ -83,7 +105,25 @@ public class GetMetadataCommand extends CLICommand {
         }
         if (container != null) {
             container.getACL().checkPermission(PluginImpl.READ_METADATA);
-            JSON json = container.toJson();
+            MetadataPath metadataPath = null;
+            if (path != null && !path.isEmpty()) {
+                metadataPath = MetadataPath.parse(path);
+            }
+            int levels = 0;
+            if (depth != null) {
+                levels = depth;
+            }
+            List<String> fieldList = JsonUtils.parseFields(fields);
+            JSON json;
+            if (metadataPath == null && levels <= 0 && fieldList == null) {
+                json = container.toJson();
+            } else {
+                json = JsonUtils.toJson(container, metadataPath, levels, fieldList);
+                if (json == null) {
+                    stderr.println("There is no metadata at " + metadataPath);
+                    return CliUtils.Status.ERR_NO_METADATA.code();
+                }
+            }
             stdout.println(json.toString());
         } else {
             stderr.println("No metadata container found.");
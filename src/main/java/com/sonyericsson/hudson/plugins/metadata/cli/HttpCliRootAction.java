@@ -25,22 +25,39 @@ package com.sonyericsson.hudson.plugins.metadata.cli;
 
 import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataGeneration;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataJournal;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataPath;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataSaver;
 import com.sonyericsson.hudson.plugins.metadata.model.PluginImpl;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
-import com.sonyericsson.hudson.plugins.metadata.model.values.ParentUtil;
 import hudson.Extension;
+import hudson.model.Hudson;
 import hudson.model.Queue;
 import hudson.model.RootAction;
 import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
 import net.sf.json.JSONSerializer;
+import org.acegisecurity.AccessDeniedException;
+import org.apache.commons.io.IOUtils;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 import static com.sonyericsson.hudson.plugins.metadata.cli.CliResponse.Type;
 import static com.sonyericsson.hudson.plugins.metadata.cli.CliResponse.sendError;
@@ -48,6 +65,7 @@ import static com.sonyericsson.hudson.plugins.metadata.cli.CliResponse.sendOk;
 import static com.sonyericsson.hudson.plugins.metadata.cli.CliResponse.createResponse;
 import static com.sonyericsson.hudson.plugins.metadata.cli.CliResponse.CONTENT_TYPE;
 import static com.sonyericsson.hudson.plugins.metadata.cli.CliResponse.sendResponse;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_OK;
 
 /**
@@ -68,6 +86,22 @@ public class HttpCliRootAction implements RootAction {
      * The URL to this action.
      */
     protected static final String URL = "metadata-httpcli";
+    /**
+     * Response header with the {@link MetadataContainer#getVersion()} of the container that was returned.
+     */
+    public static final String HEADER_VERSION = "X-Metadata-Version";
+    /**
+     * Response header with the {@link MetadataGeneration#current()} when the response was created.
+     */
+    public static final String HEADER_GENERATION = "X-Metadata-Generation";
+    /**
+     * Response header with the entity tag of what {@link #doGet(StaplerRequest, StaplerResponse)} returned.
+     */
+    public static final String HEADER_ETAG = "ETag";
+    /**
+     * Request header with the entity tags that the client has already, to get 304 Not Modified if one still matches.
+     */
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
 
     @Override
     public String getIconFileName() {
@@ -91,6 +125,10 @@ public class HttpCliRootAction implements RootAction {
      * <code> http://jenkinshost/metadata-httpcli/update?node=bobby&data={metadata-type: "metadata-string" name="owner"
      * value="bobby"} </code> would update the metadata in on the node named "bobby" with a metadata string with the
      * name owner and the value "bobby".
+     * The data can also be sent as the body of a POST with the content type application/json, it is then read as it
+     * is streamed instead of as one big parameter.
+     * The data is saved to disk in the background, see {@link MetadataSaver}, unless the sync parameter is set.
+     * Containers with a {@link MetadataJournal} get the update appended to the journal instead.
      *
      * @param request  the request.
      * @param response the response
@@ -105,9 +143,15 @@ public class HttpCliRootAction implements RootAction {
         }
         MetadataContainer<MetadataValue> container;
         String dataDocument = request.getParameter("data");
+        BufferedReader body = null;
         if (dataDocument == null || dataDocument.isEmpty()) {
-            sendError(CliUtils.Status.ERR_BAD_CMD, "No metadata provided!", response);
-            return;
+            if (request.getReader() != null) {
+                body = new BufferedReader(request.getReader());
+            }
+            if (body == null || !hasData(body)) {
+                sendError(CliUtils.Status.ERR_BAD_CMD, "No metadata provided!", response);
+                return;
+            }
         }
         try {
             container = CliUtils.getContainer(params.getNode(), params.getJob(), params.getBuild(), true);
@@ -127,28 +171,42 @@ public class HttpCliRootAction implements RootAction {
             if (params.isReplace()) {
                 container.getACL().checkPermission(PluginImpl.REPLACE_METADATA);
             }
-            JSON json = JSONSerializer.toJSON(dataDocument);
+            JSON json = null;
+            List<MetadataValue> values;
             try {
-                List<MetadataValue> values = JsonUtils.toValues(json, container);
-                if (params.isReplace()) {
-                    ParentUtil.replaceChildren(container, values);
-                    sendOk(response);
+                if (body != null) {
+                    //Straight from the body into values, without the whole document in memory.
+                    values = JsonUtils.toValues(body, container);
                 } else {
-                    Collection<MetadataValue> leftOvers = container.addChildren(values);
-                    if (leftOvers != null && !leftOvers.isEmpty()) {
-                        JSONObject jsonMessage = createResponse(Type.warning, 0, "Warning",
-                                "The following data could not be replaced because"
-                                + "it already existed. Use the replace parameter to try and force it in.");
-                        jsonMessage.put("leftOvers", JsonUtils.toJson(leftOvers));
-                        sendResponse(response, jsonMessage, HTTP_OK);
-                    } else {
-                        sendOk(response);
-                    }
+                    json = JSONSerializer.toJSON(dataDocument);
+                    values = JsonUtils.toValues(json, container);
                 }
-                container.save();
-                Queue.getInstance().scheduleMaintenance();
             } catch (JsonUtils.ParseException e) {
                 sendError(CliUtils.Status.ERR_BAD_DATA, e.getMessage(), response);
+                return;
+            } catch (IOException e) {
+                sendError(CliUtils.Status.ERR_BAD_DATA, "Could not read the metadata: " + e.getMessage(), response);
+                return;
+            }
+            try {
+                //Saved before the response is sent so that a synchronous save can report a failure.
+                MetadataUpdate update = MetadataUpdate.applyAndSave(container, values, json, params.isReplace(),
+                        params.isSync());
+                JSONObject jsonMessage = null;
+                if (update.hasLeftOvers()) {
+                    jsonMessage = createResponse(Type.warning, 0, "Warning",
+                            "The following data could not be replaced because"
+                            + "it already existed. Use the replace parameter to try and force it in.");
+                    jsonMessage.put("leftOvers", JsonUtils.toJson(update.getLeftOvers()));
+                }
+                if (update.isChanged()) {
+                    Queue.getInstance().scheduleMaintenance();
+                }
+                if (jsonMessage != null) {
+                    sendResponse(response, jsonMessage, HTTP_OK);
+                } else {
+                    sendOk(response);
+                }
             } catch (IOException ex) {
                 sendError(CliUtils.Status.WARN_NO_SAVE,
                         "Warning Could not save the data to disk, the data is added in memory.\n"
@@ -159,10 +217,120 @@ public class HttpCliRootAction implements RootAction {
         }
     }
 
+    /**
+     * Update the metadata in many containers in one request. The document is a JSON array of entries like
+     * <code>{"target":{"job":"myjob","build":12},"data":[...],"replace":false}</code>, where the target has the same
+     * node, job and build as the parameters of {@link #doUpdate(StaplerRequest, StaplerResponse)}. It is taken from
+     * the data parameter, or from the body of a POST. The sync parameter applies to the whole request.
+     * <p/>
+     * The entries are grouped by container. Each container has its permissions checked once, gets all of its
+     * entries applied under one lock in the order they came, and is saved once. The response has a result for each
+     * entry, in the same order as the entries, in the same format as the response of an update.
+     *
+     * @param request  the request.
+     * @param response the response
+     * @throws Exception if something unknown happened.
+     */
+    @SuppressWarnings("unused")
+    public void doBatchUpdate(StaplerRequest request, StaplerResponse response) throws Exception {
+        String document = request.getParameter("data");
+        if (document == null || document.isEmpty()) {
+            document = IOUtils.toString(request.getReader());
+        }
+        if (document == null || document.trim().isEmpty()) {
+            sendError(CliUtils.Status.ERR_BAD_CMD, "No metadata provided!", response);
+            return;
+        }
+        JSONArray entries;
+        try {
+            JSON json = JSONSerializer.toJSON(document);
+            if (!json.isArray()) {
+                sendError(CliUtils.Status.ERR_BAD_DATA, "The batch must be a JSON array of entries.", response);
+                return;
+            }
+            entries = (JSONArray)json;
+        } catch (JSONException e) {
+            sendError(CliUtils.Status.ERR_BAD_DATA, e.getMessage(), response);
+            return;
+        }
+        boolean sync = ContainerParams.isChecked(request.getParameter("sync"));
+
+        JSONObject[] results = new JSONObject[entries.size()];
+        Map<MetadataContainer<MetadataValue>, List<Integer>> groups =
+                new IdentityHashMap<MetadataContainer<MetadataValue>, List<Integer>>();
+        List<MetadataContainer<MetadataValue>> order = new LinkedList<MetadataContainer<MetadataValue>>();
+        for (int i = 0; i < entries.size(); i++) {
+            Object entry = entries.get(i);
+            if (!(entry instanceof JSONObject) || !(((JSONObject)entry).get("target") instanceof JSONObject)) {
+                results[i] = createResponse(Type.error, CliUtils.Status.ERR_BAD_DATA.code(),
+                        CliUtils.Status.ERR_BAD_DATA.name(), "The entry has no target.");
+                continue;
+            }
+            JSONObject target = ((JSONObject)entry).getJSONObject("target");
+            try {
+                Integer build = null;
+                if (target.has("build")) {
+                    build = target.getInt("build");
+                }
+                MetadataContainer<MetadataValue> container = CliUtils.getContainer(
+                        target.optString("node", null), target.optString("job", null), build, true);
+                if (container == null) {
+                    throw new CmdLineException(null, "No metadata container found.");
+                }
+                List<Integer> group = groups.get(container);
+                if (group == null) {
+                    group = new LinkedList<Integer>();
+                    groups.put(container, group);
+                    order.add(container);
+                }
+                group.add(i);
+            } catch (CmdLineException e) {
+                results[i] = createError(CliUtils.Status.ERR_BAD_CMD, e.getMessage());
+            } catch (CliUtils.NoItemException e) {
+                results[i] = createError(CliUtils.Status.ERR_NO_ITEM, e.getMessage());
+            } catch (CliUtils.NoMetadataException e) {
+                results[i] = createError(CliUtils.Status.ERR_NO_METADATA, e.getMessage());
+            } catch (JSONException e) {
+                results[i] = createError(CliUtils.Status.ERR_BAD_DATA, e.getMessage());
+            }
+        }
+
+        boolean anyChanged = false;
+        for (MetadataContainer<MetadataValue> container : order) {
+            anyChanged |= applyBatch(container, groups.get(container), entries, results, sync);
+        }
+        if (anyChanged) {
+            Queue.getInstance().scheduleMaintenance();
+        }
+
+        boolean allOk = true;
+        JSONArray resultArray = new JSONArray();
+        for (JSONObject result : results) {
+            allOk &= Type.ok.name().equals(result.optString("type"));
+            resultArray.add(result);
+        }
+        JSONObject json;
+        if (allOk) {
+            json = createResponse(Type.ok, 0, null, "OK");
+        } else {
+            json = createResponse(Type.warning, 0, "Warning", "Some of the entries could not be applied.");
+        }
+        json.put("results", resultArray);
+        sendResponse(response, json, HTTP_OK);
+    }
+
     /**
      * Get the metadata in a container. Valid http parameters are : node or job or (job and build). Ex:
      * <code>http://jenkinshost/metadata-httpcli/get?node=bobby</code> would give you the metadata in JSON format for
      * the node named "bobby"
+     * <p>
+     * Only a part of the metadata can be selected with the optional parameters path (the value to get, ex:
+     * <code>hardware.cpu.cores</code>), depth (the number of levels of the tree to get) and fields (a comma separated
+     * list of the attributes to get, ex: <code>name,value</code>). When a path is given the response is the JSON
+     * object of that value instead of an array of all the values in the container.
+     * <p>
+     * The response has an ETag that changes with the container's version. A request with that ETag in If-None-Match
+     * is answered with 304 Not Modified, without converting anything, if the container hasn't changed since.
      *
      * @param request  the request.
      * @param response the response
@@ -171,31 +339,349 @@ public class HttpCliRootAction implements RootAction {
      */
     @SuppressWarnings("unused")
     public void doGet(StaplerRequest request, StaplerResponse response) throws Exception {
+        int depth = 0;
+        try {
+            String depthStr = request.getParameter("depth");
+            if (depthStr != null && !depthStr.isEmpty()) {
+                depth = Integer.parseInt(depthStr);
+            }
+        } catch (NumberFormatException e) {
+            sendError(CliUtils.Status.ERR_BAD_CMD, "Not a number: " + e.getMessage(), response);
+            return;
+        }
+        MetadataPath path = null;
+        String pathStr = request.getParameter("path");
+        if (pathStr != null && !pathStr.isEmpty()) {
+            path = MetadataPath.parse(pathStr);
+        }
+        List<String> fields = JsonUtils.parseFields(request.getParameter("fields"));
+        MetadataContainer<MetadataValue> container = findContainer(request, response);
+        if (container != null) {
+            container.getACL().checkPermission(PluginImpl.READ_METADATA);
+            //Read the version before the data so that a client never gets a newer version than the data it got.
+            long version = container.getVersion();
+            String eTag = getETag(container, version);
+            response.setHeader(HEADER_ETAG, eTag);
+            if (matchesETag(request.getHeader(HEADER_IF_NONE_MATCH), eTag)) {
+                response.setStatus(HTTP_NOT_MODIFIED);
+                return;
+            }
+            JSON json;
+            if (path == null && depth <= 0 && fields == null) {
+                json = container.toJson();
+            } else {
+                json = JsonUtils.toJson(container, path, depth, fields);
+                if (json == null) {
+                    sendError(CliUtils.Status.ERR_NO_METADATA, "There is no metadata at " + path, response);
+                    return;
+                }
+            }
+            response.setContentType(CONTENT_TYPE);
+            response.setHeader(HEADER_VERSION, String.valueOf(version));
+            response.setHeader(HEADER_GENERATION, String.valueOf(MetadataGeneration.current()));
+            response.getOutputStream().print(json.toString());
+        }
+    }
+
+    /**
+     * The ETag of a version of a container. The identity of the container is part of it since a container that
+     * replaces another, as when a job is reconfigured, can start over at the same version, and the epoch is part of
+     * it since all versions start over when Jenkins is restarted.
+     *
+     * @param container the container.
+     * @param version   the version of the container.
+     * @return the quoted ETag.
+     */
+    private static String getETag(MetadataContainer<MetadataValue> container, long version) {
+        return "\"" + Long.toHexString(MetadataGeneration.getEpoch())
+                + "-" + Integer.toHexString(System.identityHashCode(container))
+                + "-" + Long.toHexString(version) + "\"";
+    }
+
+    /**
+     * Checks if an If-None-Match header matches an ETag. Weak comparison is used, as RFC 7232 says it should be.
+     *
+     * @param ifNoneMatch the header, can be null.
+     * @param eTag        the quoted ETag.
+     * @return true if the client has the representation with the ETag already.
+     */
+    private static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || eTag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the version of the metadata in a container, to check if it has changed without fetching all of it. Valid
+     * http parameters are the same as for {@link #doGet(StaplerRequest, StaplerResponse)}. Ex:
+     * <code>http://jenkinshost/metadata-httpcli/version?node=bobby</code> would give you
+     * <code>{"version":12,"generation":42}</code>.
+     *
+     * @param request  the request.
+     * @param response the response
+     * @throws Exception if something unknown happened.
+     * @see MetadataContainer#getVersion()
+     */
+    @SuppressWarnings("unused")
+    public void doVersion(StaplerRequest request, StaplerResponse response) throws Exception {
+        MetadataContainer<MetadataValue> container = findContainer(request, response);
+        if (container != null) {
+            container.getACL().checkPermission(PluginImpl.READ_METADATA);
+            JSONObject json = new JSONObject();
+            json.put("version", container.getVersion());
+            json.put("generation", MetadataGeneration.current());
+            response.setContentType(CONTENT_TYPE);
+            response.getOutputStream().print(json.toString());
+        }
+    }
+
+    /**
+     * Get the global metadata generation, it changes when the metadata in any container changes. Ex:
+     * <code>http://jenkinshost/metadata-httpcli/generation</code> would give you <code>{"generation":42}</code>.
+     *
+     * @param request  the request.
+     * @param response the response
+     * @throws Exception if something unknown happened.
+     * @see MetadataGeneration
+     */
+    @SuppressWarnings("unused")
+    public void doGeneration(StaplerRequest request, StaplerResponse response) throws Exception {
+        Hudson.getInstance().checkPermission(PluginImpl.READ_METADATA);
+        JSONObject json = new JSONObject();
+        json.put("generation", MetadataGeneration.current());
+        response.setContentType(CONTENT_TYPE);
+        response.getOutputStream().print(json.toString());
+    }
+
+    /**
+     * Export the metadata of all jobs, builds and nodes that the user may read, as one JSON record per line. Ex:
+     * <code>http://jenkinshost/metadata-httpcli/export</code>. The records are streamed as they are written, see
+     * {@link MetadataBulkTransfer} for the format.
+     *
+     * @param request  the request.
+     * @param response the response
+     * @throws Exception if something unknown happened.
+     */
+    @SuppressWarnings("unused")
+    public void doExport(StaplerRequest request, StaplerResponse response) throws Exception {
+        Hudson.getInstance().checkPermission(PluginImpl.READ_METADATA);
+        response.setContentType(MetadataBulkTransfer.CONTENT_TYPE_NDJSON + "; charset=UTF-8");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+        MetadataBulkTransfer.export(writer);
+        writer.flush();
+    }
+
+    /**
+     * Import records in the format of {@link #doExport(StaplerRequest, StaplerResponse)} from the body of a POST.
+     * Valid http parameters are: replace, batch (records between saves), skip (records already imported) and
+     * checkpoint (a name to keep the progress under, so that the import resumes where it was cut short). The
+     * response tells how many records that are done, to send as skip when resuming without a checkpoint.
+     *
+     * @param request  the request.
+     * @param response the response
+     * @throws Exception if something unknown happened.
+     * @see MetadataBulkTransfer#importRecords(java.io.BufferedReader, boolean, long, int, java.io.File)
+     */
+    @SuppressWarnings("unused")
+    public void doImport(StaplerRequest request, StaplerResponse response) throws Exception {
+        Hudson.getInstance().checkPermission(PluginImpl.UPDATE_METADATA);
+        int batch = MetadataBulkTransfer.DEFAULT_BATCH_SIZE;
+        long skip = 0;
+        File checkpoint = null;
+        try {
+            String batchStr = request.getParameter("batch");
+            if (batchStr != null) {
+                batch = Math.max(1, Integer.parseInt(batchStr));
+            }
+            String skipStr = request.getParameter("skip");
+            if (skipStr != null) {
+                skip = Long.parseLong(skipStr);
+            }
+            String checkpointName = request.getParameter("checkpoint");
+            if (checkpointName != null) {
+                checkpoint = MetadataBulkTransfer.getCheckpointFile(checkpointName);
+            }
+        } catch (NumberFormatException e) {
+            sendError(CliUtils.Status.ERR_BAD_CMD, "Not a number: " + e.getMessage(), response);
+            return;
+        } catch (IllegalArgumentException e) {
+            sendError(CliUtils.Status.ERR_BAD_CMD, e.getMessage(), response);
+            return;
+        }
+        boolean replace = ContainerParams.isChecked(request.getParameter("replace"));
+        MetadataBulkTransfer.Result result = MetadataBulkTransfer.importRecords(
+                new BufferedReader(request.getReader()), replace, skip, batch, checkpoint);
+        if (result.getImported() > 0) {
+            Queue.getInstance().scheduleMaintenance();
+        }
+        JSONObject json;
+        if (!result.isComplete()) {
+            json = createResponse(Type.error, CliUtils.Status.WARN_NO_SAVE.code(), CliUtils.Status.WARN_NO_SAVE.name(),
+                    "The import stopped before it was complete, resume it from the checkpoint.\n"
+                            + result.getError());
+        } else if (result.getFailureCount() > 0) {
+            json = createResponse(Type.warning, 0, "Warning", "Some records could not be imported.");
+        } else {
+            json = createResponse(Type.ok, 0, null, "OK");
+        }
+        sendResponse(response, result.addTo(json), HTTP_OK);
+    }
+
+    /**
+     * Finds the container pointed out by the http parameters of the request, sends an error if it can't be found.
+     *
+     * @param request  the request.
+     * @param response the response to send the error to.
+     * @return the container or null if an error has been sent.
+     * @throws IOException if the error could not be sent.
+     */
+    private MetadataContainer<MetadataValue> findContainer(StaplerRequest request, StaplerResponse response)
+            throws IOException {
         ContainerParams params = new ContainerParams(request, response).invoke();
         if (!params.isUsable()) {
-            return;
+            return null;
         }
         MetadataContainer<MetadataValue> container;
         try {
             container = CliUtils.getContainer(params.getNode(), params.getJob(), params.getBuild(), false);
         } catch (CmdLineException e) {
             sendError(CliUtils.Status.ERR_BAD_CMD, e.getMessage(), response);
-            return;
+            return null;
         } catch (CliUtils.NoItemException e) {
             sendError(CliUtils.Status.ERR_NO_ITEM, e.getMessage(), response);
-            return;
+            return null;
         } catch (CliUtils.NoMetadataException e) {
             sendError(CliUtils.Status.ERR_NO_METADATA, e.getMessage(), response);
-            return;
+            return null;
         }
-        if (container != null) {
-            container.getACL().checkPermission(PluginImpl.READ_METADATA);
-            JSON json = container.toJson();
-            response.setContentType(CONTENT_TYPE);
-            response.getOutputStream().print(json.toString());
-        } else {
+        if (container == null) {
             sendError(CliUtils.Status.ERR_BAD_CMD, "No metadata container found.", response);
         }
+        return container;
+    }
+
+    /**
+     * Applies the entries of a batch update that are for the same container, under one lock, and saves the
+     * container once.
+     *
+     * @param container the container.
+     * @param group     the indexes of the entries for the container, in the order they came.
+     * @param entries   all entries.
+     * @param results   the results of all entries, filled in for the entries of the container.
+     * @param sync      true if the container should be saved before this method returns.
+     * @return true if the container changed.
+     */
+    private static boolean applyBatch(MetadataContainer<MetadataValue> container, List<Integer> group,
+                                      JSONArray entries, JSONObject[] results, boolean sync) {
+        boolean changed = false;
+        boolean journaled = true;
+        try {
+            container.getACL().checkPermission(PluginImpl.UPDATE_METADATA);
+            for (int i : group) {
+                if (entries.getJSONObject(i).optBoolean("replace")) {
+                    container.getACL().checkPermission(PluginImpl.REPLACE_METADATA);
+                    break;
+                }
+            }
+        } catch (AccessDeniedException e) {
+            for (int i : group) {
+                results[i] = createError(CliUtils.Status.ERR_NO_PERMISSION, e.getMessage());
+            }
+            return false;
+        }
+        //Parsed before the lock is taken, so that other readers and writers only wait for the updates.
+        Map<Integer, List<MetadataValue>> parsed = new LinkedHashMap<Integer, List<MetadataValue>>();
+        for (int i : group) {
+            JSONObject entry = entries.getJSONObject(i);
+            try {
+                Object data = entry.get("data");
+                if (!(data instanceof JSON)) {
+                    throw new JsonUtils.ParseException("The entry has no data.", entry);
+                }
+                parsed.put(i, JsonUtils.toValues((JSON)data, container));
+            } catch (JsonUtils.ParseException e) {
+                results[i] = createError(CliUtils.Status.ERR_BAD_DATA, e.getMessage());
+            }
+        }
+        Lock writeLock = container.getLock().writeLock();
+        writeLock.lock();
+        try {
+            for (Map.Entry<Integer, List<MetadataValue>> values : parsed.entrySet()) {
+                int i = values.getKey();
+                JSONObject entry = entries.getJSONObject(i);
+                MetadataUpdate update = MetadataUpdate.apply(container, values.getValue(), (JSON)entry.get("data"),
+                        entry.optBoolean("replace"), sync);
+                if (update.isChanged()) {
+                    changed = true;
+                    journaled &= update.isJournaled();
+                }
+                if (update.hasLeftOvers()) {
+                    results[i] = createResponse(Type.warning, 0, "Warning",
+                            "Some of the data could not be added because it already existed."
+                            + " Use replace to try and force it in.");
+                    results[i].put("leftOvers", JsonUtils.toJson(update.getLeftOvers()));
+                } else {
+                    results[i] = createResponse(Type.ok, 0, null, "OK");
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (changed) {
+            try {
+                MetadataUpdate.save(container, journaled, sync);
+            } catch (IOException e) {
+                for (int i : group) {
+                    if (results[i].optString("type").equals(Type.ok.name())) {
+                        results[i] = createError(CliUtils.Status.WARN_NO_SAVE,
+                                "Could not save the data to disk, the data is added in memory.\n"
+                                        + e.getMessage());
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Tells if there is anything but whitespace left to read, without consuming it.
+     *
+     * @param reader the reader.
+     * @return true if so.
+     * @throws IOException if the reader fails.
+     */
+    private static boolean hasData(BufferedReader reader) throws IOException {
+        while (true) {
+            reader.mark(1);
+            int c = reader.read();
+            if (c < 0) {
+                return false;
+            } else if (!Character.isWhitespace(c)) {
+                reader.reset();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Creates the response of an error.
+     *
+     * @param status  the status.
+     * @param message the message.
+     * @return the response object.
+     */
+    private static JSONObject createError(CliUtils.Status status, String message) {
+        return createResponse(Type.error, status.code(), status.name(), message);
     }
 
     /**
@@ -209,6 +695,7 @@ public class HttpCliRootAction implements RootAction {
         private String job;
         private Integer build;
         private boolean replace;
+        private boolean sync;
 
         /**
          * Standard constructor.
@@ -266,6 +753,15 @@ public class HttpCliRootAction implements RootAction {
             return replace;
         }
 
+        /**
+         * The sync param.
+         *
+         * @return true if the data should be saved before the response is sent.
+         */
+        public boolean isSync() {
+            return sync;
+        }
+
         /**
          * Get the parameters.
          *
@@ -287,14 +783,22 @@ public class HttpCliRootAction implements RootAction {
                     return this;
                 }
             }
-            String replaceStr = request.getParameter("replace");
-            if ("on".equalsIgnoreCase(replaceStr)
-                    || "yes".equalsIgnoreCase(replaceStr)
-                    || "true".equalsIgnoreCase(replaceStr)) {
-                replace = true;
-            }
+            replace = isChecked(request.getParameter("replace"));
+            sync = isChecked(request.getParameter("sync"));
             myResult = true;
             return this;
         }
+
+        /**
+         * If a boolean parameter is set.
+         *
+         * @param value the value of the parameter.
+         * @return true if the value is on, yes or true.
+         */
+        private static boolean isChecked(String value) {
+            return "on".equalsIgnoreCase(value)
+                    || "yes".equalsIgnoreCase(value)
+                    || "true".equalsIgnoreCase(value);
+        }
     }
 }
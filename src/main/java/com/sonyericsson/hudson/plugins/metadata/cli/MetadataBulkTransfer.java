@@ -0,0 +1,480 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.cli;
+
+import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataBuildAction;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataJobProperty;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataNodeProperty;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataSaver;
+import com.sonyericsson.hudson.plugins.metadata.model.PluginImpl;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TopLevelItem;
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+import org.acegisecurity.AccessDeniedException;
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.args4j.CmdLineException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Pattern;
+
+/**
+ * Exports and imports the metadata of all containers as newline delimited JSON, one record per container:
+ * <code>{"type":"build","id":"myjob","build":12,"metadata":[...]}</code>. The type is job, build or node, the id is
+ * the name of the job or node, the empty string for the master. Only builds have the build number.
+ *
+ * Records are written one container at a time, so exporting takes no more memory than the largest container. An
+ * import applies the records in batches and saves each container that a batch changed once. After each batch the
+ * number of records done is written to an optional checkpoint file, so that an import that was cut short can be
+ * resumed by sending the same records again.
+ *
+ * @see HttpCliRootAction#doExport(org.kohsuke.stapler.StaplerRequest, org.kohsuke.stapler.StaplerResponse)
+ * @see HttpCliRootAction#doImport(org.kohsuke.stapler.StaplerRequest, org.kohsuke.stapler.StaplerResponse)
+ */
+public final class MetadataBulkTransfer {
+
+    /**
+     * The content type of an export.
+     */
+    public static final String CONTENT_TYPE_NDJSON = "application/x-ndjson";
+    /**
+     * Record type of job metadata.
+     */
+    public static final String TYPE_JOB = "job";
+    /**
+     * Record type of build metadata.
+     */
+    public static final String TYPE_BUILD = "build";
+    /**
+     * Record type of node metadata.
+     */
+    public static final String TYPE_NODE = "node";
+    /**
+     * The key of the type of a record.
+     */
+    public static final String KEY_TYPE = "type";
+    /**
+     * The key of the name of the job or node of a record.
+     */
+    public static final String KEY_ID = "id";
+    /**
+     * The key of the build number of a build record.
+     */
+    public static final String KEY_BUILD = "build";
+    /**
+     * The key of the metadata of a record.
+     */
+    public static final String KEY_METADATA = "metadata";
+    /**
+     * The default number of records to apply between saves.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    /**
+     * The directory in Jenkins home where the checkpoints of imports are kept.
+     */
+    public static final String CHECKPOINT_DIR = "metadata-import";
+
+    private static final int MAX_FAILURES = 100;
+    private static final Pattern CHECKPOINT_NAME = Pattern.compile("[\\w.-]+");
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Utility constructor.
+     */
+    private MetadataBulkTransfer() {
+    }
+
+    /**
+     * Writes a record for every container that the current user may read.
+     *
+     * @param out the writer to write the records to, it is flushed after every record.
+     * @return the number of records written.
+     * @throws IOException if the records could not be written.
+     */
+    public static int export(Writer out) throws IOException {
+        Hudson hudson = Hudson.getInstance();
+        int count = 0;
+        if (write(out, TYPE_NODE, "", null, hudson.getNodeProperties().get(MetadataNodeProperty.class))) {
+            count++;
+        }
+        for (Node node : hudson.getNodes()) {
+            if (write(out, TYPE_NODE, node.getNodeName(), null,
+                    node.getNodeProperties().get(MetadataNodeProperty.class))) {
+                count++;
+            }
+        }
+        for (TopLevelItem item : hudson.getItems()) {
+            if (!(item instanceof AbstractProject)) {
+                continue;
+            }
+            AbstractProject<?, ?> project = (AbstractProject<?, ?>)item;
+            if (write(out, TYPE_JOB, project.getName(), null, project.getProperty(MetadataJobProperty.class))) {
+                count++;
+            }
+            for (Run build : project.getBuilds()) {
+                if (write(out, TYPE_BUILD, project.getName(), build.getNumber(),
+                        build.getAction(MetadataBuildAction.class))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the record of a container.
+     *
+     * @param out       the writer.
+     * @param type      the type of the record.
+     * @param id        the name of the job or node.
+     * @param build     the build number, or null.
+     * @param container the container, or null if there is none.
+     * @return true if a record was written.
+     * @throws IOException if the record could not be written.
+     */
+    private static boolean write(Writer out, String type, String id, Integer build,
+                                 MetadataContainer<MetadataValue> container) throws IOException {
+        if (container == null || !container.getACL().hasPermission(PluginImpl.READ_METADATA)) {
+            return false;
+        }
+        JSONObject record = new JSONObject();
+        record.put(KEY_TYPE, type);
+        record.put(KEY_ID, id);
+        if (build != null) {
+            record.put(KEY_BUILD, build);
+        }
+        record.put(KEY_METADATA, container.toJson());
+        out.write(record.toString());
+        out.write('\n');
+        out.flush();
+        return true;
+    }
+
+    /**
+     * The checkpoint file of an import.
+     *
+     * @param name the name of the import, letters, digits, dots, dashes and underscores.
+     * @return the file.
+     * @throws IllegalArgumentException if the name isn't valid.
+     */
+    public static File getCheckpointFile(String name) {
+        if (name == null || !CHECKPOINT_NAME.matcher(name).matches() || name.startsWith(".")) {
+            throw new IllegalArgumentException("Not a valid checkpoint name: " + name);
+        }
+        return new File(new File(Hudson.getInstance().getRootDir(), CHECKPOINT_DIR), name + ".checkpoint");
+    }
+
+    /**
+     * Imports records.
+     *
+     * @param in         the records.
+     * @param replace    true if the metadata in the records should replace what is in the containers, false to
+     *                   add to it.
+     * @param skip       the number of records to skip, as a previous import already did them. If 0 or less and
+     *                   there is a checkpoint, the import resumes after the checkpoint.
+     * @param batchSize  the number of records to apply between saves.
+     * @param checkpoint the file to keep the number of records done in, or null. It is removed when the import is
+     *                   complete.
+     * @return the outcome.
+     */
+    public static Result importRecords(BufferedReader in, boolean replace, long skip, int batchSize,
+                                       File checkpoint) {
+        Result result = new Result();
+        Set<MetadataContainer<MetadataValue>> dirty = Collections.newSetFromMap(
+                new IdentityHashMap<MetadataContainer<MetadataValue>, Boolean>());
+        try {
+            long start = skip;
+            if (start <= 0 && checkpoint != null && checkpoint.isFile()) {
+                start = readCheckpoint(checkpoint);
+            }
+            result.checkpoint = Math.max(0, start);
+            long record = 0;
+            int inBatch = 0;
+            String line = in.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    record++;
+                    if (record > start) {
+                        apply(record, line, replace, dirty, result);
+                        inBatch++;
+                        if (inBatch >= batchSize) {
+                            commit(dirty, record, checkpoint, result);
+                            inBatch = 0;
+                        }
+                    }
+                }
+                line = in.readLine();
+            }
+            commit(dirty, Math.max(record, result.checkpoint), checkpoint, result);
+            if (checkpoint != null && checkpoint.exists() && !checkpoint.delete()) {
+                throw new IOException("Failed to delete the checkpoint " + checkpoint);
+            }
+            result.complete = true;
+        } catch (IOException e) {
+            result.error = e.getMessage();
+        }
+        return result;
+    }
+
+    /**
+     * Applies a record to its container.
+     *
+     * @param number  the number of the record, for the failure message.
+     * @param line    the record.
+     * @param replace true to replace the metadata in the container.
+     * @param dirty   the containers that need saving.
+     * @param result  where the outcome is counted.
+     * @throws IOException if a container could not be created.
+     */
+    private static void apply(long number, String line, boolean replace,
+                              Set<MetadataContainer<MetadataValue>> dirty, Result result) throws IOException {
+        try {
+            JSONObject record = (JSONObject)JSONSerializer.toJSON(line);
+            MetadataContainer<MetadataValue> container = getContainer(record);
+            container.getACL().checkPermission(PluginImpl.UPDATE_METADATA);
+            if (replace) {
+                container.getACL().checkPermission(PluginImpl.REPLACE_METADATA);
+            }
+            Object metadata = record.get(KEY_METADATA);
+            if (!(metadata instanceof JSON)) {
+                throw new JsonUtils.ParseException("No " + KEY_METADATA + " in the record", record);
+            }
+            List<MetadataValue> values = JsonUtils.toValues((JSON)metadata, container);
+            MetadataUpdate update;
+            Lock writeLock = container.getLock().writeLock();
+            writeLock.lock();
+            try {
+                //Not forced to disk, the commit of the batch saves the container.
+                update = MetadataUpdate.apply(container, values, (JSON)metadata, replace, false);
+            } finally {
+                writeLock.unlock();
+            }
+            if (update.isChanged()) {
+                dirty.add(container);
+            }
+            result.imported++;
+        } catch (ClassCastException e) {
+            result.fail(number, "Not a JSON object");
+        } catch (JSONException e) {
+            result.fail(number, e.getMessage());
+        } catch (JsonUtils.ParseException e) {
+            result.fail(number, e.getMessage());
+        } catch (CmdLineException e) {
+            result.fail(number, e.getMessage());
+        } catch (CliUtils.NoItemException e) {
+            result.fail(number, e.getMessage());
+        } catch (CliUtils.NoMetadataException e) {
+            result.fail(number, e.getMessage());
+        } catch (AccessDeniedException e) {
+            result.fail(number, e.getMessage());
+        }
+    }
+
+    /**
+     * Finds or creates the container of a record.
+     *
+     * @param record the record.
+     * @return the container.
+     * @throws CmdLineException            if the record has no known type.
+     * @throws CliUtils.NoItemException     if the job, build or node doesn't exist.
+     * @throws CliUtils.NoMetadataException if the item can't have metadata.
+     * @throws IOException                 if the container could not be created.
+     */
+    //CS IGNORE RedundantThrows FOR NEXT 3 LINES. REASON: NoMetadataException listed twice but it's not.
+    private static MetadataContainer<MetadataValue> getContainer(JSONObject record)
+            throws CmdLineException, CliUtils.NoItemException, CliUtils.NoMetadataException, IOException {
+        String type = record.optString(KEY_TYPE);
+        String id = record.optString(KEY_ID);
+        if (TYPE_NODE.equals(type)) {
+            if (id.length() == 0) {
+                Hudson master = Hudson.getInstance();
+                MetadataNodeProperty property = master.getNodeProperties().get(MetadataNodeProperty.class);
+                if (property == null) {
+                    property = MetadataNodeProperty.MetadataNodePropertyDescriptor.instanceFor(master);
+                }
+                return property;
+            }
+            return CliUtils.getContainer(id, null, null, true);
+        } else if (TYPE_JOB.equals(type)) {
+            return CliUtils.getContainer(null, id, null, true);
+        } else if (TYPE_BUILD.equals(type)) {
+            if (!record.has(KEY_BUILD)) {
+                throw new CmdLineException(null, "A build record needs a build number.");
+            }
+            return CliUtils.getContainer(null, id, record.getInt(KEY_BUILD), true);
+        }
+        throw new CmdLineException(null, "Unknown record type: " + type);
+    }
+
+    /**
+     * Saves the containers that the records since the last commit changed, once each, and moves the checkpoint.
+     *
+     * @param dirty      the containers to save, cleared when done.
+     * @param record     the number of the last record that was applied.
+     * @param checkpoint the checkpoint file or null.
+     * @param result     the outcome.
+     * @throws IOException if a container or the checkpoint could not be saved.
+     */
+    private static void commit(Set<MetadataContainer<MetadataValue>> dirty, long record, File checkpoint,
+                               Result result) throws IOException {
+        //Saved in full before the checkpoint moves, since the journal entries of the batch weren't forced to disk.
+        for (MetadataContainer<MetadataValue> container : dirty) {
+            MetadataSaver.getDefault().save(container, true);
+        }
+        dirty.clear();
+        result.checkpoint = record;
+        if (checkpoint != null) {
+            FileUtils.writeStringToFile(checkpoint, String.valueOf(record), CHARSET);
+        }
+    }
+
+    /**
+     * Reads a checkpoint.
+     *
+     * @param checkpoint the file.
+     * @return the number of records done.
+     * @throws IOException if it can't be read.
+     */
+    private static long readCheckpoint(File checkpoint) throws IOException {
+        String content = FileUtils.readFileToString(checkpoint, CHARSET).trim();
+        try {
+            return Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a checkpoint: " + checkpoint);
+        }
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static final class Result {
+        private long checkpoint = 0;
+        private int imported = 0;
+        private int failureCount = 0;
+        private final List<String> failures = new ArrayList<String>();
+        private boolean complete = false;
+        private String error = null;
+
+        /**
+         * Records a record that could not be applied.
+         *
+         * @param record  the number of the record.
+         * @param message what went wrong.
+         */
+        private void fail(long record, String message) {
+            failureCount++;
+            if (failures.size() < MAX_FAILURES) {
+                failures.add("Record " + record + ": " + message);
+            }
+        }
+
+        /**
+         * The number of records that are done and saved, skipped records included. Send it as the number of
+         * records to skip to resume the import.
+         *
+         * @return the number of records.
+         */
+        public long getCheckpoint() {
+            return checkpoint;
+        }
+
+        /**
+         * The number of records that were applied.
+         *
+         * @return the number.
+         */
+        public int getImported() {
+            return imported;
+        }
+
+        /**
+         * The number of records that could not be applied.
+         *
+         * @return the number.
+         */
+        public int getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * What went wrong with the first records that could not be applied.
+         *
+         * @return the messages.
+         */
+        public List<String> getFailures() {
+            return Collections.unmodifiableList(failures);
+        }
+
+        /**
+         * Tells if all records were read and saved.
+         *
+         * @return true if so.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Why the import stopped before it was complete.
+         *
+         * @return the message, or null if it is complete.
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Adds the outcome to a response.
+         *
+         * @param json the response.
+         * @return the response.
+         */
+        public JSONObject addTo(JSONObject json) {
+            json.put("checkpoint", checkpoint);
+            json.put("imported", imported);
+            json.put("failed", failureCount);
+            json.put("failures", JSONArray.fromObject(failures));
+            return json;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.cli;
+
+import com.sonyericsson.hudson.plugins.metadata.MetadataUpdateListener;
+import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataJournal;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataParent;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataSaver;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataTreeDiff;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
+import net.sf.json.JSON;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An update of the metadata of a container, shared by the CLI command and the HTTP CLI so that an update is applied,
+ * journaled and saved the same way whichever way it came in.
+ */
+final class MetadataUpdate {
+
+    private static final Logger logger = Logger.getLogger(MetadataUpdate.class.getName());
+
+    private boolean changed;
+    private boolean journaled = false;
+    private Collection<MetadataValue> leftOvers;
+
+    /**
+     * Use {@link #apply(MetadataContainer, List, JSON, boolean, boolean)}.
+     */
+    private MetadataUpdate() {
+    }
+
+    /**
+     * Applies an update to a container, and appends it to the journal of the container if it has one. The write lock
+     * of the container must be held, so that the journal gets the updates in the same order. If the journal can't be
+     * appended to the update is not {@link #isJournaled()}, so that the container is saved in full.
+     *
+     * @param container the container.
+     * @param values    the values to add or replace with.
+     * @param json      the values as they came in the request, or null if they were streamed.
+     * @param replace   true if the metadata should replace what is in the container.
+     * @param sync      true if the journal should be forced to disk.
+     * @return the update.
+     */
+    static MetadataUpdate apply(MetadataContainer<MetadataValue> container, List<MetadataValue> values, JSON json,
+                                boolean replace, boolean sync) {
+        MetadataUpdate update = new MetadataUpdate();
+        MetadataJournal journal = container.getJournal();
+        JSON journalData = json;
+        if (journal != null && journalData == null) {
+            //Before they are added, since that can move them around.
+            journalData = JsonUtils.toJson(values);
+        }
+        String operation;
+        if (replace) {
+            MetadataTreeDiff diff = MetadataTreeDiff.replace(container, values);
+            update.changed = !diff.isEmpty();
+            if (update.changed) {
+                MetadataUpdateListener.notifyMetadataContainerChanged(container, diff);
+            }
+            operation = MetadataJournal.OP_REPLACE;
+        } else {
+            MetadataTreeDiff diff = MetadataTreeDiff.compute(container.getChildren(), values, false);
+            //Values that are there already are left over, so the tree only changed if it got more values.
+            int before = TreeStructureUtil.countValues(container.getChildren());
+            update.leftOvers = container.addChildren(values);
+            update.changed = TreeStructureUtil.countValues(container.getChildren()) > before;
+            if (update.changed) {
+                MetadataUpdateListener.notifyMetadataContainerChanged(container, getAdded(diff));
+            }
+            operation = MetadataJournal.OP_ADD;
+        }
+        if (update.changed && journal != null) {
+            try {
+                journal.append(operation, journalData, sync);
+                update.journaled = true;
+            } catch (IOException e) {
+                //The change is made already, so it is saved in full instead.
+                logger.log(Level.WARNING, "Could not append to the journal of " + container, e);
+            }
+        }
+        return update;
+    }
+
+    /**
+     * The part of a diff that an add applies: the added leaves, and the tree nodes that were empty and got children.
+     * Leaves that are different are left over.
+     *
+     * @param diff the diff between the container and the values that were added.
+     * @return the diff of what was added.
+     */
+    private static MetadataTreeDiff getAdded(MetadataTreeDiff diff) {
+        List<MetadataTreeDiff.Entry> entries = new LinkedList<MetadataTreeDiff.Entry>();
+        for (MetadataTreeDiff.Entry entry : diff.getEntries()) {
+            if (entry.getType() == MetadataTreeDiff.Type.ADDED
+                    || (entry.getType() == MetadataTreeDiff.Type.CHANGED
+                        && entry.getOldValue() instanceof MetadataParent
+                        && entry.getNewValue() instanceof MetadataParent)) {
+                entries.add(entry);
+            }
+        }
+        return new MetadataTreeDiff(entries);
+    }
+
+    /**
+     * Applies an update to a container under its write lock, and saves the container if it changed.
+     *
+     * @param container the container.
+     * @param values    the values to add or replace with.
+     * @param json      the values as they came in the request, or null if they were streamed.
+     * @param replace   true if the metadata should replace what is in the container.
+     * @param sync      true if the update should be on disk before this method returns.
+     * @return the update.
+     * @throws IOException if a synchronous save fails, the update is applied in memory anyway.
+     * @see #apply(MetadataContainer, List, JSON, boolean, boolean)
+     */
+    static MetadataUpdate applyAndSave(MetadataContainer<MetadataValue> container, List<MetadataValue> values,
+                                       JSON json, boolean replace, boolean sync) throws IOException {
+        MetadataUpdate update;
+        //The update and its journal entry go in together, so that the journal has them in the same order.
+        Lock writeLock = container.getLock().writeLock();
+        writeLock.lock();
+        try {
+            update = apply(container, values, json, replace, sync);
+        } finally {
+            writeLock.unlock();
+        }
+        if (update.isChanged()) {
+            save(container, update.isJournaled(), sync);
+        }
+        return update;
+    }
+
+    /**
+     * Saves a container after an update, in the background unless sync is requested. A container that has the
+     * update in its journal already is only compacted later.
+     *
+     * @param container the container.
+     * @param journaled true if the update is in the journal of the container.
+     * @param sync      true if the container should be saved before this method returns.
+     * @throws IOException if a synchronous save fails.
+     */
+    static void save(MetadataContainer<MetadataValue> container, boolean journaled, boolean sync)
+            throws IOException {
+        if (journaled) {
+            MetadataSaver.getCompactor().save(container);
+        } else {
+            MetadataSaver.getDefault().save(container, sync);
+        }
+    }
+
+    /**
+     * If the container changed.
+     *
+     * @return true if so.
+     */
+    boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * If the update was appended to the journal of the container.
+     *
+     * @return true if so.
+     */
+    boolean isJournaled() {
+        return journaled;
+    }
+
+    /**
+     * If some of the values could not be added because they already existed.
+     *
+     * @return true if so.
+     */
+    boolean hasLeftOvers() {
+        return leftOvers != null && !leftOvers.isEmpty();
+    }
+
+    /**
+     * The values that could not be added.
+     *
+     * @return the left overs.
+     */
+    Collection<MetadataValue> getLeftOvers() {
+        return leftOvers;
+    }
+}
@@ -28,7 +28,6 @@ import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
 import com.sonyericsson.hudson.plugins.metadata.model.PluginImpl;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
-import com.sonyericsson.hudson.plugins.metadata.model.values.ParentUtil;
 import hudson.AbortException;
 import hudson.Extension;
 import hudson.cli.CLICommand;
@@ -46,7 +45,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collection;
 import java.util.List;
 
 /**
@@ -57,7 +55,7 @@ import java.util.List;
 @Extension
 public class UpdateMetadataCommand extends CLICommand {
 
-    //CS IGNORE VisibilityModifier FOR NEXT 40 LINES. REASON: Standard Jenkins Args4J design pattern.
+    //CS IGNORE VisibilityModifier FOR NEXT 46 LINES. REASON: Standard Jenkins Args4J design pattern.
 
     /**
      * The job argument. The name of the job/project to add data to. If job is not provided {@link #node} must be.
@@ -83,6 +81,12 @@ public class UpdateMetadataCommand extends CLICommand {
     @Option(name = "-replace", required = false, usage = "If existing values should be replaced/merged.")
     public boolean replace = false;
 
+    /**
+     * The sync argument. If the data should be saved to disk before the command returns.
+     */
+    @Option(name = "-sync", required = false, usage = "If the data should be saved to disk before returning.")
+    public boolean sync = false;
+
     /**
      * The data argument. File or URL to the document containing the data to add. If no data argument is provided it is
      * assumed to come on {@link #stdin}.
@@ -125,18 +129,13 @@ public class UpdateMetadataCommand extends CLICommand {
             JSON json = JSONSerializer.toJSON(dataDocument);
             try {
                 List<MetadataValue> values = JsonUtils.toValues(json, container);
-                if (replace) {
-                    ParentUtil.replaceChildren(container, values);
-                } else {
-                    Collection<MetadataValue> leftOvers = container.addChildren(values);
-                    if (leftOvers != null && !leftOvers.isEmpty()) {
-                        stderr.println(
-                                "The following data on stdout could not be added because it already existed."
-                                        + " use the --replace option to try and force it in.");
-                        stdout.println(JsonUtils.toJson(leftOvers).toString());
-                    }
+                MetadataUpdate update = MetadataUpdate.applyAndSave(container, values, json, replace, sync);
+                if (update.hasLeftOvers()) {
+                    stderr.println(
+                            "The following data on stdout could not be added because it already existed."
+                                    + " use the --replace option to try and force it in.");
+                    stdout.println(JsonUtils.toJson(update.getLeftOvers()).toString());
                 }
-                container.save();
             } catch (JsonUtils.ParseException e) {
                 stderr.println(e.getMessage());
                 return CliUtils.Status.ERR_BAD_DATA.code();
@@ -25,6 +25,7 @@ package com.sonyericsson.hudson.plugins.metadata.contributors;
 
 import com.sonyericsson.hudson.plugins.metadata.Messages;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataBuildAction;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataColumnStore;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataJobProperty;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
@@ -36,8 +37,10 @@ import hudson.model.JobProperty;
 import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -71,10 +74,33 @@ public class BuildContributorsController extends RunListener<AbstractBuild> {
                 logger.warning("Some metadata failed to be merged for build " + build + pretty);
             }
         }
+        try {
+            action.save();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not save the metadata of build " + build, e);
+        }
+        try {
+            MetadataColumnStore.forJob(build.getProject()).record(build.getNumber(), action.getPathIndex());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not add build " + build + " to the metadata columns of its job", e);
+        }
         listener.getLogger().println(Messages.BuildContributorsController_LogMessage_Done());
         logger.finest("Done collecting.");
     }
 
+    /**
+     * Removes the row of the build from the metadata columns of its job, also when it is rotated away.
+     * @param build the build that was deleted.
+     */
+    @Override
+    public void onDeleted(AbstractBuild build) {
+        try {
+            MetadataColumnStore.forJob(build.getProject()).remove(build.getNumber());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not remove build " + build + " from the metadata columns of its job", e);
+        }
+    }
+
     /**
      * Adds all the job metadata as build metadata.
      * @param build the build to work with.
@@ -24,8 +24,11 @@
  */
 package com.sonyericsson.hudson.plugins.metadata.contributors;
 
+import com.sonyericsson.hudson.plugins.metadata.MetadataUpdateListener;
+import com.sonyericsson.hudson.plugins.metadata.model.Metadata;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataJobProperty;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataParent;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataTreeDiff;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
@@ -48,6 +51,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -157,8 +161,8 @@ public class JobContributorsController extends SaveableListener {
                 return;
             }
 
-            cleanGeneratedValues(property);
-
+            //Collect the generated data on the side, only what differs from the property is applied to it.
+            TreeNodeMetadataValue generated = new TreeNodeMetadataValue("");
             TreeNodeMetadataValue[] tree = TreeStructureUtil.createTreePath("", "job-info", "last-saved");
             TreeNodeMetadataValue jobInfo = tree[0];
             TreeNodeMetadataValue lastSaved = tree[1];
@@ -181,19 +185,35 @@ public class JobContributorsController extends SaveableListener {
                 jobInfo.addChild(matrixNode);
             }
             logger.finer("Adding standard generated metadata");
-            property.addChild(jobInfo);
+            generated.addChild(jobInfo);
 
             ExtensionList<JobMetadataContributor> contributors = JobMetadataContributor.all();
             for (JobMetadataContributor contributor : contributors) {
                 List<MetadataValue> dataFor = contributor.getMetaDataFor(project);
                 if (dataFor != null && !dataFor.isEmpty()) {
-                    Collection<MetadataValue> leftover = property.addChildren(dataFor);
+                    Collection<MetadataValue> leftover = generated.addChildren(dataFor);
                     logger.warning("Failed to add the following contributor's[" + contributor + "] metadata to "
                             + project + "\n"
                             + TreeStructureUtil.prettyPrint(leftover, "\t"));
                 }
             }
 
+            MetadataTreeDiff diff;
+            //Diff and patch under one lock so that no one else changes the property in between.
+            Lock writeLock = property.getLock().writeLock();
+            writeLock.lock();
+            try {
+                diff = applyGenerated(property, generated.getChildren());
+            } finally {
+                writeLock.unlock();
+            }
+            if (diff.isEmpty()) {
+                logger.fine("No generated metadata changed, skipping save.");
+                controller.setCurrentProject(null);
+                return;
+            }
+            MetadataUpdateListener.notifyMetadataContainerChanged(property, diff);
+
             try {
                 logger.fine("Saving the project.");
                 project.save();
@@ -268,23 +288,71 @@ public class JobContributorsController extends SaveableListener {
         }
 
         /**
-         * Removes all generated values from the property so that it can be refilled. This method is recursive. It also
-         * has the assumption that {@link com.sonyericsson.hudson.plugins.metadata.model.MetadataParent#getChildren()}
-         * returns a direct reference to the internal collection of children and not a clone.
+         * Applies the difference between the parent and the newly generated values to the parent. Generated values
+         * that are no longer contributed are removed, user values are never removed or replaced by generated ones.
+         *
+         * @param parent    the parent to update.
+         * @param generated the newly generated values.
+         * @return the applied diff.
+         */
+        private MetadataTreeDiff applyGenerated(MetadataParent<MetadataValue> parent,
+                                                Collection<MetadataValue> generated) {
+            MetadataTreeDiff diff = MetadataTreeDiff.compute(parent.getChildren(), generated, true);
+            List<MetadataTreeDiff.Entry> entries = new LinkedList<MetadataTreeDiff.Entry>();
+            for (MetadataTreeDiff.Entry entry : diff.getEntries()) {
+                MetadataValue old = entry.getOldValue();
+                if (old == null || isGenerated(old)) {
+                    entries.add(entry);
+                } else if (entry.getType() == MetadataTreeDiff.Type.CHANGED) {
+                    logger.warning("Failed to replace the user value " + old.getFullName() + " with generated metadata"
+                            + " in " + project);
+                }
+            }
+            MetadataTreeDiff applied = new MetadataTreeDiff(entries);
+            applied.apply(parent);
+            if (!applied.getEntries(MetadataTreeDiff.Type.REMOVED).isEmpty()) {
+                removeEmptyGeneratedBranches(parent);
+            }
+            return applied;
+        }
+
+        /**
+         * Removes the generated tree nodes that have no children left. This method is recursive.
          *
          * @param parent the parent to clean.
          */
-        private void cleanGeneratedValues(MetadataParent<MetadataValue> parent) {
-            Collection<MetadataValue> values = parent.getChildren();
-            List<MetadataValue> toRemove = new LinkedList<MetadataValue>();
-            for (MetadataValue value : values) {
-                if (value.isGenerated()) {
-                    toRemove.add(value);
-                } else if (value instanceof MetadataParent) {
-                    cleanGeneratedValues((MetadataParent<MetadataValue>)value);
+        private void removeEmptyGeneratedBranches(MetadataParent<MetadataValue> parent) {
+            for (MetadataValue value : parent.getChildren()) {
+                if (value instanceof MetadataParent) {
+                    MetadataParent<MetadataValue> node = (MetadataParent<MetadataValue>)value;
+                    removeEmptyGeneratedBranches(node);
+                    if (value.isGenerated() && node.getChildren().isEmpty()) {
+                        parent.removeChild(value.getName());
+                    }
+                }
+            }
+        }
+
+        /**
+         * If the value or any of its ancestors are generated.
+         *
+         * @param value the value to check.
+         * @return true if so.
+         */
+        private boolean isGenerated(MetadataValue value) {
+            Metadata current = value;
+            while (current instanceof MetadataValue) {
+                if (((MetadataValue)current).isGenerated()) {
+                    return true;
+                }
+                MetadataParent parent = current.getParent();
+                if (parent instanceof Metadata) {
+                    current = (Metadata)parent;
+                } else {
+                    current = null;
                 }
             }
-            values.removeAll(toRemove);
+            return false;
         }
     }
 }
@@ -25,14 +25,19 @@ package com.sonyericsson.hudson.plugins.metadata.model;
 
 import com.sonyericsson.hudson.plugins.metadata.model.values.AbstractMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
 import net.sf.json.JSON;
 import net.sf.json.JSONArray;
+import net.sf.json.JSONNull;
 import net.sf.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import static com.sonyericsson.hudson.plugins.metadata.model.values.AbstractMetadataValue.
         AbstractMetaDataValueDescriptor.findForJsonType;
@@ -169,6 +174,43 @@ public abstract class JsonUtils {
         }
     }
 
+    /**
+     * Reads {@link MetadataValue}s from a JSON document as it is streamed, either one object or an array of them. The
+     * document is read token by token and the values are built as they are read: the children of a tree node are
+     * converted before the rest of the document is read, and only the attributes of the value that is being read are
+     * held as JSON. Like json-lib, keys and strings can be in single quotes or without quotes, but comments are not
+     * allowed.
+     *
+     * @param reader    the document, preferably buffered since it is read one character at a time.
+     * @param container the container that the values are later supposed to go into.
+     * @return a list of converted values.
+     *
+     * @throws ParseException if the document isn't an object or an array of objects, or if a value can't be
+     *                        converted.
+     * @throws IOException    if the document can't be read.
+     * @see #toValue(net.sf.json.JSONObject, MetadataContainer)
+     */
+    public static List<MetadataValue> toValues(Reader reader, MetadataContainer<MetadataValue> container)
+            throws ParseException, IOException {
+        ValueReader in = new ValueReader(reader);
+        List<MetadataValue> list;
+        int c = in.peekToken();
+        if (c == '{') {
+            list = new LinkedList<MetadataValue>();
+            list.add(in.readValue(container));
+        } else if (c == '[') {
+            list = in.readValues(container);
+        } else if (c < 0) {
+            throw new ParseException("No metadata provided");
+        } else {
+            throw in.error("Expected a metadata object or an array of them");
+        }
+        if (in.peekToken() >= 0) {
+            throw in.error("Unexpected data after the metadata");
+        }
+        return list;
+    }
+
     /**
      * Converts the given values into a JSON array.
      *
@@ -183,6 +225,114 @@ public abstract class JsonUtils {
         return array;
     }
 
+    /**
+     * Converts a part of the metadata in a container into JSON, without converting more of the tree than is asked
+     * for. The read lock of the container is held while converting.
+     *
+     * @param container the container.
+     * @param path      the path to the value to convert, or null for all of the values in the container.
+     * @param depth     the number of levels of the tree to include counted from the top of the selection, 0 or less
+     *                  for all of it. Tree nodes at the last level are written without {@link #CHILDREN}.
+     * @param fields    the attributes to keep in each object, or null for all of them. {@link #CHILDREN} is always
+     *                  kept so that the structure of the tree is preserved.
+     * @return a JSON array of the values when no path is given, the JSON object of the value at the path when there
+     *         is one, or null if there is no value at the path.
+     */
+    public static JSON toJson(MetadataContainer<MetadataValue> container, MetadataPath path, int depth,
+                              Collection<String> fields) {
+        int levels = Integer.MAX_VALUE;
+        if (depth > 0) {
+            levels = depth - 1;
+        }
+        Lock readLock = container.getLock().readLock();
+        readLock.lock();
+        try {
+            if (path == null) {
+                JSONArray array = new JSONArray();
+                for (MetadataValue value : container.getChildren()) {
+                    array.add(toJson(value, levels, fields));
+                }
+                return array;
+            }
+            MetadataValue value = container.getPathIndex().get(path);
+            if (value == null) {
+                return null;
+            }
+            return toJson(value, levels, fields);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Parses a comma separated list of attribute names, as given to select the fields of
+     * {@link #toJson(MetadataContainer, MetadataPath, int, Collection)}.
+     *
+     * @param fields the list, can be null or empty.
+     * @return the attribute names, or null if there were none so that all attributes are kept.
+     */
+    public static List<String> parseFields(String fields) {
+        if (fields == null) {
+            return null;
+        }
+        List<String> list = new LinkedList<String>();
+        for (String field : fields.split(",")) {
+            field = field.trim();
+            if (!field.isEmpty()) {
+                list.add(field);
+            }
+        }
+        if (list.isEmpty()) {
+            return null;
+        }
+        return list;
+    }
+
+    /**
+     * Converts a value into JSON down to the given number of levels and with only the given attributes.
+     *
+     * @param value  the value.
+     * @param levels the number of levels of children to include.
+     * @param fields the attributes to keep, or null for all of them.
+     * @return the JSON object.
+     */
+    private static JSONObject toJson(MetadataValue value, int levels, Collection<String> fields) {
+        JSONObject obj;
+        if (value instanceof TreeNodeMetadataValue) {
+            obj = ((TreeNodeMetadataValue)value).toJson(levels);
+        } else {
+            obj = value.toJson();
+        }
+        if (fields == null) {
+            return obj;
+        }
+        return project(obj, fields);
+    }
+
+    /**
+     * Keeps only the given attributes of a JSON object and of its children.
+     *
+     * @param obj    the object.
+     * @param fields the attributes to keep.
+     * @return a new object with the attributes.
+     */
+    private static JSONObject project(JSONObject obj, Collection<String> fields) {
+        JSONObject projected = new JSONObject();
+        for (String field : fields) {
+            if (!CHILDREN.equals(field) && obj.has(field)) {
+                projected.put(field, obj.get(field));
+            }
+        }
+        if (obj.has(CHILDREN)) {
+            JSONArray children = new JSONArray();
+            for (Object child : obj.getJSONArray(CHILDREN)) {
+                children.add(project((JSONObject)child, fields));
+            }
+            projected.put(CHILDREN, children);
+        }
+        return projected;
+    }
+
     /**
      * Utility method for checking if a required attribute is present in the JSON object.
      *
@@ -196,6 +346,344 @@ public abstract class JsonUtils {
         }
     }
 
+    /**
+     * Reads JSON one token at a time for {@link #toValues(java.io.Reader, MetadataContainer)}.
+     */
+    private static final class ValueReader {
+        private static final int NONE = -2;
+        private static final int HEX = 16;
+        private static final int UNICODE_DIGITS = 4;
+        /**
+         * The characters that end a string without quotes, the same as in json-lib.
+         */
+        private static final String UNQUOTED_END = ",:]}/\\\"[{;=#";
+
+        private final Reader reader;
+        private int next = NONE;
+        private long position = 0;
+
+        /**
+         * Standard constructor.
+         *
+         * @param reader the document.
+         */
+        private ValueReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * The next character, without reading it.
+         *
+         * @return the character, or -1 at the end.
+         * @throws IOException if the reader fails.
+         */
+        private int peek() throws IOException {
+            if (next == NONE) {
+                next = reader.read();
+            }
+            return next;
+        }
+
+        /**
+         * Reads the next character.
+         *
+         * @return the character, or -1 at the end.
+         * @throws IOException if the reader fails.
+         */
+        private int read() throws IOException {
+            int c = peek();
+            next = NONE;
+            if (c >= 0) {
+                position++;
+            }
+            return c;
+        }
+
+        /**
+         * Skips whitespace and tells what the next token starts with, without reading it.
+         *
+         * @return the first character of the token, or -1 at the end.
+         * @throws IOException if the reader fails.
+         */
+        private int peekToken() throws IOException {
+            while (peek() >= 0 && Character.isWhitespace(peek())) {
+                read();
+            }
+            return peek();
+        }
+
+        /**
+         * Reads a character that has to be the next token.
+         *
+         * @param expected the character.
+         * @throws ParseException if the next token is something else.
+         * @throws IOException    if the reader fails.
+         */
+        private void expect(char expected) throws ParseException, IOException {
+            if (peekToken() != expected) {
+                throw error("Expected " + expected);
+            }
+            read();
+        }
+
+        /**
+         * Tells if the next token is the end of an object or an array, or a comma before the next member, and reads
+         * it.
+         *
+         * @param end the character that ends the object or the array.
+         * @return true if it was the end.
+         * @throws ParseException if the next token is something else.
+         * @throws IOException    if the reader fails.
+         */
+        private boolean readSeparator(char end) throws ParseException, IOException {
+            int c = peekToken();
+            if (c == end) {
+                read();
+                return true;
+            } else if (c == ',') {
+                read();
+                return false;
+            }
+            throw error("Expected , or " + end);
+        }
+
+        /**
+         * An exception for a broken document, with where it broke.
+         *
+         * @param message the message.
+         * @return the exception.
+         */
+        private ParseException error(String message) {
+            if (next == -1) {
+                return new ParseException(message + ", but the metadata ends at character " + position);
+            }
+            return new ParseException(message + " at character " + position);
+        }
+
+        /**
+         * Reads an array of metadata objects.
+         *
+         * @param container the container that the values are later supposed to go into.
+         * @return the values.
+         * @throws ParseException if the array is broken, or a value can't be converted.
+         * @throws IOException    if the reader fails.
+         */
+        private List<MetadataValue> readValues(MetadataContainer<MetadataValue> container)
+                throws ParseException, IOException {
+            List<MetadataValue> values = new LinkedList<MetadataValue>();
+            expect('[');
+            if (peekToken() == ']') {
+                read();
+                return values;
+            }
+            do {
+                values.add(readValue(container));
+            } while (!readSeparator(']'));
+            return values;
+        }
+
+        /**
+         * Reads a metadata object and converts it. The children of a tree node are converted as they are read and
+         * added to the node after it has been converted from the rest of its attributes, so that they don't have to
+         * come after its type.
+         *
+         * @param container the container that the value is later supposed to go into.
+         * @return the value.
+         * @throws ParseException if the object is broken, or can't be converted.
+         * @throws IOException    if the reader fails.
+         */
+        private MetadataValue readValue(MetadataContainer<MetadataValue> container)
+                throws ParseException, IOException {
+            JSONObject attributes = new JSONObject();
+            List<MetadataValue> children = null;
+            expect('{');
+            if (peekToken() == '}') {
+                read();
+            } else {
+                do {
+                    String key = readKey();
+                    expect(':');
+                    if (CHILDREN.equals(key) && peekToken() == '[') {
+                        children = readValues(container);
+                    } else {
+                        attributes.element(key, readAny());
+                    }
+                } while (!readSeparator('}'));
+            }
+            MetadataValue value = toValue(attributes, container);
+            if (children != null && value instanceof TreeNodeMetadataValue) {
+                Collection<MetadataValue> leftOvers = ((TreeNodeMetadataValue)value).addChildren(children);
+                if (leftOvers != null && !leftOvers.isEmpty()) {
+                    throw new ParseException("Children with the same name", attributes);
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Reads any JSON value that isn't the children of a tree node.
+         *
+         * @return the json-lib object, array, string, number, boolean or null.
+         * @throws ParseException if the value is broken.
+         * @throws IOException    if the reader fails.
+         */
+        private Object readAny() throws ParseException, IOException {
+            int c = peekToken();
+            if (c == '{') {
+                read();
+                JSONObject object = new JSONObject();
+                if (peekToken() == '}') {
+                    read();
+                    return object;
+                }
+                do {
+                    String key = readKey();
+                    expect(':');
+                    object.element(key, readAny());
+                } while (!readSeparator('}'));
+                return object;
+            } else if (c == '[') {
+                read();
+                JSONArray array = new JSONArray();
+                if (peekToken() == ']') {
+                    read();
+                    return array;
+                }
+                do {
+                    array.element(readAny());
+                } while (!readSeparator(']'));
+                return array;
+            } else if (c == '"' || c == '\'') {
+                return readString();
+            }
+            String token = readUnquoted();
+            if ("true".equals(token)) {
+                return Boolean.TRUE;
+            } else if ("false".equals(token)) {
+                return Boolean.FALSE;
+            } else if ("null".equals(token)) {
+                return JSONNull.getInstance();
+            }
+            char first = token.charAt(0);
+            if (first == '-' || Character.isDigit(first)) {
+                try {
+                    return Long.valueOf(token);
+                } catch (NumberFormatException e) {
+                    try {
+                        return Double.valueOf(token);
+                    } catch (NumberFormatException notNumber) {
+                        return token;
+                    }
+                }
+            }
+            return token;
+        }
+
+        /**
+         * Reads the key of a member of an object.
+         *
+         * @return the key.
+         * @throws ParseException if there is no key.
+         * @throws IOException    if the reader fails.
+         */
+        private String readKey() throws ParseException, IOException {
+            int c = peekToken();
+            if (c == '"' || c == '\'') {
+                return readString();
+            }
+            return readUnquoted();
+        }
+
+        /**
+         * Reads a string in quotes.
+         *
+         * @return the string.
+         * @throws ParseException if the string is broken.
+         * @throws IOException    if the reader fails.
+         */
+        private String readString() throws ParseException, IOException {
+            int quote = read();
+            StringBuilder text = new StringBuilder();
+            while (true) {
+                int c = read();
+                if (c < 0) {
+                    throw error("The metadata ends in the middle of a string");
+                } else if (c == quote) {
+                    return text.toString();
+                } else if (c != '\\') {
+                    text.append((char)c);
+                    continue;
+                }
+                c = read();
+                switch (c) {
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        text.append(readUnicode());
+                        break;
+                    case -1:
+                        throw error("The metadata ends in the middle of a string");
+                    default:
+                        text.append((char)c);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Reads the four hex digits of a unicode escape.
+         *
+         * @return the character.
+         * @throws ParseException if they are not hex digits.
+         * @throws IOException    if the reader fails.
+         */
+        private char readUnicode() throws ParseException, IOException {
+            int code = 0;
+            for (int i = 0; i < UNICODE_DIGITS; i++) {
+                int digit = Character.digit(read(), HEX);
+                if (digit < 0) {
+                    throw error("Bad unicode escape");
+                }
+                code = code * HEX + digit;
+            }
+            return (char)code;
+        }
+
+        /**
+         * Reads a string without quotes, up to the next character that ends one.
+         *
+         * @return the trimmed string.
+         * @throws ParseException if it is empty.
+         * @throws IOException    if the reader fails.
+         */
+        private String readUnquoted() throws ParseException, IOException {
+            StringBuilder text = new StringBuilder();
+            int c = peek();
+            while (c >= ' ' && UNQUOTED_END.indexOf(c) < 0) {
+                text.append((char)read());
+                c = peek();
+            }
+            String token = text.toString().trim();
+            if (token.isEmpty()) {
+                throw error("Expected a value");
+            }
+            return token;
+        }
+    }
+
     /**
      * Exception thrown during the conversion from JSON to internal POJO representations if something went wrong. For
      * example if a required field is missing.
@@ -240,6 +728,16 @@ public abstract class JsonUtils {
             this.json = json;
         }
 
+        /**
+         * Standard constructor, for errors that aren't in a particular JSON object.
+         *
+         * @param message the error message.
+         * @see Exception#Exception(String)
+         */
+        public ParseException(String message) {
+            super(message);
+        }
+
         /**
          * Default constructor.
          */
@@ -26,31 +26,73 @@ package com.sonyericsson.hudson.plugins.metadata.model;
 
 import com.sonyericsson.hudson.plugins.metadata.Constants;
 import com.sonyericsson.hudson.plugins.metadata.Messages;
+import com.sonyericsson.hudson.plugins.metadata.model.values.BinaryMetadataCodec;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.ParentUtil;
+import hudson.EnvVars;
+import hudson.XmlFile;
 import hudson.model.Hudson;
 import hudson.model.Run;
 import hudson.security.ACL;
 import net.sf.json.JSON;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import jenkins.model.RunAction2;
 
 /**
  * Holds the meta data for a run.
  *
+ * The values are stored in their own {@link #getBinaryMetadataFile() file} in the build directory, so that an update
+ * of the metadata doesn't rewrite the whole build.xml. They are loaded from it the first time they are needed, and
+ * once they are saved they are only softly referenced. So the metadata of old builds that nobody looks at can be
+ * garbage collected, and is loaded again if it is needed. Updates that are not saved yet are kept in a
+ * {@link #getJournal() journal} that is replayed on load.
+ *
  * @author Robert Sandell &lt;robert.sandell@sonyericsson.com&gt;
  */
 @edu.umd.cs.findbugs.annotations.SuppressWarnings(
         value = "UG_SYNC_SET_UNSYNC_GET",
-        justification = "It is synchronized")
+        justification = "It is guarded by the read/write lock")
 public class MetadataBuildAction implements RunAction2, MetadataContainer<MetadataValue> {
 
+    private static final Logger logger = Logger.getLogger(MetadataBuildAction.class.getName());
+
     private transient Run run;
-    private List<MetadataValue> values;
+    /**
+     * The values as they are stored in build.xml, until they have been written to their own file. So that the values
+     * of an action that is added to a build and never saved on its own are stored with the build, as they were by
+     * earlier versions of the plugin. Dropped as soon as they have been written to the metadata file.
+     */
+    private volatile List<MetadataValue> values;
+    /**
+     * If the values have been written to their own file, so that they don't need to be kept in build.xml.
+     */
+    private transient volatile boolean stored;
+    /**
+     * The values when they have changes that are not saved yet, or when there is no file to load them from.
+     * Null until loaded, see {@link #load()}, and after they are saved.
+     */
+    private transient volatile LoadedValues pinned;
+    /**
+     * The values as they were last loaded or saved, for the garbage collector to drop if memory is needed.
+     */
+    private transient volatile SoftReference<LoadedValues> cached;
+    private transient volatile ReadWriteLock lock;
+    private transient volatile long version;
+    private transient volatile EnvironmentSnapshot environment;
 
     /**
      * Constructor.
@@ -62,9 +104,10 @@ public class MetadataBuildAction implements RunAction2, MetadataContainer<Metada
     public MetadataBuildAction(Run run, List<MetadataValue> values) {
         this.run = run;
         if (values == null) {
-            values = new LinkedList<MetadataValue>();
+            publish(new ArrayList<MetadataValue>());
+        } else {
+            publish(new ArrayList<MetadataValue>(values));
         }
-        this.values = values;
     }
 
     /**
@@ -81,7 +124,7 @@ public class MetadataBuildAction implements RunAction2, MetadataContainer<Metada
      * Default constructor.
      */
     public MetadataBuildAction() {
-        this.values = new LinkedList<MetadataValue>();
+        publish(new ArrayList<MetadataValue>());
     }
 
     @Override
@@ -125,41 +168,342 @@ public class MetadataBuildAction implements RunAction2, MetadataContainer<Metada
      *
      * @see #getChildren()
      */
-    public synchronized List<MetadataValue> getValues() {
-        if (values == null) {
-            values = new LinkedList<MetadataValue>();
+    public List<MetadataValue> getValues() {
+        return Collections.unmodifiableList(getLoadedValues().values);
+    }
+
+    /**
+     * The values, loaded if they aren't in memory.
+     *
+     * @return the values.
+     */
+    private LoadedValues getLoadedValues() {
+        LoadedValues current = pinned;
+        if (current == null) {
+            SoftReference<LoadedValues> reference = cached;
+            if (reference != null) {
+                current = reference.get();
+            }
+            if (current == null) {
+                current = load();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * The file in the build directory that the values are stored in.
+     *
+     * @return the file, or null if this action isn't attached to any build.
+     */
+    public XmlFile getMetadataFile() {
+        if (run == null) {
+            return null;
+        }
+        return new XmlFile(Run.XSTREAM, new File(run.getRootDir(), Constants.BUILD_METADATA_FILE));
+    }
+
+    /**
+     * The file in the build directory that the values are stored in, in the compact format of
+     * {@link BinaryMetadataCodec}. Values of types that the format doesn't know are stored in the
+     * {@link #getMetadataFile() XML file} instead.
+     *
+     * @return the file, or null if this action isn't attached to any build.
+     */
+    public File getBinaryMetadataFile() {
+        if (run == null) {
+            return null;
         }
-        return values;
+        return new File(run.getRootDir(), Constants.BUILD_METADATA_BINARY_FILE);
+    }
+
+    /**
+     * Writes the values to the {@link #getBinaryMetadataFile() binary file} if they can be encoded, otherwise to the
+     * {@link #getMetadataFile() XML file}, and removes the other one so that it isn't loaded instead.
+     *
+     * @param current the values.
+     * @throws IOException if the values could not be written.
+     */
+    private void store(List<MetadataValue> current) throws IOException {
+        File binary = getBinaryMetadataFile();
+        File xml = getMetadataFile().getFile();
+        File obsolete;
+        if (BinaryMetadataCodec.canEncode(current)) {
+            BinaryMetadataCodec.write(current, binary);
+            obsolete = xml;
+        } else {
+            getMetadataFile().write(current);
+            obsolete = binary;
+        }
+        if (obsolete.exists() && !obsolete.delete()) {
+            throw new IOException("Failed to delete " + obsolete);
+        }
+    }
+
+    /**
+     * Loads the values from the {@link #getBinaryMetadataFile() binary} or the {@link #getMetadataFile() XML}
+     * metadata file. If there is no such file the values are taken from build.xml, as stored by earlier versions of
+     * the plugin, and written to a new metadata file.
+     *
+     * @return the loaded values.
+     */
+    private synchronized LoadedValues load() {
+        LoadedValues current = pinned;
+        if (current == null && cached != null) {
+            current = cached.get();
+        }
+        if (current != null) {
+            return current;
+        }
+        List<MetadataValue> loaded = null;
+        File binary = getBinaryMetadataFile();
+        if (binary != null && binary.exists()) {
+            try {
+                loaded = BinaryMetadataCodec.read(binary);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to load the metadata of " + run, e);
+            }
+        }
+        XmlFile file = getMetadataFile();
+        if (loaded == null && file != null && file.exists()) {
+            try {
+                loaded = new ArrayList<MetadataValue>((List<MetadataValue>)file.read());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to load the metadata of " + run, e);
+            }
+        }
+        boolean migrate = false;
+        stored = loaded != null;
+        if (loaded == null) {
+            List<MetadataValue> legacy = values;
+            if (legacy != null) {
+                loaded = new ArrayList<MetadataValue>(legacy);
+                migrate = file != null;
+            } else {
+                loaded = new ArrayList<MetadataValue>();
+            }
+        }
+        if (run != null) {
+            MetadataJournal journal = createJournal();
+            if (!journal.isEmpty()) {
+                try {
+                    loaded = journal.replay(loaded, -1, this);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to replay the metadata journal of " + run, e);
+                }
+            }
+        }
+        for (MetadataValue value : loaded) {
+            value.setParent(this);
+        }
+        if (migrate) {
+            //Not via save() since that would have to wait for the lock while holding this monitor.
+            try {
+                store(loaded);
+                values = null;
+                stored = true;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to move the metadata of " + run + " to its own file", e);
+            }
+        }
+        current = new LoadedValues(loaded);
+        if (stored) {
+            values = null;
+            cached = new SoftReference<LoadedValues>(current);
+        } else {
+            pinned = current;
+            values = loaded;
+        }
+        //The version is kept as it was, loading the same values again is not a change.
+        return current;
+    }
+
+    /**
+     * Makes a new list of values the current one, they are kept in memory until they are saved. Until the values have
+     * been written to their own file they are also kept for build.xml.
+     *
+     * @param copy the values, not to be modified after this.
+     */
+    private void publish(List<MetadataValue> copy) {
+        pinned = new LoadedValues(copy);
+        if (!stored) {
+            values = copy;
+        }
+    }
+
+    @Override
+    public ReadWriteLock getLock() {
+        if (lock == null) {
+            synchronized (this) {
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock();
+                }
+            }
+        }
+        return lock;
     }
 
     @Override
-    public synchronized MetadataValue getChild(String name) {
+    public MetadataPathIndex<MetadataValue> getPathIndex() {
+        //The index is kept with the values, so that it is dropped together with them.
+        LoadedValues current = getLoadedValues();
+        MetadataPathIndex<MetadataValue> index = current.pathIndex;
+        if (index == null) {
+            //Built and published under the read lock so that no writer can invalidate it in between.
+            Lock readLock = getLock().readLock();
+            readLock.lock();
+            try {
+                current = getLoadedValues();
+                index = MetadataPathIndex.build(current.values);
+                current.pathIndex = index;
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public MetadataPathIndex<MetadataValue> getBuiltPathIndex() {
+        LoadedValues current = pinned;
+        if (current == null) {
+            SoftReference<LoadedValues> reference = cached;
+            if (reference != null) {
+                current = reference.get();
+            }
+        }
+        if (current == null) {
+            return null;
+        }
+        return current.pathIndex;
+    }
+
+    @Override
+    public void markChanged() {
+        LoadedValues current = pinned;
+        if (current == null) {
+            SoftReference<LoadedValues> reference = cached;
+            if (reference != null) {
+                current = reference.get();
+            }
+            if (current != null) {
+                //A value in the tree has been changed, so the tree has to be kept until it is saved.
+                pinned = current;
+            }
+        }
+        if (current != null) {
+            current.pathIndex = null;
+        }
+        version = MetadataGeneration.next();
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The environment variables of the values that are exposed to the environment, as added by
+     * {@link MetadataValue#addEnvironmentVariables(hudson.EnvVars, boolean)}. Jenkins asks for the environment of a
+     * build many times, so the variables are computed once and reused until the {@link #getVersion()} changes.
+     *
+     * @return the variables, name to value.
+     * @see MetadataEnvironmentContributor
+     */
+    public Map<String, String> getEnvironmentVariables() {
+        long currentVersion = version;
+        EnvironmentSnapshot snapshot = environment;
+        if (snapshot == null || snapshot.version != currentVersion) {
+            EnvVars variables = new EnvVars();
+            Lock readLock = getLock().readLock();
+            readLock.lock();
+            try {
+                for (MetadataValue child : getValues()) {
+                    child.addEnvironmentVariables(variables, false);
+                }
+            } finally {
+                readLock.unlock();
+            }
+            //A change during the computation gives a new version, so this snapshot won't be used after it.
+            snapshot = new EnvironmentSnapshot(currentVersion, variables);
+            environment = snapshot;
+        }
+        return snapshot.variables;
+    }
+
+    @Override
+    public MetadataValue getChild(String name) {
         return ParentUtil.getChildValue(getValues(), name);
     }
 
     @Override
-    public synchronized int indexOf(String name) {
-        return ParentUtil.getChildIndex(values, name);
+    public int indexOf(String name) {
+        return ParentUtil.getChildIndex(getValues(), name);
     }
 
     @Override
-    public synchronized MetadataValue setChild(int index, MetadataValue value) {
-        value.setParent(this);
-        return values.set(index, value);
+    public MetadataValue setChild(int index, MetadataValue value) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            value.setParent(this);
+            MetadataValue old = copy.set(index, value);
+            publish(copy);
+            markChanged();
+            return old;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> addChild(MetadataValue value) {
-        return ParentUtil.addChildValue(this, getValues(), value);
+    public Collection<MetadataValue> addChild(MetadataValue value) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            Collection<MetadataValue> leftOvers = ParentUtil.addChildValue(this, copy, value);
+            publish(copy);
+            markChanged();
+            return leftOvers;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> addChildren(Collection<MetadataValue> childValues) {
-        return ParentUtil.addChildValues(this, getValues(), childValues);
+    public Collection<MetadataValue> addChildren(Collection<MetadataValue> childValues) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            Collection<MetadataValue> leftOvers = ParentUtil.addChildValues(this, copy, childValues);
+            publish(copy);
+            markChanged();
+            return leftOvers;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> getChildren() {
+    public MetadataValue removeChild(String name) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            MetadataValue removed = ParentUtil.removeChildValue(copy, name);
+            publish(copy);
+            markChanged();
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<MetadataValue> getChildren() {
         return getValues();
     }
 
@@ -184,8 +528,14 @@ public class MetadataBuildAction implements RunAction2, MetadataContainer<Metada
     }
 
     @Override
-    public synchronized JSON toJson() {
-        return ParentUtil.toJson(this);
+    public JSON toJson() {
+        Lock readLock = getLock().readLock();
+        readLock.lock();
+        try {
+            return ParentUtil.toJson(this);
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
@@ -194,14 +544,50 @@ public class MetadataBuildAction implements RunAction2, MetadataContainer<Metada
     }
 
     @Override
-    public synchronized void save() throws IOException {
-        if (this.run != null) {
-            this.run.save();
+    public void save() throws IOException {
+        XmlFile file = getMetadataFile();
+        if (file != null) {
+            //Keep writers out while the tree is serialized, readers can still go on.
+            Lock readLock = getLock().readLock();
+            readLock.lock();
+            try {
+                LoadedValues current = getLoadedValues();
+                store(current.values);
+                stored = true;
+                values = null;
+                createJournal().clear();
+                if (pinned == current) {
+                    //Saved, so the values can be loaded again if the garbage collector needs to drop them.
+                    cached = new SoftReference<LoadedValues>(current);
+                    pinned = null;
+                }
+            } finally {
+                readLock.unlock();
+            }
+            //build.xml is left to Jenkins, it only has the values until they have been stored here.
         } else {
             throw new IOException("This container is not attached to any build.");
         }
     }
 
+    @Override
+    public MetadataJournal getJournal() {
+        if (run == null || !stored) {
+            //Until the values have a file of their own they are saved in full, build.xml may have them meanwhile.
+            return null;
+        }
+        return createJournal();
+    }
+
+    /**
+     * The journal in the build directory.
+     *
+     * @return the journal.
+     */
+    private MetadataJournal createJournal() {
+        return new MetadataJournal(new File(run.getRootDir(), Constants.METADATA_JOURNAL_FILE));
+    }
+
     @Override
     public ACL getACL() {
         if (run != null) {
@@ -210,4 +596,44 @@ public class MetadataBuildAction implements RunAction2, MetadataContainer<Metada
             return Hudson.getInstance().getACL();
         }
     }
+
+    /**
+     * The values together with the index of them, so that the index doesn't keep the values in memory after the
+     * values are dropped.
+     */
+    private static final class LoadedValues {
+        /**
+         * Copy on write, see {@link MetadataBuildAction#getChildren()}.
+         */
+        private final List<MetadataValue> values;
+        private volatile MetadataPathIndex<MetadataValue> pathIndex;
+
+        /**
+         * Standard constructor.
+         *
+         * @param values the values.
+         */
+        private LoadedValues(List<MetadataValue> values) {
+            this.values = values;
+        }
+    }
+
+    /**
+     * The environment variables computed from a version of the metadata.
+     */
+    private static final class EnvironmentSnapshot {
+        private final long version;
+        private final Map<String, String> variables;
+
+        /**
+         * Standard constructor.
+         *
+         * @param version   the version the variables were computed from.
+         * @param variables the variables.
+         */
+        private EnvironmentSnapshot(long version, Map<String, String> variables) {
+            this.version = version;
+            this.variables = Collections.unmodifiableMap(new HashMap<String, String>(variables));
+        }
+    }
 }
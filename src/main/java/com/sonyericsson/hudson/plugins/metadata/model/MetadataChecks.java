@@ -25,6 +25,7 @@ package com.sonyericsson.hudson.plugins.metadata.model;
 
 import com.sonyericsson.hudson.plugins.metadata.Constants;
 import com.sonyericsson.hudson.plugins.metadata.Messages;
+import com.sonyericsson.hudson.plugins.metadata.model.values.NumberArrayMetadataValue;
 import hudson.Extension;
 import hudson.model.RootAction;
 import hudson.util.FormValidation;
@@ -99,6 +100,27 @@ public class MetadataChecks implements RootAction {
         }
     }
 
+    /**
+     * Form validation for number array values.
+     * The check fails if one of the numbers can't be parsed.
+     *
+     * @param value the numbers separated by {@link NumberArrayMetadataValue#SEPARATOR}.
+     * @return {@link hudson.util.FormValidation#ok()} if the value is a list of numbers.
+     */
+    public FormValidation doCheckNumberArrayValue(@QueryParameter final String value) {
+        if (value == null || value.trim().length() == 0) {
+            return FormValidation.ok();
+        }
+        for (String number : value.split(NumberArrayMetadataValue.SEPARATOR)) {
+            try {
+                Long.parseLong(number.trim());
+            } catch (NumberFormatException e) {
+                return FormValidation.error(Messages.MetadataChecks_NotANumber(number.trim()));
+            }
+        }
+        return FormValidation.ok();
+    }
+
     /**
      * Form validation for the date values.
      * The check fails if the numbers can't be parsed or if they don't follow the formatting rules
@@ -0,0 +1,1094 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.Constants;
+import com.sonyericsson.hudson.plugins.metadata.model.values.DateMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.NumberMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A column oriented copy of the build metadata of a job, for aggregations and trends over many builds without
+ * loading them. Every build is a row, and every leaf path is a column in a file of its own with one fixed width
+ * entry per row: numbers and dates as longs, and strings as int codes into a dictionary file next to the column.
+ * The columns are read into memory rather than mapped, since a mapping holds on to its file until it is garbage
+ * collected, and Windows won't let a file be truncated or replaced meanwhile.
+ *
+ * Rows are added in the order the builds complete, see {@link #record(int, MetadataPathIndex)}. A column that a
+ * build has no value for is {@link #NULL} for that row. The row is committed when the build number is appended to
+ * the builds column, so what a crash leaves behind in the other columns is overwritten by the next build. The row of
+ * a deleted build is marked as deleted in the builds column by {@link #remove(int)}, and skipped by the readers. The
+ * deleted rows are dropped by {@link #compact()}, which writes the store anew next to the old one and swaps the
+ * directories, so that a crash leaves either of them behind and never a mix. A removal compacts the store once half
+ * of its rows are deleted, so that a job that rotates away a build for every new one only has the store rewritten
+ * every so many builds.
+ */
+public class MetadataColumnStore {
+
+    /**
+     * The value of a number or date column in rows that have no value.
+     */
+    public static final long NULL = Long.MIN_VALUE;
+
+    private static final int NULL_CODE = -1;
+    /**
+     * The number in the builds column of a deleted row.
+     */
+    private static final int DELETED = -1;
+    private static final int INT_WIDTH = 4;
+    private static final String BUILDS_FILE = "builds.col";
+    private static final String DICTIONARY_SUFFIX = ".dict";
+    private static final String NEW_SUFFIX = ".new";
+    private static final String OLD_SUFFIX = ".old";
+    private static final String CHARSET = "UTF-8";
+    /**
+     * The stores of the jobs by directory, so that every job has one lock and one copy of its dictionaries. Dropped
+     * by the {@link JobListener} when the job is deleted or renamed.
+     */
+    private static final Map<File, MetadataColumnStore> STORES = new HashMap<File, MetadataColumnStore>();
+
+    /**
+     * The types of columns.
+     */
+    public enum Type {
+        /**
+         * {@link NumberMetadataValue}s.
+         */
+        NUMBER(".num", 8),
+        /**
+         * {@link DateMetadataValue}s, as milliseconds since the epoch.
+         */
+        DATE(".date", 8),
+        /**
+         * {@link StringMetadataValue}s, as codes into the dictionary of the column.
+         */
+        STRING(".str", INT_WIDTH);
+
+        private final String suffix;
+        private final int width;
+
+        /**
+         * Standard constructor.
+         *
+         * @param suffix the suffix of the column file.
+         * @param width  the number of bytes per row.
+         */
+        Type(String suffix, int width) {
+            this.suffix = suffix;
+            this.width = width;
+        }
+
+        /**
+         * The number of bytes per row.
+         *
+         * @return the width.
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * The type of column for a value.
+         *
+         * @param value the value.
+         * @return the type, or null if the value can't be stored in a column.
+         */
+        public static Type of(MetadataValue value) {
+            if (value instanceof NumberMetadataValue) {
+                return NUMBER;
+            } else if (value instanceof DateMetadataValue) {
+                return DATE;
+            } else if (value instanceof StringMetadataValue) {
+                return STRING;
+            }
+            return null;
+        }
+    }
+
+    private final File dir;
+    /**
+     * Writers of the store take the write lock, readers the read lock so that they don't see a half removed row.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * The codes of the strings in each dictionary that has been written to, by the name of the dictionary file.
+     */
+    private final Map<String, Map<String, Integer>> dictionaries = new HashMap<String, Map<String, Integer>>();
+    /**
+     * The numbers of the recorded builds, read from the builds column by the first write.
+     */
+    private Set<Integer> recorded;
+
+    /**
+     * Standard constructor. Prefer {@link #forJob(Job)}, since only writes through the same store are kept apart.
+     *
+     * @param dir the directory of the columns.
+     */
+    public MetadataColumnStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * The store of a job, the same one every time as long as the job stays in the same directory.
+     *
+     * @param job the job.
+     * @return the store.
+     */
+    public static MetadataColumnStore forJob(Job job) {
+        File dir = getColumnsDirectory(job.getRootDir());
+        synchronized (STORES) {
+            MetadataColumnStore store = STORES.get(dir);
+            if (store == null) {
+                store = new MetadataColumnStore(dir);
+                STORES.put(dir, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Forgets the store of a job directory, for when the job is deleted or moved to another directory.
+     *
+     * @param jobDir the directory of the job.
+     */
+    public static void forget(File jobDir) {
+        synchronized (STORES) {
+            STORES.remove(getColumnsDirectory(jobDir));
+        }
+    }
+
+    /**
+     * The directory of the columns of a job.
+     *
+     * @param jobDir the directory of the job.
+     * @return the directory of the columns.
+     */
+    private static File getColumnsDirectory(File jobDir) {
+        return new File(jobDir, Constants.BUILD_METADATA_COLUMNS_DIR).getAbsoluteFile();
+    }
+
+    /**
+     * The directory of the columns.
+     *
+     * @return the directory.
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Adds a build as the next row.
+     *
+     * @param number the number of the build.
+     * @param index  the index of the metadata of the build.
+     * @return true if the row was added, false if the build already has a row.
+     * @throws IOException if the columns could not be written.
+     */
+    public boolean record(int number, MetadataPathIndex<MetadataValue> index) throws IOException {
+        lock.writeLock().lock();
+        try {
+            recover();
+            if (getRecorded().contains(number)) {
+                return false;
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir);
+            }
+            int row = getCommittedRows();
+            truncateAbandoned(row);
+            Map<MetadataPath, MetadataValue> values = index.getValues();
+            for (Map.Entry<MetadataPath, MetadataValue> entry : values.entrySet()) {
+                MetadataValue value = entry.getValue();
+                Type type = Type.of(value);
+                if (type == null || value.getValue() == null) {
+                    continue;
+                }
+                File file = getColumnFile(entry.getKey(), type);
+                ByteBuffer buffer = ByteBuffer.allocate(type.width);
+                switch (type) {
+                    case NUMBER:
+                        buffer.putLong(((NumberMetadataValue)value).getValue());
+                        break;
+                    case DATE:
+                        buffer.putLong(((DateMetadataValue)value).getTime());
+                        break;
+                    default:
+                        buffer.putInt(encode(file, ((StringMetadataValue)value).getValue()));
+                        break;
+                }
+                buffer.flip();
+                writeRow(file, row, buffer);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(INT_WIDTH);
+            buffer.putInt(number);
+            buffer.flip();
+            writeRow(new File(dir, BUILDS_FILE), row, buffer);
+            recorded.add(number);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the row of a build, for when the build is deleted. The row is only marked as deleted, unless half of
+     * the rows are deleted, then the store is {@link #compact() compacted}.
+     *
+     * @param number the number of the build.
+     * @return true if the row was removed, false if the build has no row.
+     * @throws IOException if the columns could not be written.
+     */
+    public boolean remove(int number) throws IOException {
+        lock.writeLock().lock();
+        try {
+            recover();
+            int[] numbers = readBuildNumbers();
+            int row = -1;
+            int deleted = 0;
+            for (int i = 0; i < numbers.length; i++) {
+                if (numbers[i] == number) {
+                    row = i;
+                } else if (numbers[i] == DELETED) {
+                    deleted++;
+                }
+            }
+            if (row < 0) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(INT_WIDTH);
+            buffer.putInt(DELETED);
+            buffer.flip();
+            writeRow(new File(dir, BUILDS_FILE), row, buffer);
+            numbers[row] = DELETED;
+            if (recorded != null) {
+                recorded.remove(number);
+            }
+            if ((deleted + 1) * 2 >= numbers.length) {
+                compact(numbers);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the deleted rows from every column, by writing the store anew next to the old one and swapping the
+     * directories.
+     *
+     * @throws IOException if the columns could not be written.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            recover();
+            compact(readBuildNumbers());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The number of rows, i.e. the number of builds recorded and not removed.
+     *
+     * @return the number of rows.
+     * @throws IOException if the builds column can't be read.
+     */
+    public int getRowCount() throws IOException {
+        return getBuildNumbers().length;
+    }
+
+    /**
+     * The build number of every row.
+     *
+     * @return the numbers in row order.
+     * @throws IOException if the builds column can't be read.
+     */
+    public int[] getBuildNumbers() throws IOException {
+        lock.readLock().lock();
+        try {
+            int[] numbers = readBuildNumbers();
+            int[] rows = readLiveRows(numbers);
+            if (rows == null) {
+                return numbers;
+            }
+            int[] live = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                live[i] = numbers[rows[i]];
+            }
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The column of a path, numbers before dates before strings if the path has had values of different types.
+     *
+     * @param path the path.
+     * @return the column or null if there is none.
+     * @throws IOException if the column can't be read.
+     */
+    public Column getColumn(MetadataPath path) throws IOException {
+        for (Type type : Type.values()) {
+            Column column = getColumn(path, type);
+            if (column != null) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The column of a path with values of a type.
+     *
+     * @param path the path.
+     * @param type the type.
+     * @return the column or null if there is none.
+     * @throws IOException if the column can't be read.
+     */
+    public Column getColumn(MetadataPath path, Type type) throws IOException {
+        lock.readLock().lock();
+        try {
+            File file = getColumnFile(path, type);
+            if (!file.isFile()) {
+                return null;
+            }
+            //Entries beyond the committed rows are left overs from a build that was never committed.
+            int[] numbers = readBuildNumbers();
+            int rows = (int)Math.min(file.length() / type.width, numbers.length);
+            List<String> dictionary = null;
+            if (type == Type.STRING) {
+                dictionary = readDictionary(getDictionaryFile(file), false);
+            }
+            return new Column(path, type, read(file, rows * type.width), rows, numbers.length, readLiveRows(numbers),
+                    dictionary);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Aggregates a number or date column over the latest rows.
+     *
+     * @param path     the path of the column.
+     * @param lastRows the number of rows to aggregate, counted from the latest build.
+     * @return the statistics, or null if there is no number or date column for the path.
+     * @throws IOException if the column can't be read.
+     */
+    public Statistics aggregate(MetadataPath path, int lastRows) throws IOException {
+        Column column = getColumn(path, Type.NUMBER);
+        if (column == null) {
+            column = getColumn(path, Type.DATE);
+            if (column == null) {
+                return null;
+            }
+        }
+        Statistics statistics = new Statistics();
+        int rows = column.size();
+        for (int row = Math.max(0, rows - lastRows); row < rows; row++) {
+            long value = column.getLong(row);
+            if (value != NULL) {
+                statistics.add(value);
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * The number of committed rows, the deleted ones included.
+     *
+     * @return the number of rows.
+     */
+    private int getCommittedRows() {
+        return (int)(new File(dir, BUILDS_FILE).length() / INT_WIDTH);
+    }
+
+    /**
+     * The build number of every committed row without locking, {@link #DELETED} for the deleted ones.
+     *
+     * @return the numbers in row order.
+     * @throws IOException if the builds column can't be read.
+     */
+    private int[] readBuildNumbers() throws IOException {
+        int rows = getCommittedRows();
+        int[] numbers = new int[rows];
+        if (rows > 0) {
+            ByteBuffer buffer = read(new File(dir, BUILDS_FILE), rows * INT_WIDTH);
+            for (int i = 0; i < rows; i++) {
+                numbers[i] = buffer.getInt(i * INT_WIDTH);
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * The committed rows that aren't deleted.
+     *
+     * @param numbers the build number of every committed row.
+     * @return the rows in order, or null if no row is deleted.
+     */
+    private static int[] readLiveRows(int[] numbers) {
+        int deleted = 0;
+        for (int number : numbers) {
+            if (number == DELETED) {
+                deleted++;
+            }
+        }
+        if (deleted == 0) {
+            return null;
+        }
+        int[] rows = new int[numbers.length - deleted];
+        int i = 0;
+        for (int row = 0; row < numbers.length; row++) {
+            if (numbers[row] != DELETED) {
+                rows[i++] = row;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The numbers of the recorded builds, read from the builds column the first time.
+     *
+     * @return the numbers.
+     * @throws IOException if the builds column can't be read.
+     */
+    private Set<Integer> getRecorded() throws IOException {
+        if (recorded == null) {
+            Set<Integer> numbers = new HashSet<Integer>();
+            for (int number : readBuildNumbers()) {
+                if (number != DELETED) {
+                    numbers.add(number);
+                }
+            }
+            recorded = numbers;
+        }
+        return recorded;
+    }
+
+    /**
+     * A directory next to the directory of the columns.
+     *
+     * @param suffix the suffix of its name.
+     * @return the directory.
+     */
+    private File getSibling(String suffix) {
+        return new File(dir.getParentFile(), dir.getName() + suffix);
+    }
+
+    /**
+     * Writes the store anew without the deleted rows, if there are any. The write lock must be held.
+     *
+     * @param numbers the build number of every committed row.
+     * @throws IOException if the columns could not be written.
+     */
+    private void compact(int[] numbers) throws IOException {
+        int[] rows = readLiveRows(numbers);
+        if (rows == null) {
+            return;
+        }
+        File next = getSibling(NEW_SUFFIX);
+        if (!next.mkdirs()) {
+            throw new IOException("Failed to create " + next);
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                copyRows(file, new File(next, file.getName()), rows, numbers.length);
+            }
+        }
+        File old = getSibling(OLD_SUFFIX);
+        if (!dir.renameTo(old)) {
+            throw new IOException("Failed to move " + dir + " to " + old);
+        }
+        if (!next.renameTo(dir)) {
+            throw new IOException("Failed to move " + next + " to " + dir);
+        }
+        FileUtils.deleteDirectory(old);
+    }
+
+    /**
+     * Cleans up after a {@link #compact()} that didn't finish. If it got as far as moving the old directory aside
+     * but not the new one in, the old one is moved back.
+     *
+     * @throws IOException if the directories could not be moved or deleted.
+     */
+    private void recover() throws IOException {
+        File old = getSibling(OLD_SUFFIX);
+        if (old.isDirectory()) {
+            if (dir.exists()) {
+                FileUtils.deleteDirectory(old);
+            } else if (!old.renameTo(dir)) {
+                throw new IOException("Failed to move " + old + " back to " + dir);
+            }
+        }
+        FileUtils.deleteDirectory(getSibling(NEW_SUFFIX));
+    }
+
+    /**
+     * Copies a file of the store, only the given rows if it is a column. Dictionaries are copied as they are.
+     *
+     * @param from      the file to copy.
+     * @param to        the copy.
+     * @param keep      the rows to copy, in order.
+     * @param committed the number of committed rows.
+     * @throws IOException if the file could not be copied.
+     */
+    private static void copyRows(File from, File to, int[] keep, int committed) throws IOException {
+        int width = 0;
+        if (from.getName().equals(BUILDS_FILE)) {
+            width = INT_WIDTH;
+        } else {
+            for (Type type : Type.values()) {
+                if (from.getName().endsWith(type.suffix)) {
+                    width = type.width;
+                }
+            }
+        }
+        if (width == 0) {
+            FileUtils.copyFile(from, to);
+            return;
+        }
+        byte[] bytes = FileUtils.readFileToByteArray(from);
+        //Left overs of a build that was never committed are left out as well.
+        int entries = Math.min(bytes.length / width, committed);
+        OutputStream out = new FileOutputStream(to);
+        try {
+            int i = 0;
+            while (i < keep.length && keep[i] < entries) {
+                //Runs of rows in one write.
+                int start = keep[i];
+                int end = start + 1;
+                i++;
+                while (i < keep.length && keep[i] == end && end < entries) {
+                    end++;
+                    i++;
+                }
+                out.write(bytes, start * width, (end - start) * width);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The file of a column.
+     *
+     * @param path the path of the column.
+     * @param type the type of the column.
+     * @return the file.
+     * @throws IOException if the path can't be encoded.
+     */
+    private File getColumnFile(MetadataPath path, Type type) throws IOException {
+        //Paths are case insensitive, and the dots would be mistaken for suffixes.
+        String name = URLEncoder.encode(path.toString().toLowerCase(Locale.ENGLISH), CHARSET);
+        name = name.replace(".", "%2E").replace("*", "%2A");
+        return new File(dir, name + type.suffix);
+    }
+
+    /**
+     * The dictionary file of a string column.
+     *
+     * @param column the column file.
+     * @return the dictionary file.
+     */
+    private static File getDictionaryFile(File column) {
+        return new File(column.getPath() + DICTIONARY_SUFFIX);
+    }
+
+    /**
+     * Cuts off the entries that a build that was never committed left after the last row.
+     *
+     * @param rows the number of committed rows.
+     * @throws IOException if a column can't be truncated.
+     */
+    private void truncateAbandoned(int rows) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            for (Type type : Type.values()) {
+                if (file.getName().endsWith(type.suffix) && file.length() > (long)rows * type.width) {
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    try {
+                        raf.setLength((long)rows * type.width);
+                    } finally {
+                        raf.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the entry of a row, padding the rows before it that have no value.
+     *
+     * @param file  the column file.
+     * @param row   the row.
+     * @param entry the entry.
+     * @throws IOException if the column could not be written.
+     */
+    private static void writeRow(File file, int row, ByteBuffer entry) throws IOException {
+        int width = entry.remaining();
+        long position = (long)row * width;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size() - channel.size() % width;
+            if (length < position) {
+                ByteBuffer padding = ByteBuffer.allocate((int)(position - length));
+                while (padding.hasRemaining()) {
+                    if (width == INT_WIDTH) {
+                        padding.putInt(NULL_CODE);
+                    } else {
+                        padding.putLong(NULL);
+                    }
+                }
+                padding.flip();
+                write(channel, padding, length);
+            }
+            write(channel, entry, position);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes all of a buffer.
+     *
+     * @param channel  the channel to write to.
+     * @param buffer   the buffer.
+     * @param position where to write it.
+     * @throws IOException if it could not be written.
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+
+    /**
+     * The code of a string in the dictionary of a column, adding it if it isn't there yet. The dictionary is read
+     * the first time and kept in memory after that.
+     *
+     * @param column the column file.
+     * @param value  the string.
+     * @return the code.
+     * @throws IOException if the dictionary can't be read or written.
+     */
+    private int encode(File column, String value) throws IOException {
+        File file = getDictionaryFile(column);
+        Map<String, Integer> codes = dictionaries.get(file.getName());
+        if (codes == null) {
+            List<String> dictionary = readDictionary(file, true);
+            codes = new HashMap<String, Integer>();
+            for (int code = 0; code < dictionary.size(); code++) {
+                codes.put(dictionary.get(code), code);
+            }
+            if (codes.size() < dictionary.size()) {
+                throw new IOException("Duplicate strings in " + file);
+            }
+            dictionaries.put(file.getName(), codes);
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        byte[] bytes = value.getBytes(CHARSET);
+        ByteBuffer buffer = ByteBuffer.allocate(INT_WIDTH + bytes.length);
+        buffer.putInt(bytes.length).put(bytes);
+        buffer.flip();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                write(raf.getChannel(), buffer, raf.length());
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            //Read it again next time, cutting off what was written of the entry.
+            dictionaries.remove(file.getName());
+            throw e;
+        }
+        code = codes.size();
+        codes.put(value, code);
+        return code;
+    }
+
+    /**
+     * Reads the dictionary of a string column.
+     *
+     * @param file     the dictionary file.
+     * @param truncate true if an entry that was cut short by a crash should be cut off the file, so that the next
+     *                 one can be appended.
+     * @return the strings in code order.
+     * @throws IOException if the dictionary can't be read.
+     */
+    private static List<String> readDictionary(File file, boolean truncate) throws IOException {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        List<String> dictionary = new ArrayList<String>();
+        //Read rather than mapped, since a torn entry can be truncated while it is being read.
+        ByteBuffer buffer = ByteBuffer.wrap(FileUtils.readFileToByteArray(file));
+        int length = buffer.limit();
+        int position = 0;
+        while (position + INT_WIDTH <= length) {
+            int size = buffer.getInt(position);
+            if (size < 0 || position + INT_WIDTH + size > length) {
+                break;
+            }
+            byte[] bytes = new byte[size];
+            buffer.position(position + INT_WIDTH);
+            buffer.get(bytes);
+            dictionary.add(new String(bytes, CHARSET));
+            position += INT_WIDTH + size;
+        }
+        if (truncate && position < length) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(position);
+            } finally {
+                raf.close();
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * Reads the beginning of a file into memory.
+     *
+     * @param file   the file.
+     * @param length the number of bytes to read.
+     * @return the buffer.
+     * @throws IOException if the file can't be read.
+     */
+    private static ByteBuffer read(File file, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Drops the store of a job that is deleted or renamed from the stores that {@link #forJob(Job)} keeps.
+     */
+    @Extension
+    public static class JobListener extends ItemListener {
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                forget(((Job)item).getRootDir());
+            }
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            if (item instanceof Job) {
+                //The job has been moved to the directory of its new name next to the old one.
+                forget(new File(((Job)item).getRootDir().getParentFile(), oldName));
+            }
+        }
+    }
+
+    /**
+     * A column read from the store. Rows that were added after the last value of the column are {@link #NULL}.
+     * Deleted rows are skipped, so the rows are numbered the same as {@link #getBuildNumbers()}.
+     */
+    public static final class Column {
+        private final MetadataPath path;
+        private final Type type;
+        private final ByteBuffer buffer;
+        private final int entries;
+        private final int rows;
+        private final int[] live;
+        private final List<String> dictionary;
+
+        /**
+         * Standard constructor.
+         *
+         * @param path       the path of the column.
+         * @param type       the type of the column.
+         * @param buffer     the column file.
+         * @param entries    the number of rows in the file.
+         * @param committed  the number of committed rows in the store.
+         * @param live       the committed rows that aren't deleted, or null if none is.
+         * @param dictionary the dictionary of a string column.
+         */
+        private Column(MetadataPath path, Type type, ByteBuffer buffer, int entries, int committed, int[] live,
+                       List<String> dictionary) {
+            this.path = path;
+            this.type = type;
+            this.buffer = buffer;
+            this.entries = entries;
+            this.live = live;
+            if (live == null) {
+                this.rows = committed;
+            } else {
+                this.rows = live.length;
+            }
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * The path of the column.
+         *
+         * @return the path.
+         */
+        public MetadataPath getPath() {
+            return path;
+        }
+
+        /**
+         * The type of the column.
+         *
+         * @return the type.
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * The number of rows.
+         *
+         * @return the number of rows in the store when the column was read.
+         */
+        public int size() {
+            return rows;
+        }
+
+        /**
+         * Tells if a row has no value.
+         *
+         * @param row the row.
+         * @return true if so.
+         */
+        public boolean isNull(int row) {
+            int entry = getEntry(row);
+            if (entry >= entries) {
+                return true;
+            }
+            if (type == Type.STRING) {
+                return buffer.getInt(entry * type.width) == NULL_CODE;
+            }
+            return buffer.getLong(entry * type.width) == NULL;
+        }
+
+        /**
+         * The value of a row in a number or date column.
+         *
+         * @param row the row.
+         * @return the number, the time in milliseconds, or {@link #NULL}.
+         */
+        public long getLong(int row) {
+            if (type == Type.STRING) {
+                throw new IllegalStateException(path + " is not a number or date column");
+            }
+            int entry = getEntry(row);
+            if (entry >= entries) {
+                return NULL;
+            }
+            return buffer.getLong(entry * type.width);
+        }
+
+        /**
+         * The value of a row in a string column.
+         *
+         * @param row the row.
+         * @return the string or null if the row has no value.
+         */
+        public String getString(int row) {
+            if (type != Type.STRING) {
+                throw new IllegalStateException(path + " is not a string column");
+            }
+            int entry = getEntry(row);
+            if (entry >= entries) {
+                return null;
+            }
+            int code = buffer.getInt(entry * type.width);
+            if (code < 0 || code >= dictionary.size()) {
+                return null;
+            }
+            return dictionary.get(code);
+        }
+
+        /**
+         * Counts how many rows have each string in a string column.
+         *
+         * @return the count of each string.
+         */
+        public Map<String, Integer> countValues() {
+            if (type != Type.STRING) {
+                throw new IllegalStateException(path + " is not a string column");
+            }
+            int[] counts = new int[dictionary.size()];
+            for (int row = 0; row < rows; row++) {
+                int entry = getEntry(row);
+                if (entry >= entries) {
+                    continue;
+                }
+                int code = buffer.getInt(entry * type.width);
+                if (code >= 0 && code < counts.length) {
+                    counts[code]++;
+                }
+            }
+            Map<String, Integer> map = new HashMap<String, Integer>();
+            for (int code = 0; code < counts.length; code++) {
+                if (counts[code] > 0) {
+                    map.put(dictionary.get(code), counts[code]);
+                }
+            }
+            return map;
+        }
+
+        /**
+         * The entry in the column file of a row.
+         *
+         * @param row the row.
+         * @return the entry.
+         */
+        private int getEntry(int row) {
+            if (live == null) {
+                return row;
+            }
+            return live[row];
+        }
+    }
+
+    /**
+     * The aggregate of the values in a number or date column.
+     */
+    public static final class Statistics {
+        private int count = 0;
+        private long sum = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        /**
+         * Adds a value.
+         *
+         * @param value the value.
+         */
+        private void add(long value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        /**
+         * The number of rows with a value.
+         *
+         * @return the count.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * The sum of the values.
+         *
+         * @return the sum.
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * The smallest value.
+         *
+         * @return the value, or {@link #NULL} if there are no values.
+         */
+        public long getMin() {
+            if (count == 0) {
+                return NULL;
+            }
+            return min;
+        }
+
+        /**
+         * The largest value.
+         *
+         * @return the value, or {@link #NULL} if there are no values.
+         */
+        public long getMax() {
+            if (count == 0) {
+                return NULL;
+            }
+            return max;
+        }
+
+        /**
+         * The average of the values.
+         *
+         * @return the average, or NaN if there are no values.
+         */
+        public double getAverage() {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            return (double)sum / count;
+        }
+    }
+}
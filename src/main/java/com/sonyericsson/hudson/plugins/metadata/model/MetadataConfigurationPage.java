@@ -27,6 +27,7 @@ package com.sonyericsson.hudson.plugins.metadata.model;
 import com.sonyericsson.hudson.plugins.metadata.Messages;
 import com.sonyericsson.hudson.plugins.metadata.model.definitions.AbstractMetadataDefinition;
 import com.sonyericsson.hudson.plugins.metadata.model.definitions.MetadataDefinition;
+import com.sonyericsson.hudson.plugins.metadata.util.StringPool;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.model.Descriptor;
@@ -103,6 +104,28 @@ public class MetadataConfigurationPage implements RootAction {
         return PluginImpl.CONFIGURE_DEFINITIONS;
     }
 
+    /**
+     * The pool of strings shared by the metadata, to report how much memory it saves.
+     * Used by index.jelly
+     *
+     * @return the pool.
+     */
+    @SuppressWarnings("unused")
+    public StringPool getStringPool() {
+        return StringPool.getDefault();
+    }
+
+    /**
+     * The warm-up of the metadata indexes, to show its progress.
+     * Used by index.jelly
+     *
+     * @return the warm-up.
+     */
+    @SuppressWarnings("unused")
+    public MetadataIndexWarmUp getIndexWarmUp() {
+        return MetadataIndexWarmUp.getInstance();
+    }
+
     /**
      * All registered metadata definition descriptors. To be used by a hetero-list.
      *
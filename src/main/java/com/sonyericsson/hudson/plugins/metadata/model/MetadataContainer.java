@@ -26,6 +26,7 @@ package com.sonyericsson.hudson.plugins.metadata.model;
 import hudson.security.ACL;
 
 import java.io.IOException;
+import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * A container for metadata. i.e. {@link MetadataJobProperty} or {@link MetadataBuildAction}.
@@ -48,4 +49,53 @@ public interface MetadataContainer<T extends Metadata> extends MetadataParent<T>
      * @return the ACL.
      */
     ACL getACL();
+
+    /**
+     * The lock guarding the metadata tree in this container. All tree nodes inside the container share it, so
+     * readers (searches, environment variables, views) take the read lock and don't block each other, while
+     * anything that modifies the tree takes the write lock.
+     *
+     * @return the lock.
+     */
+    ReadWriteLock getLock();
+
+    /**
+     * A flat view of all the values in this container keyed on their path, for lookups without walking the tree. It
+     * is built on first use and kept until the next change.
+     *
+     * @return the index.
+     */
+    MetadataPathIndex<T> getPathIndex();
+
+    /**
+     * The {@link #getPathIndex()} if it has been built since the last change, without building it or loading the
+     * values.
+     *
+     * @return the index, or null if it isn't built.
+     */
+    MetadataPathIndex<T> getBuiltPathIndex();
+
+    /**
+     * Tells the container that something in its tree has changed, so that views of the tree that it keeps, like the
+     * {@link #getPathIndex()}, are rebuilt and the {@link #getVersion()} is increased. Tree nodes and values call this
+     * when they are modified.
+     */
+    void markChanged();
+
+    /**
+     * The version of the metadata in this container. It is increased on every change, so caches can compare it with
+     * the version they were built from instead of comparing the whole tree. The versions are taken from the
+     * {@link MetadataGeneration}, a container that hasn't changed since it was loaded has version 0.
+     *
+     * @return the version.
+     */
+    long getVersion();
+
+    /**
+     * The journal that updates to this container are appended to, so that they are on disk without saving the whole
+     * container. Containers that have one replay it when they are loaded and clear it when they are saved.
+     *
+     * @return the journal, or null if updates should be saved with {@link #save()} instead.
+     */
+    MetadataJournal getJournal();
 }
@@ -23,7 +23,6 @@
  */
 package com.sonyericsson.hudson.plugins.metadata.model;
 
-import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.model.AbstractBuild;
@@ -50,9 +49,7 @@ public class MetadataEnvironmentContributor extends EnvironmentContributor {
             if (action == null) {
                 return;
             }
-            for (MetadataValue child : action.getChildren()) {
-                child.addEnvironmentVariables(envs, false);
-            }
+            envs.putAll(action.getEnvironmentVariables());
         }
     }
 }
@@ -0,0 +1,73 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The global metadata generation. It is increased every time the metadata in any {@link MetadataContainer} changes,
+ * so a cache over many containers can tell if anything at all has changed since it was built by comparing one number.
+ * The generation starts over from zero when Jenkins is restarted.
+ */
+public final class MetadataGeneration {
+
+    private static final AtomicLong GENERATION = new AtomicLong();
+    private static final long EPOCH = System.currentTimeMillis();
+
+    /**
+     * Utility constructor.
+     */
+    private MetadataGeneration() {
+
+    }
+
+    /**
+     * The current generation.
+     *
+     * @return the generation.
+     */
+    public static long current() {
+        return GENERATION.get();
+    }
+
+    /**
+     * Identifies this run of Jenkins. Generations and versions are only comparable within the same epoch, since they
+     * start over from zero when Jenkins is restarted.
+     *
+     * @return the time this class was loaded.
+     */
+    public static long getEpoch() {
+        return EPOCH;
+    }
+
+    /**
+     * Increases the generation, called when the metadata in a container has changed.
+     *
+     * @return the new generation.
+     * @see MetadataContainer#markChanged()
+     */
+    public static long next() {
+        return GENERATION.incrementAndGet();
+    }
+}
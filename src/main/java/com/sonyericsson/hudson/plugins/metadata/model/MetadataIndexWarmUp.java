@@ -0,0 +1,293 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds the {@link MetadataContainer#getPathIndex() path indexes} of all jobs and nodes in the background when
+ * Jenkins starts, so that the first searches don't have to. The containers are indexed in parallel by a bounded
+ * pool of workers. Until it is done {@link #isWarmingUp()} is true, and searches look the values up by scanning
+ * the trees instead of building the indexes themselves.
+ *
+ * The number of workers can be configured with the system property
+ * <code>MetadataIndexWarmUp.class.getName() + ".threads"</code>. The builds of the jobs are indexed as well if
+ * the system property <code>MetadataIndexWarmUp.class.getName() + ".builds"</code> is true, which loads every build.
+ */
+public final class MetadataIndexWarmUp {
+
+    /**
+     * The maximum number of workers by default, the warm-up shouldn't steal all of the CPU from a starting Jenkins.
+     */
+    public static final int DEFAULT_MAX_THREADS = 4;
+
+    private static final Logger logger = Logger.getLogger(MetadataIndexWarmUp.class.getName());
+
+    private static final MetadataIndexWarmUp INSTANCE = new MetadataIndexWarmUp(
+            Integer.getInteger(MetadataIndexWarmUp.class.getName() + ".threads",
+                    Math.min(DEFAULT_MAX_THREADS, Runtime.getRuntime().availableProcessors())),
+            Boolean.getBoolean(MetadataIndexWarmUp.class.getName() + ".builds"));
+
+    private final int threads;
+    private final boolean includeBuilds;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+    private volatile boolean started = false;
+    private volatile boolean finished = false;
+
+    /**
+     * Standard constructor.
+     *
+     * @param threads       the number of workers.
+     * @param includeBuilds true if the builds should be indexed as well.
+     */
+    MetadataIndexWarmUp(int threads, boolean includeBuilds) {
+        this.threads = Math.max(1, threads);
+        this.includeBuilds = includeBuilds;
+    }
+
+    /**
+     * The warm-up used by the plugin.
+     *
+     * @return the warm-up.
+     */
+    public static MetadataIndexWarmUp getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the warm-up once the jobs are loaded.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void warmUpAfterJobsLoaded() {
+        getInstance().start();
+    }
+
+    /**
+     * Starts indexing on a background thread, unless it has been started already.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        Thread thread = new Thread("Metadata index warm-up") {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Indexes all containers and waits for it to finish.
+     */
+    void warmUp() {
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Metadata index warm-up worker " + number.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            Hudson hudson = Hudson.getInstance();
+            futures.add(submit(pool, new NodeTask(hudson)));
+            for (Node node : hudson.getNodes()) {
+                futures.add(submit(pool, new NodeTask(node)));
+            }
+            for (AbstractProject project : hudson.getAllItems(AbstractProject.class)) {
+                futures.add(submit(pool, new JobTask(project)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    logger.log(Level.WARNING, "Failed to index some metadata, it will be indexed when needed.",
+                            e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.INFO, "The metadata index warm-up was interrupted.", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+            finished = true;
+        }
+        logger.log(Level.INFO, "Indexed the metadata of {0} jobs and nodes in {1} ms.",
+                new Object[]{done.get(), System.currentTimeMillis() - start});
+    }
+
+    /**
+     * Submits a task and counts it.
+     *
+     * @param pool the pool of workers.
+     * @param task the task.
+     * @return the future of the task.
+     */
+    private Future<?> submit(ExecutorService pool, Runnable task) {
+        total.incrementAndGet();
+        return pool.submit(task);
+    }
+
+    /**
+     * Tells if the warm-up has started but not yet finished.
+     *
+     * @return true if so.
+     */
+    public boolean isWarmingUp() {
+        return started && !finished;
+    }
+
+    /**
+     * Tells if the warm-up is done.
+     *
+     * @return true if so.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * The number of jobs and nodes found so far.
+     *
+     * @return the total.
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    /**
+     * The number of jobs and nodes that are indexed.
+     *
+     * @return the number.
+     */
+    public int getDone() {
+        return done.get();
+    }
+
+    /**
+     * The progress of the warm-up.
+     *
+     * @return the percentage of the jobs and nodes found so far that are indexed, 100 when finished.
+     */
+    public int getProgress() {
+        if (finished) {
+            return 100;
+        }
+        int all = total.get();
+        if (all == 0) {
+            return 0;
+        }
+        return (int)(done.get() * 100L / all);
+    }
+
+    /**
+     * Indexes the metadata of a node.
+     */
+    private final class NodeTask implements Runnable {
+        private final Node node;
+
+        /**
+         * Standard constructor.
+         *
+         * @param node the node.
+         */
+        private NodeTask(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            try {
+                MetadataNodeProperty property = node.getNodeProperties().get(MetadataNodeProperty.class);
+                if (property != null) {
+                    property.getPathIndex();
+                }
+            } finally {
+                done.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Indexes the metadata of a job, and of its builds if so configured.
+     */
+    private final class JobTask implements Runnable {
+        private final AbstractProject<?, ?> project;
+
+        /**
+         * Standard constructor.
+         *
+         * @param project the job.
+         */
+        private JobTask(AbstractProject<?, ?> project) {
+            this.project = project;
+        }
+
+        @Override
+        public void run() {
+            try {
+                MetadataJobProperty property = project.getProperty(MetadataJobProperty.class);
+                if (property != null) {
+                    property.getPathIndex();
+                }
+                if (includeBuilds) {
+                    for (AbstractBuild<?, ?> build : project.getBuilds()) {
+                        MetadataBuildAction action = build.getAction(MetadataBuildAction.class);
+                        if (action != null) {
+                            action.getPathIndex();
+                        }
+                    }
+                }
+            } finally {
+                done.incrementAndGet();
+            }
+        }
+    }
+}
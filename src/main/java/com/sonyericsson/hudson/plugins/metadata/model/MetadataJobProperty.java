@@ -49,10 +49,14 @@ import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.sonyericsson.hudson.plugins.metadata.Constants.REQUEST_ATTR_METADATA_CONTAINER;
 
@@ -63,14 +67,20 @@ import static com.sonyericsson.hudson.plugins.metadata.Constants.REQUEST_ATTR_ME
  */
 @edu.umd.cs.findbugs.annotations.SuppressWarnings(
         value = "UG_SYNC_SET_UNSYNC_GET",
-        justification = "It is synchronized")
+        justification = "It is guarded by the read/write lock")
 @XStreamAlias("job-metadata")
 @ExportedBean
 public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> implements MetadataContainer<MetadataValue> {
 
-    private List<MetadataValue> values;
+    /**
+     * Copy on write, see {@link #getChildren()}.
+     */
+    private volatile List<MetadataValue> values;
     private transient MetadataJobAction metadataJobAction;
     private transient MetadataValueDefinitionHelper helper;
+    private transient volatile ReadWriteLock lock;
+    private transient volatile MetadataPathIndex<MetadataValue> pathIndex;
+    private transient volatile long version;
 
     /**
      * Standard DataBound Constructor.
@@ -85,14 +95,15 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
         for (MetadataValue value : values) {
             value.setParent(this);
         }
-        this.values = values;
+        this.values = new ArrayList<MetadataValue>(values);
+        markChanged();
     }
 
     /**
      * Default constructor. <strong>Do not use unless you are a serializer.</strong>
      */
     public MetadataJobProperty() {
-        this.values = new LinkedList<MetadataValue>();
+        this.values = new ArrayList<MetadataValue>();
     }
 
     /**
@@ -100,19 +111,31 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
      *
      * @return the values.
      */
-    public synchronized List<MetadataValue> getValues() {
-        if (values == null) {
-            values = new LinkedList<MetadataValue>();
+    public List<MetadataValue> getValues() {
+        List<MetadataValue> current = values;
+        if (current == null) {
+            return Collections.emptyList();
         }
-        return values;
+        return Collections.unmodifiableList(current);
     }
 
     /**
      * Setter for the values.
      * @param values the values.
      */
-    public synchronized void setValues(List<MetadataValue> values) {
-        this.values = values;
+    public void setValues(List<MetadataValue> values) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            if (values == null) {
+                this.values = new ArrayList<MetadataValue>();
+            } else {
+                this.values = new ArrayList<MetadataValue>(values);
+            }
+            markChanged();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -120,7 +143,7 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
      *
      * @return all user values.
      */
-    public synchronized List<MetadataValue> getUserValues() {
+    public List<MetadataValue> getUserValues() {
         List<? extends MetadataValue> allValues = getValues();
         List<MetadataValue> userValues = new LinkedList<MetadataValue>();
         for (MetadataValue value : allValues) {
@@ -149,34 +172,125 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
     }
 
     @Override
-    public synchronized MetadataValue getChild(String name) {
+    public ReadWriteLock getLock() {
+        if (lock == null) {
+            synchronized (this) {
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock();
+                }
+            }
+        }
+        return lock;
+    }
+
+    @Override
+    public MetadataPathIndex<MetadataValue> getPathIndex() {
+        MetadataPathIndex<MetadataValue> index = pathIndex;
+        if (index == null) {
+            //Built and published under the read lock so that no writer can invalidate it in between.
+            Lock readLock = getLock().readLock();
+            readLock.lock();
+            try {
+                index = MetadataPathIndex.build(getValues());
+                pathIndex = index;
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public MetadataPathIndex<MetadataValue> getBuiltPathIndex() {
+        return pathIndex;
+    }
+
+    @Override
+    public void markChanged() {
+        pathIndex = null;
+        version = MetadataGeneration.next();
+    }
+
+    @Override
+    @Exported
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public MetadataValue getChild(String name) {
         return ParentUtil.getChildValue(getValues(), name);
     }
 
     @Override
-    public synchronized int indexOf(String name) {
+    public int indexOf(String name) {
         return ParentUtil.getChildIndex(getValues(), name);
     }
 
     @Override
-    public synchronized MetadataValue setChild(int index, MetadataValue value) {
-        value.setParent(this);
-        return values.set(index, value);
+    public MetadataValue setChild(int index, MetadataValue value) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            value.setParent(this);
+            MetadataValue old = copy.set(index, value);
+            values = copy;
+            markChanged();
+            return old;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<MetadataValue> addChild(MetadataValue value) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            Collection<MetadataValue> leftOvers = ParentUtil.addChildValue(this, copy, value);
+            values = copy;
+            markChanged();
+            return leftOvers;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> addChild(MetadataValue value) {
-        return ParentUtil.addChildValue(this, getValues(), value);
+    public Collection<MetadataValue> addChildren(Collection<MetadataValue> childValues) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            Collection<MetadataValue> leftOvers = ParentUtil.addChildValues(this, copy, childValues);
+            values = copy;
+            markChanged();
+            return leftOvers;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> addChildren(Collection<MetadataValue> childValues) {
-        return ParentUtil.addChildValues(this, getValues(), childValues);
+    public MetadataValue removeChild(String name) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            MetadataValue removed = ParentUtil.removeChildValue(copy, name);
+            values = copy;
+            markChanged();
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
     @Exported
-    public synchronized Collection<MetadataValue> getChildren() {
+    public Collection<MetadataValue> getChildren() {
         return getValues();
     }
 
@@ -192,7 +306,7 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
      * @param <T> the MetadataDefinition type.
      * @return a list of MetadataDefinitions.
      */
-    public synchronized <T extends MetadataDefinition> List<MetadataDefinition> getDefinitionsAsFlatList(
+    public <T extends MetadataDefinition> List<MetadataDefinition> getDefinitionsAsFlatList(
             StaplerRequest request) {
         //TODO fix the templating hell that is going on here
         List<T> definitionsAsFlatList = new LinkedList<T>();
@@ -208,7 +322,7 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
  **/
     public Object getValueForDefinition(MetadataDefinition definition) {
         if (helper == null) {
-            helper = new MetadataValueDefinitionHelper(getUserValues());
+            helper = new MetadataValueDefinitionHelper(getUserValues(), PluginImpl.getInstance().getDefinitions());
         }
         return helper.getValueForDefinition(definition);
     }
@@ -227,7 +341,7 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
      * @return a new MetadataValueDefinitionHelper.
      */
     public MetadataValueDefinitionHelper initiateHelper() {
-        return new MetadataValueDefinitionHelper(getUserValues());
+        return new MetadataValueDefinitionHelper(getUserValues(), PluginImpl.getInstance().getDefinitions());
     }
 
     @Override
@@ -246,8 +360,14 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
     }
 
     @Override
-    public synchronized JSON toJson() {
-        return ParentUtil.toJson(this);
+    public JSON toJson() {
+        Lock readLock = getLock().readLock();
+        readLock.lock();
+        try {
+            return ParentUtil.toJson(this);
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
@@ -256,14 +376,27 @@ public class MetadataJobProperty extends JobProperty<AbstractProject<?, ?>> impl
     }
 
     @Override
-    public synchronized void save() throws IOException {
+    public void save() throws IOException {
         if (owner != null) {
-            owner.save();
+            //Keep writers out while the tree is serialized, readers can still go on.
+            Lock readLock = getLock().readLock();
+            readLock.lock();
+            try {
+                owner.save();
+            } finally {
+                readLock.unlock();
+            }
         } else {
             throw new IOException("This container is not attached to any job.");
         }
     }
 
+    @Override
+    public MetadataJournal getJournal() {
+        //Jobs are saved to config.xml by Jenkins as well, so there is no telling what a journal would be replayed on.
+        return null;
+    }
+
     @Override
     public ACL getACL() {
         if (owner != null) {
@@ -0,0 +1,271 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataTreeDiff;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
+import net.sf.json.JSON;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append only log of the updates made to a container since it was last saved. An update is appended as one line
+ * of JSON, which is a lot less to write than the whole container, and is replayed on top of the saved container
+ * when it is loaded. When the container is saved, usually in the background by {@link MetadataSaver#getCompactor()},
+ * the journal is cleared.
+ *
+ * A line that was only half written when Jenkins went down is skipped when the journal is replayed.
+ */
+public class MetadataJournal {
+
+    /**
+     * Operation for values that were added, see {@link MetadataContainer#addChildren(java.util.Collection)}.
+     */
+    public static final String OP_ADD = "add";
+    /**
+     * Operation for values that replaced the old ones, see
+     * {@link MetadataTreeDiff#replace(MetadataParent, java.util.Collection)}.
+     */
+    public static final String OP_REPLACE = "replace";
+
+    private static final Logger logger = Logger.getLogger(MetadataJournal.class.getName());
+    private static final String CHARSET = "UTF-8";
+    private static final char NEWLINE = '\n';
+    private static final String KEY_STAMP = "stamp";
+    private static final String KEY_OPERATION = "op";
+    private static final String KEY_DATA = "data";
+
+    private final File file;
+
+    /**
+     * Standard constructor.
+     *
+     * @param file the file to append to.
+     */
+    public MetadataJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The file of the journal.
+     *
+     * @return the file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The stamp to record with an update, that tells what version of the container the update resulted in. Used by
+     * containers that can be saved by other means than their own {@link MetadataContainer#save()}, so that updates
+     * that are already saved are not replayed, see {@link #replay(java.util.Collection, long, MetadataContainer)}.
+     *
+     * @return the stamp, 0 by default.
+     */
+    protected long getStamp() {
+        return 0;
+    }
+
+    /**
+     * Appends an update to the journal. Should be done while holding the write lock of the container, so that the
+     * updates are in the same order as they were made and the container isn't saved in between.
+     *
+     * @param operation {@link #OP_ADD} or {@link #OP_REPLACE}.
+     * @param data      the values in JSON format, as they came in the update.
+     * @param force     true if the update should be forced to disk before this method returns.
+     * @throws IOException if the update could not be written.
+     */
+    public synchronized void append(String operation, JSON data, boolean force) throws IOException {
+        JSONObject entry = new JSONObject();
+        entry.put(KEY_STAMP, getStamp());
+        entry.put(KEY_OPERATION, operation);
+        entry.put(KEY_DATA, data);
+        StringBuilder line = new StringBuilder();
+        if (!endsWithNewline()) {
+            //Terminate what was left half written by a crash, so that it doesn't ruin this entry.
+            line.append(NEWLINE);
+        }
+        line.append(entry.toString()).append(NEWLINE);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(line.toString().getBytes(CHARSET));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Tells if the journal file is empty or ends with a complete line.
+     *
+     * @return true if so.
+     * @throws IOException if the file can't be read.
+     */
+    private boolean endsWithNewline() throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return true;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(raf.length() - 1);
+            return raf.read() == NEWLINE;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Tells if there are any updates in the journal.
+     *
+     * @return true if so.
+     */
+    public synchronized boolean isEmpty() {
+        return !file.exists() || file.length() == 0;
+    }
+
+    /**
+     * Removes all updates from the journal, when the container has been saved.
+     *
+     * @throws IOException if the file could not be deleted.
+     */
+    public synchronized void clear() throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Applies the updates in the journal to the values of a container, as they were when the container was saved.
+     * The updates are applied to a detached tree of their own, so that no lock of the real container is needed and
+     * no container is told that it has changed.
+     *
+     * @param values    the saved values, they are moved to the returned list.
+     * @param after     the stamp of the saved values, only updates with a higher {@link #getStamp() stamp} are
+     *                  applied.
+     * @param container the container that the values are for, used when parsing the JSON.
+     * @return the updated values, their parent needs to be set to the container. The values as they were if there
+     *         was nothing to apply.
+     * @throws IOException if the journal can't be read.
+     */
+    public synchronized List<MetadataValue> replay(Collection<MetadataValue> values, long after,
+                                                   MetadataContainer<MetadataValue> container) throws IOException {
+        List<JSONObject> entries = read();
+        TreeNodeMetadataValue scratch = null;
+        for (JSONObject entry : entries) {
+            if (entry.optLong(KEY_STAMP) <= after) {
+                continue;
+            }
+            if (scratch == null) {
+                scratch = new TreeNodeMetadataValue("replay");
+                scratch.addChildren(new ArrayList<MetadataValue>(values));
+            }
+            try {
+                List<MetadataValue> update = JsonUtils.toValues((JSON)entry.get(KEY_DATA), container);
+                if (OP_REPLACE.equals(entry.optString(KEY_OPERATION))) {
+                    MetadataTreeDiff.replace(scratch, update);
+                } else {
+                    scratch.addChildren(update);
+                }
+            } catch (JsonUtils.ParseException e) {
+                logger.log(Level.WARNING, "Skipping an update that can't be parsed in " + file, e);
+            }
+        }
+        if (scratch == null) {
+            return new ArrayList<MetadataValue>(values);
+        }
+        return new ArrayList<MetadataValue>(scratch.getChildren());
+    }
+
+    /**
+     * The highest stamp of the updates in the journal.
+     *
+     * @return the stamp, 0 if there are no updates.
+     * @throws IOException if the journal can't be read.
+     */
+    public synchronized long getLastStamp() throws IOException {
+        long stamp = 0;
+        for (JSONObject entry : read()) {
+            stamp = Math.max(stamp, entry.optLong(KEY_STAMP));
+        }
+        return stamp;
+    }
+
+    /**
+     * Reads the complete entries from the journal.
+     *
+     * @return the entries in the order they were appended.
+     * @throws IOException if the journal can't be read.
+     */
+    private List<JSONObject> read() throws IOException {
+        List<JSONObject> entries = new ArrayList<JSONObject>();
+        if (!file.exists()) {
+            return entries;
+        }
+        String content = FileUtils.readFileToString(file, CHARSET);
+        int start = 0;
+        int end = content.indexOf(NEWLINE);
+        //What comes after the last newline was cut short, the update was never completed.
+        while (end >= 0) {
+            String line = content.substring(start, end).trim();
+            if (line.length() > 0) {
+                try {
+                    entries.add((JSONObject)JSONSerializer.toJSON(line));
+                } catch (JSONException e) {
+                    logger.log(Level.WARNING, "Skipping a broken line in " + file, e);
+                } catch (ClassCastException e) {
+                    logger.log(Level.WARNING, "Skipping a broken line in " + file, e);
+                }
+            }
+            start = end + 1;
+            end = content.indexOf(NEWLINE, start);
+        }
+        return entries;
+    }
+}
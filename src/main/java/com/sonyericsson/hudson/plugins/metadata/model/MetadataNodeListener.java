@@ -0,0 +1,91 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.Constants;
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.slaves.ComputerListener;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes the {@link MetadataNodeProperty#getMetadataFile() metadata files} of nodes that have been removed. So that
+ * a new node that is later created with the same name doesn't get the metadata of the old one.
+ */
+@Extension
+public class MetadataNodeListener extends ComputerListener {
+
+    private static final Logger logger = Logger.getLogger(MetadataNodeListener.class.getName());
+
+    /**
+     * Called when nodes are added or removed, among other things.
+     */
+    @Override
+    public void onConfigurationChange() {
+        Set<String> names = new HashSet<String>();
+        for (Node node : Hudson.getInstance().getNodes()) {
+            names.add(node.getNodeName());
+        }
+        removeOrphans(new File(Hudson.getInstance().getRootDir(), Constants.NODES_DIR), names);
+    }
+
+    /**
+     * Removes the metadata files of the nodes that don't exist. The directory of a node is removed too if nothing
+     * else is left in it.
+     *
+     * @param nodesDir the directory with a directory per node.
+     * @param names    the names of the nodes that exist.
+     */
+    static void removeOrphans(File nodesDir, Collection<String> names) {
+        File[] dirs = nodesDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            if (!dir.isDirectory() || names.contains(dir.getName())) {
+                continue;
+            }
+            File[] files = {
+                new File(dir, Constants.NODE_METADATA_FILE),
+                new File(dir, Constants.METADATA_JOURNAL_FILE),
+            };
+            for (File file : files) {
+                if (file.exists() && !file.delete()) {
+                    logger.log(Level.WARNING, "Failed to delete the metadata of the removed node {0}", dir.getName());
+                }
+            }
+            String[] left = dir.list();
+            if (left != null && left.length == 0 && !dir.delete()) {
+                logger.log(Level.FINE, "Failed to delete {0}", dir);
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@
  */
 package com.sonyericsson.hudson.plugins.metadata.model;
 
+import com.sonyericsson.hudson.plugins.metadata.Constants;
 import com.sonyericsson.hudson.plugins.metadata.Messages;
 import com.sonyericsson.hudson.plugins.metadata.MetadataUpdateListener;
 import com.sonyericsson.hudson.plugins.metadata.model.values.AbstractMetadataValue;
@@ -32,6 +33,7 @@ import com.sonyericsson.hudson.plugins.metadata.model.values.ParentUtil;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import hudson.Extension;
 import hudson.ExtensionList;
+import hudson.XmlFile;
 import hudson.model.Computer;
 import hudson.model.Hudson;
 import hudson.model.Node;
@@ -46,26 +48,55 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import static com.sonyericsson.hudson.plugins.metadata.Constants.REQUEST_ATTR_METADATA_CONTAINER;
 
 /**
  * Stores metadata about Nodes.
  *
+ * Updates to the metadata are saved to a {@link #getMetadataFile() file of the node's own} instead of to the global
+ * config.xml. The property is still saved to config.xml together with the node, so whichever of the two that was
+ * saved last is the one that is used, see {@link #getModified()}. The file is removed together with the node, see
+ * {@link MetadataNodeListener}.
+ *
  * @author Robert Sandell &lt;robert.sandell@sonyericsson.com&gt;
  */
 @edu.umd.cs.findbugs.annotations.SuppressWarnings(
         value = "UG_SYNC_SET_UNSYNC_GET",
-        justification = "It is synchronized")
+        justification = "It is guarded by the read/write lock")
 @XStreamAlias("node-metadata")
 @ExportedBean
 public class MetadataNodeProperty extends NodeProperty<Node> implements MetadataContainer<MetadataValue> {
 
-    private List<MetadataValue> values;
+    private static final Logger logger = Logger.getLogger(MetadataNodeProperty.class.getName());
+
+    /**
+     * Copy on write, see {@link #getChildren()}.
+     */
+    private volatile List<MetadataValue> values;
+    /**
+     * When the values were last changed, see {@link #getModified()}.
+     */
+    private volatile long modified;
+    /**
+     * If the metadata file has been checked for newer values, see {@link #loadMetadataFile()}.
+     */
+    private transient volatile boolean loaded;
+    private transient volatile ReadWriteLock lock;
+    private transient volatile MetadataPathIndex<MetadataValue> pathIndex;
+    private transient volatile long version;
 
     /**
      * Standard Constructor.
@@ -77,17 +108,20 @@ public class MetadataNodeProperty extends NodeProperty<Node> implements Metadata
         if (values == null) {
             values = new LinkedList<MetadataValue>();
         }
-        this.values = values;
-        for (MetadataValue value : this.values) {
+        for (MetadataValue value : values) {
             value.setParent(this);
         }
+        this.values = new ArrayList<MetadataValue>(values);
+        this.loaded = true;
+        markChanged();
     }
 
     /**
      * Default constructor. <strong>Do not use this unless you are a serializer.</strong>
      */
     public MetadataNodeProperty() {
-        this.values = new LinkedList<MetadataValue>();
+        this.values = new ArrayList<MetadataValue>();
+        this.loaded = true;
     }
 
     /**
@@ -97,42 +131,239 @@ public class MetadataNodeProperty extends NodeProperty<Node> implements Metadata
      *
      * @see #getChildren()
      */
-    public synchronized List<MetadataValue> getValues() {
-        if (values == null) {
-            values = new LinkedList<MetadataValue>();
+    public List<MetadataValue> getValues() {
+        if (!loaded) {
+            loadMetadataFile();
         }
-        return values;
+        List<MetadataValue> current = values;
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(current);
+    }
+
+    /**
+     * A stamp of when the values were last changed. It is stored both in config.xml and in the
+     * {@link #getMetadataFile() metadata file}, and it is always increased on a change. So the one with the highest
+     * stamp has the latest values.
+     *
+     * @return the stamp, the current time in milliseconds or more.
+     */
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * The file that the metadata of the node is saved to.
+     *
+     * @return the file, or null if the property isn't attached to a node yet.
+     */
+    public XmlFile getMetadataFile() {
+        if (node == null) {
+            return null;
+        }
+        File root = Hudson.getInstance().getRootDir();
+        File file;
+        if (node instanceof Hudson) {
+            file = new File(root, Constants.MASTER_METADATA_FILE);
+        } else {
+            File dir = new File(new File(root, Constants.NODES_DIR), node.getNodeName());
+            file = new File(dir, Constants.NODE_METADATA_FILE);
+        }
+        return new XmlFile(Hudson.XSTREAM, file);
+    }
+
+    /**
+     * Takes the values from the {@link #getMetadataFile() metadata file} if they are newer than the ones loaded
+     * from config.xml, and replays the updates in the {@link #getJournal() journal} that came after them. Does
+     * nothing until the property is attached to its node.
+     */
+    private synchronized void loadMetadataFile() {
+        if (loaded || node == null) {
+            return;
+        }
+        XmlFile file = getMetadataFile();
+        if (file.exists()) {
+            try {
+                MetadataNodeProperty stored = (MetadataNodeProperty)file.read();
+                if (stored.modified > modified && stored.values != null) {
+                    for (MetadataValue value : stored.values) {
+                        value.setParent(this);
+                    }
+                    values = stored.values;
+                    modified = stored.modified;
+                    pathIndex = null;
+                    version = MetadataGeneration.next();
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to load the metadata of " + node.getNodeName(), e);
+            }
+        }
+        MetadataJournal journal = getJournal();
+        if (!journal.isEmpty()) {
+            try {
+                List<MetadataValue> current = values;
+                if (current == null) {
+                    current = new ArrayList<MetadataValue>();
+                }
+                List<MetadataValue> replayed = journal.replay(current, modified, this);
+                for (MetadataValue value : replayed) {
+                    value.setParent(this);
+                }
+                values = replayed;
+                modified = Math.max(modified, journal.getLastStamp());
+                pathIndex = null;
+                version = MetadataGeneration.next();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to replay the metadata journal of " + node.getNodeName(), e);
+            }
+        }
+        loaded = true;
     }
 
     @Override
-    public synchronized MetadataValue getChild(String name) {
-        return ParentUtil.getChildValue(values, name);
+    public MetadataJournal getJournal() {
+        if (node == null) {
+            return null;
+        }
+        File root = Hudson.getInstance().getRootDir();
+        File file;
+        if (node instanceof Hudson) {
+            file = new File(root, Constants.MASTER_METADATA_JOURNAL_FILE);
+        } else {
+            File dir = new File(new File(root, Constants.NODES_DIR), node.getNodeName());
+            file = new File(dir, Constants.METADATA_JOURNAL_FILE);
+        }
+        //The values can be saved with config.xml as well, so skip what is already in there.
+        return new MetadataJournal(file) {
+            @Override
+            protected long getStamp() {
+                return modified;
+            }
+        };
+    }
+
+    @Override
+    public ReadWriteLock getLock() {
+        if (lock == null) {
+            synchronized (this) {
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock();
+                }
+            }
+        }
+        return lock;
+    }
+
+    @Override
+    public MetadataPathIndex<MetadataValue> getPathIndex() {
+        MetadataPathIndex<MetadataValue> index = pathIndex;
+        if (index == null) {
+            //Built and published under the read lock so that no writer can invalidate it in between.
+            Lock readLock = getLock().readLock();
+            readLock.lock();
+            try {
+                index = MetadataPathIndex.build(getValues());
+                pathIndex = index;
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public MetadataPathIndex<MetadataValue> getBuiltPathIndex() {
+        return pathIndex;
+    }
+
+    @Override
+    public void markChanged() {
+        pathIndex = null;
+        version = MetadataGeneration.next();
+        modified = Math.max(System.currentTimeMillis(), modified + 1);
+    }
+
+    @Override
+    @Exported
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public MetadataValue getChild(String name) {
+        return ParentUtil.getChildValue(getValues(), name);
     }
 
     @Override
-    public synchronized int indexOf(String name) {
-        return ParentUtil.getChildIndex(values, name);
+    public int indexOf(String name) {
+        return ParentUtil.getChildIndex(getValues(), name);
     }
 
     @Override
-    public synchronized MetadataValue setChild(int index, MetadataValue value) {
-        value.setParent(this);
-        return values.set(index, value);
+    public MetadataValue setChild(int index, MetadataValue value) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            value.setParent(this);
+            MetadataValue old = copy.set(index, value);
+            values = copy;
+            markChanged();
+            return old;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> addChild(MetadataValue value) {
-        return ParentUtil.addChildValue(this, values, value);
+    public Collection<MetadataValue> addChild(MetadataValue value) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            Collection<MetadataValue> leftOvers = ParentUtil.addChildValue(this, copy, value);
+            values = copy;
+            markChanged();
+            return leftOvers;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> addChildren(Collection<MetadataValue> children) {
-        return ParentUtil.addChildValues(this, this.values, children);
+    public Collection<MetadataValue> addChildren(Collection<MetadataValue> children) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            Collection<MetadataValue> leftOvers = ParentUtil.addChildValues(this, copy, children);
+            values = copy;
+            markChanged();
+            return leftOvers;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public MetadataValue removeChild(String name) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValues());
+            MetadataValue removed = ParentUtil.removeChildValue(copy, name);
+            values = copy;
+            markChanged();
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
     @Exported
-    public synchronized Collection<MetadataValue> getChildren() {
+    public Collection<MetadataValue> getChildren() {
         return getValues();
     }
 
@@ -157,8 +388,14 @@ public class MetadataNodeProperty extends NodeProperty<Node> implements Metadata
     }
 
     @Override
-    public synchronized JSON toJson() {
-        return ParentUtil.toJson(this);
+    public JSON toJson() {
+        Lock readLock = getLock().readLock();
+        readLock.lock();
+        try {
+            return ParentUtil.toJson(this);
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
@@ -185,7 +422,23 @@ public class MetadataNodeProperty extends NodeProperty<Node> implements Metadata
 
     @Override
     public void save() throws IOException {
-        Hudson.getInstance().save();
+        XmlFile file = getMetadataFile();
+        if (!loaded) {
+            loadMetadataFile();
+        }
+        //Keep writers out while the tree is serialized, readers can still go on.
+        Lock readLock = getLock().readLock();
+        readLock.lock();
+        try {
+            if (file != null) {
+                file.write(this);
+                getJournal().clear();
+            } else {
+                Hudson.getInstance().save();
+            }
+        } finally {
+            readLock.unlock();
+        }
     }
 
     @Override
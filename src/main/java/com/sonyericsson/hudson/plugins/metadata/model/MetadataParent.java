@@ -64,12 +64,21 @@ public interface MetadataParent<T extends Metadata> {
     Collection<T> addChildren(Collection<T> children);
 
     /**
-     * The children of this parent.
+     * The children of this parent. Value parents return an unmodifiable snapshot that is safe to iterate while others
+     * are modifying the tree, changes are made through the other methods of this interface.
      *
      * @return the children.
      */
     Collection<T> getChildren();
 
+    /**
+     * Removes the child with the given name, if there is one. Comparison is case insensitive.
+     *
+     * @param name the name of the child to remove.
+     * @return the removed child or null if there was none.
+     */
+    T removeChild(String name);
+
     /**
      * The child names of this parent.
      *
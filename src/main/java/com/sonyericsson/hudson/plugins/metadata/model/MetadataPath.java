@@ -0,0 +1,155 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.Constants;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The path to a value inside a {@link MetadataContainer}, i.e. the names from the container down to the value. Just
+ * like the lookups in {@link com.sonyericsson.hudson.plugins.metadata.model.values.ParentUtil} the names are
+ * compared case insensitively.
+ */
+public final class MetadataPath {
+
+    private final String[] names;
+    private final String[] keys;
+    private final int hash;
+
+    /**
+     * Standard Constructor.
+     *
+     * @param names the names from the root down to the value.
+     */
+    private MetadataPath(String[] names) {
+        this.names = names;
+        this.keys = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            keys[i] = names[i].toLowerCase(Locale.ENGLISH);
+        }
+        this.hash = Arrays.hashCode(keys);
+    }
+
+    /**
+     * Creates a path from its names.
+     *
+     * @param names the names from the root down to the value.
+     * @return the path.
+     */
+    public static MetadataPath of(String... names) {
+        return new MetadataPath(names.clone());
+    }
+
+    /**
+     * Creates a path from its display form, as in a search query, e.g. <code>job-info.last-saved.time</code>.
+     *
+     * @param path the names separated by {@link Constants#DISPLAY_NAME_SEPARATOR}.
+     * @return the path.
+     */
+    public static MetadataPath parse(String path) {
+        return new MetadataPath(path.split("\\" + Constants.DISPLAY_NAME_SEPARATOR));
+    }
+
+    /**
+     * The path of a child to the value at this path.
+     *
+     * @param name the name of the child.
+     * @return the child's path.
+     */
+    public MetadataPath child(String name) {
+        String[] childNames = Arrays.copyOf(names, names.length + 1);
+        childNames[names.length] = name;
+        return new MetadataPath(childNames);
+    }
+
+    /**
+     * The path of the parent of the value at this path.
+     *
+     * @return the parent's path, or null if the value is directly in the container.
+     */
+    public MetadataPath getParent() {
+        if (names.length <= 1) {
+            return null;
+        }
+        return new MetadataPath(Arrays.copyOf(names, names.length - 1));
+    }
+
+    /**
+     * The name of the value at this path, the last of the names.
+     *
+     * @return the name.
+     */
+    public String getName() {
+        return names[names.length - 1];
+    }
+
+    /**
+     * The names from the root down to the value.
+     *
+     * @return the names.
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * The number of names in the path.
+     *
+     * @return the depth, 1 for a value directly in the container.
+     */
+    public int getDepth() {
+        return names.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        MetadataPath other = (MetadataPath)obj;
+        return hash == other.hash && Arrays.equals(keys, other.keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                str.append(Constants.DISPLAY_NAME_SEPARATOR);
+            }
+            str.append(names[i]);
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A flat view of all the values in a container, keyed on their {@link MetadataPath}. The view is immutable, the
+ * containers build it lazily and throw it away on the next change, see {@link MetadataContainer#getPathIndex()}.
+ *
+ * @param <T> the type of metadata.
+ */
+public final class MetadataPathIndex<T extends Metadata> {
+
+    private final Map<MetadataPath, T> values;
+    private final List<T> leaves;
+
+    /**
+     * Standard Constructor.
+     *
+     * @param values every value in tree order.
+     * @param leaves the leaves in tree order.
+     */
+    private MetadataPathIndex(Map<MetadataPath, T> values, List<T> leaves) {
+        this.values = Collections.unmodifiableMap(values);
+        this.leaves = Collections.unmodifiableList(leaves);
+    }
+
+    /**
+     * Builds the index of a tree.
+     *
+     * @param children the children of the root of the tree.
+     * @param <T>      the type of metadata.
+     * @return the index.
+     */
+    public static <T extends Metadata> MetadataPathIndex<T> build(Collection<T> children) {
+        Map<MetadataPath, T> values = new LinkedHashMap<MetadataPath, T>();
+        List<T> leaves = new ArrayList<T>();
+        for (T child : children) {
+            add(MetadataPath.of(child.getName()), child, values, leaves);
+        }
+        return new MetadataPathIndex<T>(values, leaves);
+    }
+
+    /**
+     * Adds the value and its children to the maps. This method is recursive.
+     *
+     * @param path   the path to the value.
+     * @param value  the value.
+     * @param values all values.
+     * @param leaves the leaves.
+     * @param <T>    the type of metadata.
+     */
+    private static <T extends Metadata> void add(MetadataPath path, T value, Map<MetadataPath, T> values,
+                                                 List<T> leaves) {
+        if (values.containsKey(path)) {
+            //Same as a lookup by name, the first one wins.
+            return;
+        }
+        values.put(path, value);
+        if (value instanceof MetadataParent) {
+            for (T child : ((MetadataParent<T>)value).getChildren()) {
+                add(path.child(child.getName()), child, values, leaves);
+            }
+        } else {
+            leaves.add(value);
+        }
+    }
+
+    /**
+     * The value at the path, tree nodes included.
+     *
+     * @param path the path.
+     * @return the value or null if there is none.
+     */
+    public T get(MetadataPath path) {
+        return values.get(path);
+    }
+
+    /**
+     * The leaf at the path.
+     *
+     * @param path the path.
+     * @return the leaf or null if there is none or if the path leads to a tree node.
+     */
+    public T getLeaf(MetadataPath path) {
+        T value = values.get(path);
+        if (value instanceof MetadataParent) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Every value in the tree, tree nodes included, keyed on its path.
+     *
+     * @return the map, unmodifiable.
+     */
+    public Map<MetadataPath, T> getValues() {
+        return values;
+    }
+
+    /**
+     * All the leaves in the tree.
+     *
+     * @return the leaves, unmodifiable.
+     */
+    public List<T> getLeaves() {
+        return leaves;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Saves containers behind the back of the ones updating them. A container that is updated many times in a row, like
+ * a node that reports its health every few seconds, is marked as dirty and written to disk once per interval on a
+ * background thread instead of on every update.
+ *
+ * The interval can be configured with the system property <code>MetadataSaver.class.getName() + ".interval"</code>,
+ * in milliseconds. An interval of zero or less makes every save synchronous.
+ *
+ * Containers with a {@link MetadataContainer#getJournal() journal} have every update on disk already, so they are
+ * compacted by the {@link #getCompactor() compactor} on a much longer interval, configured with the system property
+ * <code>MetadataSaver.class.getName() + ".compactInterval"</code>.
+ */
+public final class MetadataSaver {
+
+    /**
+     * The default number of milliseconds that a dirty container waits before it is saved.
+     */
+    public static final long DEFAULT_INTERVAL = 1000;
+    /**
+     * The default number of milliseconds that a journaled container waits before it is compacted.
+     */
+    public static final long DEFAULT_COMPACT_INTERVAL = 60000;
+    /**
+     * The number of seconds that a shutdown waits for a save that is already running.
+     */
+    public static final long SHUTDOWN_TIMEOUT = 30;
+
+    private static final Logger logger = Logger.getLogger(MetadataSaver.class.getName());
+
+    private static final MetadataSaver DEFAULT = new MetadataSaver(
+            Long.getLong(MetadataSaver.class.getName() + ".interval", DEFAULT_INTERVAL));
+    private static final MetadataSaver COMPACTOR = new MetadataSaver(
+            Long.getLong(MetadataSaver.class.getName() + ".compactInterval", DEFAULT_COMPACT_INTERVAL));
+
+    private final long interval;
+    private final Map<MetadataContainer, Boolean> dirty = new IdentityHashMap<MetadataContainer, Boolean>();
+    private final ScheduledThreadPoolExecutor executor;
+    private boolean shutdown = false;
+
+    /**
+     * Standard constructor.
+     *
+     * @param interval the number of milliseconds that a dirty container waits before it is saved.
+     */
+    public MetadataSaver(long interval) {
+        this.interval = interval;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Metadata saver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //The containers of the tasks that haven't started yet are still dirty, and saved by the shutdown.
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * The saver used by the plugin.
+     *
+     * @return the saver.
+     */
+    public static MetadataSaver getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * The saver that compacts the containers that have a {@link MetadataContainer#getJournal() journal}, by saving
+     * them and clearing the journal.
+     *
+     * @return the compactor.
+     */
+    public static MetadataSaver getCompactor() {
+        return COMPACTOR;
+    }
+
+    /**
+     * The number of milliseconds that a dirty container waits before it is saved.
+     *
+     * @return the interval.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Marks the container as dirty, it will be saved within the {@link #getInterval() interval}. Any number of
+     * changes to the container during that time will be saved together.
+     *
+     * @param container the container to save.
+     */
+    public void save(MetadataContainer container) {
+        synchronized (this) {
+            if (!shutdown && interval > 0) {
+                if (dirty.put(container, Boolean.TRUE) == null) {
+                    executor.schedule(new SaveTask(container), interval, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        try {
+            container.save();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save the metadata of " + container, e);
+        }
+    }
+
+    /**
+     * Saves the container, either right away or within the {@link #getInterval() interval}.
+     *
+     * @param container    the container to save.
+     * @param synchronous true if the container should be saved before this method returns, for callers that need
+     *                     to know that the data is on disk.
+     * @throws IOException if a synchronous save fails.
+     */
+    public void save(MetadataContainer container, boolean synchronous) throws IOException {
+        if (synchronous) {
+            synchronized (this) {
+                dirty.remove(container);
+            }
+            container.save();
+        } else {
+            save(container);
+        }
+    }
+
+    /**
+     * Tells if the container is waiting to be saved.
+     *
+     * @param container the container.
+     * @return true if so.
+     */
+    public synchronized boolean isDirty(MetadataContainer container) {
+        return dirty.containsKey(container);
+    }
+
+    /**
+     * Saves all dirty containers now.
+     */
+    public void flush() {
+        List<MetadataContainer> containers;
+        synchronized (this) {
+            containers = new ArrayList<MetadataContainer>(dirty.keySet());
+            dirty.clear();
+        }
+        for (MetadataContainer container : containers) {
+            try {
+                container.save();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to save the metadata of " + container, e);
+            }
+        }
+    }
+
+    /**
+     * Saves all dirty containers and stops the background thread. Waits for a save that the background thread has
+     * already started, for at most {@link #SHUTDOWN_TIMEOUT} seconds. Later saves are done synchronously.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                logger.warning("Timed out waiting for the metadata saver to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Saves a container when its interval has passed.
+     */
+    private final class SaveTask implements Runnable {
+        private final MetadataContainer container;
+
+        /**
+         * Standard constructor.
+         *
+         * @param container the container to save.
+         */
+        private SaveTask(MetadataContainer container) {
+            this.container = container;
+        }
+
+        @Override
+        public void run() {
+            synchronized (MetadataSaver.this) {
+                if (dirty.remove(container) == null) {
+                    //Already saved by a synchronous save or a flush.
+                    return;
+                }
+            }
+            try {
+                container.save();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to save the metadata of " + container + ", will try again", e);
+                synchronized (MetadataSaver.this) {
+                    //Dirty again, so that the next interval or the shutdown tries again.
+                    if (dirty.put(container, Boolean.TRUE) == null && !shutdown) {
+                        executor.schedule(new SaveTask(container), interval, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }
+    }
+}
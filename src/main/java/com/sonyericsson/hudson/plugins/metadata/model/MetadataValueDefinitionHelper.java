@@ -23,53 +23,113 @@
  */
 package com.sonyericsson.hudson.plugins.metadata.model;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import com.sonyericsson.hudson.plugins.metadata.model.definitions.MetadataDefinition;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
-import com.sonyericsson.hudson.plugins.metadata.model.values.ParentUtil;
-import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
 
 /**
  * Help class for definition and value comparison.
  *
+ * The values are partitioned in one pass over the tree, against a flat index of the paths to the leaf definitions.
+ * The values that match a definition are handed out by {@link #getValueForDefinition(Metadata)}, the rest are
+ * served by {@link #getValues()}. Neither view is a copy of the values, tree nodes that are only partly matched are
+ * represented by a {@link TreeNodeMetadataValue#withChildren(List) view} of the remaining children.
+ *
  * @author Tomas Westling &lt;tomas.westling@sonymobile.com&gt;
  */
 public class MetadataValueDefinitionHelper {
 
-    private Collection<MetadataValue> values;
+    private final Map<MetadataPath, MetadataValue> matched;
+    private final Collection<MetadataValue> values;
 
     /**
      * Standard constructor.
      * @param values the MetadataValues to use as a starting point.
+     * @param definitions the MetadataDefinitions to match the values against.
+     */
+    public MetadataValueDefinitionHelper(Collection<MetadataValue> values,
+                                         Collection<? extends MetadataDefinition> definitions) {
+        Set<MetadataPath> definitionPaths = new HashSet<MetadataPath>();
+        if (definitions != null) {
+            for (MetadataDefinition definition : definitions) {
+                indexDefinition(MetadataPath.of(definition.getName()), definition, definitionPaths);
+            }
+        }
+        this.matched = new HashMap<MetadataPath, MetadataValue>();
+        this.values = new ArrayList<MetadataValue>();
+        for (MetadataValue value : values) {
+            MetadataValue unmatched = partition(MetadataPath.of(value.getName()), value, definitionPaths);
+            if (unmatched != null) {
+                this.values.add(unmatched);
+            }
+        }
+    }
+
+    /**
+     * Adds the paths to the leaves of the definition to the index. This method is recursive.
+     *
+     * @param path       the path to the definition.
+     * @param definition the definition.
+     * @param paths      the index.
      */
-    public MetadataValueDefinitionHelper(Collection<MetadataValue> values) {
-        try {
-            this.values = cloneValues(values);
-        } catch (CloneNotSupportedException e) {
-            //if for some reason a clone can not be made, just use the original list of values.
-            this.values = values;
+    private static void indexDefinition(MetadataPath path, MetadataDefinition definition, Set<MetadataPath> paths) {
+        if (definition instanceof MetadataParent) {
+            for (MetadataDefinition child : ((MetadataParent<MetadataDefinition>)definition).getChildren()) {
+                indexDefinition(path.child(child.getName()), child, paths);
+            }
+        } else {
+            paths.add(path);
         }
     }
 
     /**
-     * Clones the MetadataValues.
-     * @param valuesToClone the MetadataValues to clone.
-     * @return a clone of the MetadataValues
-     * @throws CloneNotSupportedException if one of the MetadataValues could not be cloned.
+     * Sorts the value and its children into {@link #matched} or the returned unmatched view. This method is
+     * recursive.
+     *
+     * @param path            the path to the value.
+     * @param value           the value.
+     * @param definitionPaths the paths to the leaf definitions.
+     * @return what is left of the value when the matched leaves are taken out, null if nothing is left.
      */
-    private Collection<MetadataValue> cloneValues(Collection<MetadataValue> valuesToClone)
-            throws CloneNotSupportedException {
-        List<MetadataValue> list = new LinkedList<MetadataValue>();
-        for (MetadataValue value : valuesToClone) {
-            list.add(value.clone());
+    private MetadataValue partition(MetadataPath path, MetadataValue value, Set<MetadataPath> definitionPaths) {
+        if (value instanceof TreeNodeMetadataValue) {
+            TreeNodeMetadataValue node = (TreeNodeMetadataValue)value;
+            List<MetadataValue> children = node.getValue();
+            List<MetadataValue> remaining = new ArrayList<MetadataValue>(children.size());
+            boolean changed = false;
+            for (MetadataValue child : children) {
+                MetadataValue unmatched = partition(path.child(child.getName()), child, definitionPaths);
+                if (unmatched != null) {
+                    remaining.add(unmatched);
+                }
+                changed |= unmatched != child;
+            }
+            if (!changed) {
+                return node;
+            } else if (remaining.isEmpty()) {
+                return null;
+            } else {
+                return node.withChildren(remaining);
+            }
+        } else if (definitionPaths.contains(path) && !matched.containsKey(path)) {
+            //Same as a lookup by name, the first one wins.
+            matched.put(path, value);
+            return null;
+        } else {
+            return value;
         }
-        return list;
     }
 
     /**
-     * Standard getter for the values.
+     * The values that don't correspond to any definition.
      * @return the MetadataValues.
      */
     public Collection<MetadataValue> getValues() {
@@ -84,17 +144,10 @@ public class MetadataValueDefinitionHelper {
      * @return the user input value or default if not found.
      */
     public Object getValueForDefinition(Metadata definition) {
-        String[] fullPath = definition.getFullPath();
-        MetadataValue m = TreeStructureUtil.getLeaf(values, fullPath);
+        MetadataValue m = matched.get(MetadataPath.of(definition.getFullPath()));
         if (m == null) {
             return definition;
-        } else if (m.getParent() instanceof Metadata) {
-            MetadataParent parent = m.getParent();
-            ParentUtil.removeChild(parent, m);
-            ParentUtil.removeEmptyBranches(values);
-            return m;
         } else {
-            ParentUtil.removeChild(values, m);
             return m;
         }
     }
@@ -29,6 +29,7 @@ import com.sonyericsson.hudson.plugins.metadata.model.definitions.AbstractMetada
 import com.sonyericsson.hudson.plugins.metadata.model.definitions.MetadataDefinition;
 import com.sonyericsson.hudson.plugins.metadata.model.values.AbstractMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.DateMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.NumberArrayMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.NumberMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
@@ -91,6 +92,13 @@ public class PluginImpl extends Plugin {
         performXStreamRegistrations();
     }
 
+    @Override
+    public void stop() throws Exception {
+        MetadataSaver.getDefault().shutdown();
+        MetadataSaver.getCompactor().shutdown();
+        super.stop();
+    }
+
     /**
      * Process the XStream annotations.
      */
@@ -99,6 +107,7 @@ public class PluginImpl extends Plugin {
                 AbstractMetadataValue.class,
                 DateMetadataValue.class,
                 NumberMetadataValue.class,
+                NumberArrayMetadataValue.class,
                 StringMetadataValue.class,
                 TreeNodeMetadataValue.class,
                 MetadataJobProperty.class,
@@ -145,6 +145,11 @@ public class TreeNodeMetadataDefinition extends AbstractMetadataDefinition
         return ParentUtil.addChildValues(this, children, definitions);
     }
 
+    @Override
+    public synchronized MetadataDefinition removeChild(String name) {
+        return ParentUtil.removeChildValue(children, name);
+    }
+
     /**
      *  Getter for the children of this tree node, used by stapler to create the entire tree.
       * @return the children.
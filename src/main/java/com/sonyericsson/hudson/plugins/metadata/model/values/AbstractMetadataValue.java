@@ -30,6 +30,7 @@ import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataParent;
 import com.sonyericsson.hudson.plugins.metadata.util.ExtensionUtils;
+import com.sonyericsson.hudson.plugins.metadata.util.StringPool;
 import hudson.EnvVars;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
@@ -39,6 +40,7 @@ import org.kohsuke.stapler.export.ExportedBean;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 /**
  * A metadata value to be set in a job or node.
@@ -69,6 +71,18 @@ public abstract class AbstractMetadataValue implements
         this.exposedToEnvironment = exposedToEnvironment;
     }
 
+    /**
+     * Shares the loaded strings with other metadata through the {@link StringPool}. Subclasses with strings of their
+     * own should override this and pool them as well.
+     *
+     * @return this object.
+     */
+    protected Object readResolve() {
+        name = StringPool.getDefault().intern(name);
+        description = StringPool.getDefault().intern(description);
+        return this;
+    }
+
     /**
      * Constructor with name and description.
      *
@@ -105,8 +119,16 @@ public abstract class AbstractMetadataValue implements
      *
      * @param description the description.
      */
-    public synchronized void setDescription(String description) {
-        this.description = description;
+    public void setDescription(String description) {
+        Lock lock = ParentUtil.lockForWrite(parent);
+        try {
+            synchronized (this) {
+                this.description = description;
+            }
+            ParentUtil.markChanged(parent);
+        } finally {
+            ParentUtil.unlock(lock);
+        }
     }
 
     /**
@@ -123,8 +145,16 @@ public abstract class AbstractMetadataValue implements
      * Set the name of this value.
      * @param name the name.
      */
-    protected synchronized void setName(String name) {
-        this.name = name;
+    protected void setName(String name) {
+        Lock lock = ParentUtil.lockForWrite(parent);
+        try {
+            synchronized (this) {
+                this.name = name;
+            }
+            ParentUtil.markChanged(parent);
+        } finally {
+            ParentUtil.unlock(lock);
+        }
     }
 
     /**
@@ -174,8 +204,16 @@ public abstract class AbstractMetadataValue implements
      * @param generated true if generated.
      */
     @Override
-    public synchronized void setGenerated(boolean generated) {
-        this.generated = generated;
+    public void setGenerated(boolean generated) {
+        Lock lock = ParentUtil.lockForWrite(parent);
+        try {
+            synchronized (this) {
+                this.generated = generated;
+            }
+            ParentUtil.markChanged(parent);
+        } finally {
+            ParentUtil.unlock(lock);
+        }
     }
 
     /**
@@ -255,7 +293,13 @@ public abstract class AbstractMetadataValue implements
 
     @Override
     public void setExposeToEnvironment(boolean expose) {
-        exposedToEnvironment = expose;
+        Lock lock = ParentUtil.lockForWrite(parent);
+        try {
+            exposedToEnvironment = expose;
+            ParentUtil.markChanged(parent);
+        } finally {
+            ParentUtil.unlock(lock);
+        }
     }
 
     /**
@@ -0,0 +1,499 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model.values;
+
+import com.sonyericsson.hudson.plugins.metadata.util.StringPool;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary format for trees of metadata values, that is much faster to read than the XML from XStream.
+ *
+ * The format starts with {@link #MAGIC} and a version byte. Then comes a table of all the strings in the tree, names
+ * as well as descriptions and values, so that each string is only stored once. Last comes the tree itself where every
+ * value is a type tag, its strings as indexes into the table and its typed content. All numbers are variable length,
+ * so small numbers take little space.
+ *
+ * Only the value types of this plugin can be encoded, see {@link #canEncode(java.util.Collection)}.
+ */
+public final class BinaryMetadataCodec {
+
+    /**
+     * The first bytes of the format.
+     */
+    public static final byte[] MAGIC = {'M', 'D', 'B'};
+    /**
+     * The version of the format that is written.
+     */
+    public static final int VERSION = 1;
+
+    private static final int TYPE_TREE = 1;
+    private static final int TYPE_STRING = 2;
+    private static final int TYPE_NUMBER = 3;
+    private static final int TYPE_DATE = 4;
+    private static final int TYPE_NUMBER_ARRAY = 5;
+
+    private static final int FLAG_EXPOSED = 1;
+    private static final int FLAG_GENERATED = 2;
+    private static final int FLAG_CHECKED = 4;
+
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_MORE = 0x80;
+    private static final int LONG_BITS = 63;
+    private static final int MAX_VARLONG_SHIFT = 63;
+    private static final int BYTE_MASK = 0xFF;
+    private static final String CHARSET = "UTF-8";
+    /**
+     * The least number of bytes that a value takes: type, name, description and flags.
+     */
+    private static final int MIN_VALUE_BYTES = 4;
+
+    /**
+     * Utility constructor.
+     */
+    private BinaryMetadataCodec() {
+    }
+
+    /**
+     * Tells if all the values, and their children, are of types that this codec knows about.
+     *
+     * @param values the values.
+     * @return true if the values can be encoded.
+     */
+    public static boolean canEncode(Collection<MetadataValue> values) {
+        for (MetadataValue value : values) {
+            int type = typeOf(value);
+            if (type < 0) {
+                return false;
+            }
+            if (type == TYPE_TREE && !canEncode(((TreeNodeMetadataValue)value).getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The type tag of a value. Subclasses of the known types are not known, they could have state of their own.
+     *
+     * @param value the value.
+     * @return the tag or -1 if the type is not known.
+     */
+    private static int typeOf(MetadataValue value) {
+        Class type = value.getClass();
+        if (type == TreeNodeMetadataValue.class) {
+            return TYPE_TREE;
+        } else if (type == StringMetadataValue.class) {
+            return TYPE_STRING;
+        } else if (type == NumberMetadataValue.class) {
+            return TYPE_NUMBER;
+        } else if (type == DateMetadataValue.class) {
+            return TYPE_DATE;
+        } else if (type == NumberArrayMetadataValue.class) {
+            return TYPE_NUMBER_ARRAY;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Encodes the values.
+     *
+     * @param values the values.
+     * @param out    the stream to write to, it is not closed.
+     * @throws IOException if the values can't be encoded or the stream fails.
+     */
+    public static void write(Collection<MetadataValue> values, OutputStream out) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        DataOutputStream treeOut = new DataOutputStream(tree);
+        writeValues(values, strings, treeOut);
+        treeOut.flush();
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        writeVarInt(data, strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(CHARSET);
+            writeVarInt(data, bytes.length);
+            data.write(bytes);
+        }
+        tree.writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * Encodes the values to a file. The values are written to a temporary file that then replaces the file, so
+     * that the file never contains half the values.
+     *
+     * @param values the values.
+     * @param file   the file.
+     * @throws IOException if the values can't be encoded or the file can't be written.
+     */
+    public static void write(Collection<MetadataValue> values, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                write(values, out);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                //Some platforms can't rename onto an existing file.
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Failed to replace " + file);
+                }
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Failed to rename " + tmp + " to " + file);
+                }
+            }
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Encodes the values in tree order. This method is recursive.
+     *
+     * @param values  the values.
+     * @param strings the string table, added to as new strings are found.
+     * @param out     the stream.
+     * @throws IOException if a value can't be encoded or the stream fails.
+     */
+    private static void writeValues(Collection<MetadataValue> values, Map<String, Integer> strings,
+                                    DataOutputStream out) throws IOException {
+        writeVarInt(out, values.size());
+        for (MetadataValue value : values) {
+            int type = typeOf(value);
+            if (type < 0) {
+                throw new IOException("Unsupported metadata type " + value.getClass().getName());
+            }
+            out.writeByte(type);
+            writeString(out, value.getName(), strings);
+            writeString(out, value.getDescription(), strings);
+            int flags = 0;
+            if (value.isExposedToEnvironment()) {
+                flags |= FLAG_EXPOSED;
+            }
+            if (value.isGenerated()) {
+                flags |= FLAG_GENERATED;
+            }
+            if (type == TYPE_DATE && ((DateMetadataValue)value).isChecked()) {
+                flags |= FLAG_CHECKED;
+            }
+            out.writeByte(flags);
+            switch (type) {
+                case TYPE_TREE:
+                    writeValues(((TreeNodeMetadataValue)value).getValue(), strings, out);
+                    break;
+                case TYPE_STRING:
+                    writeString(out, ((StringMetadataValue)value).getValue(), strings);
+                    break;
+                case TYPE_NUMBER:
+                    writeVarLong(out, ((NumberMetadataValue)value).getValue());
+                    break;
+                case TYPE_DATE:
+                    DateMetadataValue date = (DateMetadataValue)value;
+                    writeVarLong(out, date.getTime());
+                    writeString(out, date.getZoneId(), strings);
+                    break;
+                default:
+                    long[] numbers = ((NumberArrayMetadataValue)value).getValue();
+                    writeVarInt(out, numbers.length);
+                    for (long number : numbers) {
+                        writeVarLong(out, number);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Decodes values written by {@link #write(java.util.Collection, java.io.OutputStream)}. The stream is read to
+     * its end first, so that every length in it can be checked against what is left before anything is allocated.
+     *
+     * @param in the stream to read from, it is not closed.
+     * @return the values, without a parent.
+     * @throws IOException if the stream is not in this format or fails.
+     */
+    public static List<MetadataValue> read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(IOUtils.toByteArray(in)));
+        for (byte b : MAGIC) {
+            if (data.readByte() != b) {
+                throw new IOException("Not a binary metadata stream");
+            }
+        }
+        int version = data.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("Unsupported binary metadata version " + version);
+        }
+        int count = readLength(data, 1);
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[readLength(data, 1)];
+            data.readFully(bytes);
+            //Pooled once per file rather than once per value.
+            strings[i] = StringPool.getDefault().intern(new String(bytes, CHARSET));
+        }
+        return readValues(data, strings);
+    }
+
+    /**
+     * Decodes values from a file written by {@link #write(java.util.Collection, java.io.File)}.
+     *
+     * @param file the file.
+     * @return the values, without a parent.
+     * @throws IOException if the file is not in this format or can't be read.
+     */
+    public static List<MetadataValue> read(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes values in tree order. This method is recursive.
+     *
+     * @param in      the stream.
+     * @param strings the string table.
+     * @return the values.
+     * @throws IOException if the stream is corrupt or fails.
+     */
+    private static List<MetadataValue> readValues(DataInputStream in, String[] strings) throws IOException {
+        int count = readLength(in, MIN_VALUE_BYTES);
+        List<MetadataValue> values = new ArrayList<MetadataValue>(count);
+        for (int i = 0; i < count; i++) {
+            int type = in.readUnsignedByte();
+            String name = readString(in, strings);
+            if (name == null) {
+                throw new IOException("A value without a name");
+            }
+            String description = readString(in, strings);
+            int flags = in.readUnsignedByte();
+            boolean exposed = (flags & FLAG_EXPOSED) != 0;
+            AbstractMetadataValue value;
+            switch (type) {
+                case TYPE_TREE:
+                    value = new TreeNodeMetadataValue(name, description, readValues(in, strings), exposed);
+                    break;
+                case TYPE_STRING:
+                    value = new StringMetadataValue(name, description, readString(in, strings), exposed);
+                    break;
+                case TYPE_NUMBER:
+                    value = new NumberMetadataValue(name, description, readVarLong(in), exposed);
+                    break;
+                case TYPE_DATE:
+                    long time = readVarLong(in);
+                    value = new DateMetadataValue(name, description, time, readString(in, strings),
+                            (flags & FLAG_CHECKED) != 0);
+                    value.setExposeToEnvironment(exposed);
+                    break;
+                case TYPE_NUMBER_ARRAY:
+                    long[] numbers = new long[readLength(in, 1)];
+                    for (int j = 0; j < numbers.length; j++) {
+                        numbers[j] = readVarLong(in);
+                    }
+                    value = new NumberArrayMetadataValue(name, description, numbers, exposed);
+                    break;
+                default:
+                    throw new IOException("Unknown metadata type " + type);
+            }
+            if ((flags & FLAG_GENERATED) != 0) {
+                value.setGenerated(true);
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * Writes a string as an index into the string table, 0 for null.
+     *
+     * @param out     the stream.
+     * @param string  the string.
+     * @param strings the string table.
+     * @throws IOException if the stream fails.
+     */
+    private static void writeString(DataOutputStream out, String string, Map<String, Integer> strings)
+            throws IOException {
+        if (string == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.put(string, index);
+        }
+        writeVarInt(out, index + 1);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(java.io.DataOutputStream, String, java.util.Map)}.
+     *
+     * @param in      the stream.
+     * @param strings the string table.
+     * @return the string or null.
+     * @throws IOException if the stream is corrupt or fails.
+     */
+    private static String readString(DataInputStream in, String[] strings) throws IOException {
+        int index = readVarInt(in);
+        if (index == 0) {
+            return null;
+        }
+        if (index > strings.length) {
+            throw new IOException("String index out of range: " + index);
+        }
+        return strings[index - 1];
+    }
+
+    /**
+     * Writes a non negative int in as few bytes as possible, seven bits per byte.
+     *
+     * @param out   the stream.
+     * @param value the value.
+     * @throws IOException if the stream fails.
+     */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~VARINT_MASK) != 0) {
+            out.writeByte((remaining & VARINT_MASK) | VARINT_MORE);
+            remaining >>>= VARINT_BITS;
+        }
+        out.writeByte(remaining);
+    }
+
+    /**
+     * Reads an int written by {@link #writeVarInt(java.io.DataOutputStream, int)}.
+     *
+     * @param in the stream.
+     * @return the value.
+     * @throws IOException if the stream is corrupt or fails.
+     */
+    private static int readVarInt(DataInputStream in) throws IOException {
+        long value = readVarLong(in, false);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Length out of range: " + value);
+        }
+        return (int)value;
+    }
+
+    /**
+     * Reads the length of something that is to be allocated, and checks that what is left of the stream can hold it.
+     * So that a corrupt length fails with an exception instead of running out of memory.
+     *
+     * @param in        the stream, with {@link DataInputStream#available()} telling exactly how much that is left.
+     * @param bytesEach the least number of bytes that each item takes.
+     * @return the length.
+     * @throws IOException if the length doesn't fit in what is left of the stream.
+     */
+    private static int readLength(DataInputStream in, int bytesEach) throws IOException {
+        int length = readVarInt(in);
+        if (length > in.available() / bytesEach) {
+            throw new IOException("Length out of range: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Writes a long zig-zag encoded, so that numbers close to zero take few bytes whatever their sign.
+     *
+     * @param out   the stream.
+     * @param value the value.
+     * @throws IOException if the stream fails.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long remaining = (value << 1) ^ (value >> LONG_BITS);
+        while ((remaining & ~VARINT_MASK) != 0) {
+            out.writeByte((int)(remaining & VARINT_MASK) | VARINT_MORE);
+            remaining >>>= VARINT_BITS;
+        }
+        out.writeByte((int)remaining);
+    }
+
+    /**
+     * Reads a long written by {@link #writeVarLong(java.io.DataOutputStream, long)}.
+     *
+     * @param in the stream.
+     * @return the value.
+     * @throws IOException if the stream is corrupt or fails.
+     */
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigZag = readVarLong(in, true);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    /**
+     * Reads the seven bit groups of a variable length number.
+     *
+     * @param in      the stream.
+     * @param allBits if all 64 bits may be used, otherwise a number that doesn't fit in an int is an error.
+     * @return the raw value.
+     * @throws IOException if the stream is corrupt or fails.
+     */
+    private static long readVarLong(DataInputStream in, boolean allBits) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readByte() & BYTE_MASK;
+            value |= (long)(b & VARINT_MASK) << shift;
+            if ((b & VARINT_MORE) == 0) {
+                return value;
+            }
+            shift += VARINT_BITS;
+            if (shift > MAX_VARLONG_SHIFT || (!allBits && shift > Integer.SIZE)) {
+                throw new IOException("Malformed variable length number");
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import com.sonyericsson.hudson.plugins.metadata.Messages;
 import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
 import com.sonyericsson.hudson.plugins.metadata.model.TimeDetails;
+import com.sonyericsson.hudson.plugins.metadata.util.StringPool;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import hudson.Extension;
 import hudson.model.Descriptor;
@@ -43,6 +44,7 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
+import java.util.TimeZone;
 
 import static com.sonyericsson.hudson.plugins.metadata.Constants.DEFAULT_MONTH_ADJUSTMENT;
 import static com.sonyericsson.hudson.plugins.metadata.Constants.DEFAULT_TIME_DETAILS;
@@ -65,7 +67,19 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * Constant for hashcode.
      */
     private static final int HASH_CONST = 93;
+    /**
+     * The value as it was stored by older versions, read from old XML and converted in {@link #readResolve()}.
+     */
+    @Deprecated
     private Calendar value;
+    /**
+     * Milliseconds since the epoch.
+     */
+    private long time;
+    /**
+     * The ID of the time zone, null for the default time zone of the JVM.
+     */
+    private String zone;
     private boolean checked = false;
 
     /**
@@ -74,7 +88,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @return the default year.
      */
     public int getYear() {
-        return value.get(Calendar.YEAR);
+        return getValue().get(Calendar.YEAR);
     }
 
     /**
@@ -83,7 +97,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @return the default month of the year.
      */
     public int getMonth() {
-        return value.get(Calendar.MONTH) + DEFAULT_MONTH_ADJUSTMENT;
+        return getValue().get(Calendar.MONTH) + DEFAULT_MONTH_ADJUSTMENT;
     }
 
     /**
@@ -92,7 +106,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @return the default day of the month.
      */
     public int getDay() {
-        return value.get(Calendar.DAY_OF_MONTH);
+        return getValue().get(Calendar.DAY_OF_MONTH);
     }
 
     /**
@@ -101,7 +115,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @return the default hour of the day..
      */
     public int getHour() {
-        return value.get(Calendar.HOUR_OF_DAY);
+        return getValue().get(Calendar.HOUR_OF_DAY);
     }
 
     /**
@@ -110,7 +124,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @return the default minute of the hour.
      */
     public int getMinute() {
-        return value.get(Calendar.MINUTE);
+        return getValue().get(Calendar.MINUTE);
     }
 
     /**
@@ -119,7 +133,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @return the default second.
      */
     public int getSecond() {
-        return value.get(Calendar.SECOND);
+        return getValue().get(Calendar.SECOND);
     }
 
     /**
@@ -147,17 +161,16 @@ public class DateMetadataValue extends AbstractMetadataValue {
     public DateMetadataValue(String name, String description, int year,
                              int month, int day, TimeDetails details, boolean exposedToEnvironment) {
         super(name, description, exposedToEnvironment);
-        value = Calendar.getInstance();
-
-
+        Calendar calendar = Calendar.getInstance();
         if (details != null) {
-            value.set(year, month - DEFAULT_MONTH_ADJUSTMENT, day,
+            calendar.set(year, month - DEFAULT_MONTH_ADJUSTMENT, day,
                     details.getHour(), details.getMinute(), details.getSecond());
             checked = details.isChecked();
         } else {
-            value.set(year, month - DEFAULT_MONTH_ADJUSTMENT, day,
+            calendar.set(year, month - DEFAULT_MONTH_ADJUSTMENT, day,
                     DEFAULT_TIME_DETAILS, DEFAULT_TIME_DETAILS, DEFAULT_TIME_DETAILS);
         }
+        setValue(calendar);
     }
 
 
@@ -201,9 +214,75 @@ public class DateMetadataValue extends AbstractMetadataValue {
         setValue(value);
     }
 
+    /**
+     * Standard Constructor.
+     *
+     * @param name        the name.
+     * @param description the description.
+     * @param time        the value in milliseconds since the epoch.
+     * @param timeZone    the time zone of the value, or null for the default time zone.
+     */
+    public DateMetadataValue(String name, String description, long time, TimeZone timeZone) {
+        this(name, description, time, timeZone != null ? timeZone.getID() : null, false);
+    }
+
+    /**
+     * Constructor for {@link BinaryMetadataCodec}, that stores the time zone by ID.
+     *
+     * @param name        the name.
+     * @param description the description.
+     * @param time        the value in milliseconds since the epoch.
+     * @param zone        the ID of the time zone, or null for the default time zone.
+     * @param checked     if the time details should be visible.
+     */
+    DateMetadataValue(String name, String description, long time, String zone, boolean checked) {
+        super(name, description);
+        this.time = time;
+        this.zone = zone;
+        this.checked = checked;
+    }
+
+    /**
+     * The value as a new Calendar in the time zone of the value. Modifying the returned calendar does not change the
+     * value.
+     *
+     * @return the value.
+     */
     @Override
-    public Calendar getValue() {
-        return value;
+    public synchronized Calendar getValue() {
+        Calendar calendar = Calendar.getInstance(getTimeZone());
+        calendar.setTimeInMillis(time);
+        return calendar;
+    }
+
+    /**
+     * The value in milliseconds since the epoch.
+     *
+     * @return the time.
+     */
+    public synchronized long getTime() {
+        return time;
+    }
+
+    /**
+     * The ID of the time zone as it is stored, for {@link BinaryMetadataCodec}.
+     *
+     * @return the ID, or null for the default time zone.
+     */
+    synchronized String getZoneId() {
+        return zone;
+    }
+
+    /**
+     * The time zone of the value.
+     *
+     * @return the time zone.
+     */
+    public synchronized TimeZone getTimeZone() {
+        if (zone == null) {
+            return TimeZone.getDefault();
+        }
+        return TimeZone.getTimeZone(zone);
     }
 
     @Override
@@ -212,37 +291,41 @@ public class DateMetadataValue extends AbstractMetadataValue {
     }
 
     /**
-     * Sets the internal Calendar value based on the provided Date.
+     * Sets the internal time and time zone based on the provided Calendar.
      *
      * @param dateValue the value.
      */
     private synchronized void setValue(Calendar dateValue) {
-        this.value = dateValue;
+        this.time = dateValue.getTimeInMillis();
+        this.zone = dateValue.getTimeZone().getID();
     }
 
     /**
-     * Sets the internal Calendar value.
+     * Converts the Calendar stored by older versions into time and time zone.
      *
-     * @param calendar the value.
+     * @return this object.
      */
-    private synchronized void setCalendar(Calendar calendar) {
-        this.value = calendar;
+    @Override
+    protected Object readResolve() {
+        if (value != null) {
+            setValue(value);
+            value = null;
+        }
+        zone = StringPool.getDefault().intern(zone);
+        return super.readResolve();
     }
 
     @Override
     public synchronized JSONObject toJson() {
         JSONObject obj = toAbstractJson();
         //TODO Serialize timezone info?
-        obj.put(VALUE, value.getTimeInMillis());
+        obj.put(VALUE, time);
         return obj;
     }
 
     @Override
     public DateMetadataValue clone() throws CloneNotSupportedException {
-        DateMetadataValue date = (DateMetadataValue)super.clone();
-        Calendar calendar = (Calendar)value.clone();
-        date.setCalendar(calendar);
-        return date;
+        return (DateMetadataValue)super.clone();
     }
 
     @Override
@@ -254,20 +337,13 @@ public class DateMetadataValue extends AbstractMetadataValue {
             return false;
         }
         final DateMetadataValue other = (DateMetadataValue)obj;
-        if (this.value != other.value && (this.value == null || !this.value.equals(other.value))) {
-            return false;
-        }
-        return true;
+        return getTime() == other.getTime() && getTimeZone().getID().equals(other.getTimeZone().getID());
     }
 
     @Override
     public int hashCode() {
-        int hash = 0;
-        if (this.value != null) {
-            hash = this.value.hashCode();
-        }
-        hash = HASH_CONST + hash;
-        return hash;
+        long millis = getTime();
+        return HASH_CONST + (int)(millis ^ (millis >>> Integer.SIZE));
     }
 
     //CS IGNORE EmptyBlock FOR NEXT 50 LINES. REASON: Trying different inputs and moving on if Exceptions are found.
@@ -276,11 +352,11 @@ public class DateMetadataValue extends AbstractMetadataValue {
         if (userValue == null) {
             return -1;
         }
-        Date date = value.getTime();
         //if it is being compared to a DateMetadataValue, just compare the values.
         if (userValue instanceof DateMetadataValue) {
             DateMetadataValue dateMetadataValue = (DateMetadataValue)userValue;
-            Date userDate = dateMetadataValue.getValue().getTime();
+            Date date = new Date(getTime());
+            Date userDate = new Date(dateMetadataValue.getTime());
             return date.compareTo(userDate);
         }
         try {
@@ -323,7 +399,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @throws ParseException if userValue can't be parsed
      */
     private int compareAsStandardDate(String userValue) throws ParseException {
-        Calendar clonedValue = (Calendar)value.clone();
+        Calendar clonedValue = getValue();
         DateFormat dateInstance = new SimpleDateFormat("yyyy-MM-dd");
         Date parse = dateInstance.parse(userValue);
         clonedValue.set(Calendar.HOUR_OF_DAY, 0);
@@ -341,7 +417,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @throws ParseException if userValue can't be parsed
      */
     private int compareAsStandardDateTime(String userValue) throws ParseException {
-        Calendar clonedValue = (Calendar)value.clone();
+        Calendar clonedValue = getValue();
         DateFormat dateInstance = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss");
         Date parse = dateInstance.parse(userValue);
         clonedValue.set(Calendar.MILLISECOND, 0);
@@ -357,7 +433,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @throws ParseException if userValue can't be parsed
      */
     private int compareAsLocalDate(Locale locale, String userValue) throws ParseException {
-        Calendar clonedValue = (Calendar)value.clone();
+        Calendar clonedValue = getValue();
         DateFormat dateInstance = DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
         Date parse = dateInstance.parse(userValue);
         clonedValue.set(Calendar.HOUR_OF_DAY, 0);
@@ -375,7 +451,7 @@ public class DateMetadataValue extends AbstractMetadataValue {
      * @throws ParseException if userValue can't be parsed
      */
     private int compareAsLocalDateTime(Locale locale, String userValue) throws ParseException {
-        Calendar clonedValue = (Calendar)value.clone();
+        Calendar clonedValue = getValue();
         DateFormat dateInstance = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, locale);
         Date parse = dateInstance.parse(userValue);
         clonedValue.set(Calendar.MILLISECOND, 0);
@@ -405,11 +481,9 @@ public class DateMetadataValue extends AbstractMetadataValue {
             checkRequiredJsonAttribute(json, VALUE);
 
             //TODO Deserialize timezone info?
-            Calendar cal = Calendar.getInstance();
-            cal.setTimeInMillis(json.getLong(VALUE));
             DateMetadataValue value = new DateMetadataValue(
                     json.getString(NAME), json.optString(DESCRIPTION),
-                    cal);
+                    json.getLong(VALUE), null);
             if (json.has(EXPOSED)) {
                 value.setExposeToEnvironment(json.getBoolean(EXPOSED));
             }
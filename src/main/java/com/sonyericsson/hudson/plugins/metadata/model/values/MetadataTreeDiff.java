@@ -0,0 +1,437 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model.values;
+
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataParent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * The leaf level difference between two metadata trees. A diff is computed with
+ * {@link #compute(java.util.Collection, java.util.Collection, boolean)} and can then be applied as a patch with
+ * {@link #apply(com.sonyericsson.hudson.plugins.metadata.model.MetadataParent)}, touching only the leaves that
+ * actually differ instead of rebuilding entire subtrees.
+ *
+ * Leaves are compared strictly, i.e. on type, value, description, generated and exposed; tree nodes without any
+ * children are treated as leaves.
+ */
+public final class MetadataTreeDiff {
+
+    /**
+     * The kind of change an {@link Entry} describes.
+     */
+    public static enum Type {
+        /**
+         * The leaf exists only in the new tree.
+         */
+        ADDED,
+        /**
+         * The leaf exists only in the old tree.
+         */
+        REMOVED,
+        /**
+         * The leaf exists in both trees but is not the same.
+         */
+        CHANGED
+    }
+
+    /**
+     * One changed leaf.
+     */
+    public static final class Entry {
+        private final Type type;
+        private final String[] path;
+        private final MetadataValue oldValue;
+        private final MetadataValue newValue;
+
+        /**
+         * Standard Constructor.
+         *
+         * @param type     the kind of change.
+         * @param path     the path to the leaf, relative to the diffed parent.
+         * @param oldValue the value in the old tree, null if added.
+         * @param newValue the value in the new tree, null if removed.
+         */
+        public Entry(Type type, String[] path, MetadataValue oldValue, MetadataValue newValue) {
+            this.type = type;
+            this.path = path;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        /**
+         * The kind of change.
+         *
+         * @return the type.
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * The path to the leaf, relative to the diffed parent.
+         *
+         * @return the path.
+         */
+        public String[] getPath() {
+            return path.clone();
+        }
+
+        /**
+         * The value in the old tree.
+         *
+         * @return the old value or null if the leaf was added.
+         */
+        public MetadataValue getOldValue() {
+            return oldValue;
+        }
+
+        /**
+         * The value in the new tree.
+         *
+         * @return the new value or null if the leaf was removed.
+         */
+        public MetadataValue getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + Arrays.toString(path);
+        }
+    }
+
+    private final List<Entry> entries;
+
+    /**
+     * Standard Constructor.
+     *
+     * @param entries the changed leaves.
+     */
+    public MetadataTreeDiff(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+    }
+
+    /**
+     * Computes the difference between the children of a parent and a set of new values. The new values are expected
+     * to be detached from any container, they will be adopted into the tree when the diff is applied.
+     *
+     * @param current  the current children.
+     * @param values   the new values.
+     * @param removals if leaves that are only present in current should be removed, in replace mode they are kept.
+     * @return the diff.
+     */
+    public static MetadataTreeDiff compute(Collection<MetadataValue> current, Collection<MetadataValue> values,
+                                           boolean removals) {
+        List<Entry> entries = new LinkedList<Entry>();
+        compute(new LinkedList<String>(), current, values, removals, entries);
+        return new MetadataTreeDiff(entries);
+    }
+
+    /**
+     * Replaces the values in the parent in the same way as
+     * {@link ParentUtil#replaceChildren(com.sonyericsson.hudson.plugins.metadata.model.MetadataParent, java.util.List)}
+     * but leaves everything that is already equal untouched.
+     *
+     * @param parent the parent to replace in.
+     * @param values the new values.
+     * @return what was changed, empty if nothing was.
+     */
+    public static MetadataTreeDiff replace(MetadataParent<MetadataValue> parent, Collection<MetadataValue> values) {
+        Lock lock = ParentUtil.lockForWrite(parent);
+        try {
+            MetadataTreeDiff diff = compute(parent.getChildren(), values, false);
+            diff.apply(parent);
+            return diff;
+        } finally {
+            ParentUtil.unlock(lock);
+        }
+    }
+
+    /**
+     * The changed leaves.
+     *
+     * @return the entries.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * The changed leaves of a certain type.
+     *
+     * @param type the type.
+     * @return the entries of that type.
+     */
+    public List<Entry> getEntries(Type type) {
+        List<Entry> list = new LinkedList<Entry>();
+        for (Entry entry : entries) {
+            if (entry.getType() == type) {
+                list.add(entry);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * If the two trees were the same.
+     *
+     * @return true if there is nothing to apply.
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Applies this diff to the parent that it was computed against. Missing tree nodes on the way to an added leaf
+     * are created with the same attributes as in the new tree. Tree nodes left empty by a removal are kept, it is up to
+     * the caller to decide if they should go as well.
+     *
+     * @param parent the parent.
+     */
+    public void apply(MetadataParent<MetadataValue> parent) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Lock lock = ParentUtil.lockForWrite(parent);
+        try {
+            for (Entry entry : entries) {
+                switch (entry.getType()) {
+                    case ADDED:
+                        MetadataParent<MetadataValue> node = getOrCreateNode(parent, entry);
+                        node.addChild(entry.getNewValue());
+                        break;
+                    case CHANGED:
+                        ParentUtil.replaceChild(getNode(parent, entry.path), entry.getNewValue());
+                        break;
+                    case REMOVED:
+                        getNode(parent, entry.path).removeChild(entry.path[entry.path.length - 1]);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown change type " + entry.getType());
+                }
+            }
+        } finally {
+            ParentUtil.unlock(lock);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return entries.toString();
+    }
+
+    /**
+     * Compares one level of the trees and recurses into the tree nodes present in both.
+     *
+     * @param path     the path to this level.
+     * @param current  the current children on this level.
+     * @param values   the new children on this level.
+     * @param removals if children only present in current should be reported.
+     * @param entries  the list to add the result to.
+     */
+    private static void compute(LinkedList<String> path, Collection<MetadataValue> current,
+                                Collection<MetadataValue> values, boolean removals, List<Entry> entries) {
+        for (MetadataValue value : values) {
+            MetadataValue old = ParentUtil.getChildValue(current, value.getName());
+            path.addLast(value.getName());
+            if (old == null) {
+                addLeaves(path, value, Type.ADDED, entries);
+            } else if (isBranch(old) && isBranch(value)) {
+                compute(path, ((MetadataParent<MetadataValue>)old).getChildren(),
+                        ((MetadataParent<MetadataValue>)value).getChildren(), removals, entries);
+            } else if (isBranch(old) || isBranch(value) || !isSameLeaf(old, value)) {
+                entries.add(new Entry(Type.CHANGED, toArray(path), old, value));
+            }
+            path.removeLast();
+        }
+        if (removals) {
+            for (MetadataValue old : current) {
+                if (ParentUtil.getChildValue(values, old.getName()) == null) {
+                    path.addLast(old.getName());
+                    addLeaves(path, old, Type.REMOVED, entries);
+                    path.removeLast();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an entry for every leaf in the value.
+     *
+     * @param path    the path to the value.
+     * @param value   the value.
+     * @param type    {@link Type#ADDED} or {@link Type#REMOVED}.
+     * @param entries the list to add to.
+     */
+    private static void addLeaves(LinkedList<String> path, MetadataValue value, Type type, List<Entry> entries) {
+        if (isBranch(value)) {
+            for (MetadataValue child : ((MetadataParent<MetadataValue>)value).getChildren()) {
+                path.addLast(child.getName());
+                addLeaves(path, child, type, entries);
+                path.removeLast();
+            }
+        } else if (type == Type.ADDED) {
+            entries.add(new Entry(type, toArray(path), null, value));
+        } else {
+            entries.add(new Entry(type, toArray(path), value, null));
+        }
+    }
+
+    /**
+     * If the value is a tree node with children that should be diffed one by one.
+     *
+     * @param value the value.
+     * @return true if so.
+     */
+    private static boolean isBranch(MetadataValue value) {
+        if (value instanceof MetadataParent) {
+            MetadataParent parent = (MetadataParent)value;
+            return !parent.requiresReplacement() && !parent.getChildren().isEmpty();
+        }
+        return false;
+    }
+
+    /**
+     * Strict comparison of two leaves, unlike {@link Object#equals(Object)} of the values that only looks at the value.
+     *
+     * @param old   the old leaf.
+     * @param value the new leaf.
+     * @return true if they are the same.
+     */
+    private static boolean isSameLeaf(MetadataValue old, MetadataValue value) {
+        if (old.getClass() != value.getClass()) {
+            return false;
+        }
+        if (old.isGenerated() != value.isGenerated()
+                || old.isExposedToEnvironment() != value.isExposedToEnvironment()) {
+            return false;
+        }
+        if (!isEqual(old.getDescription(), value.getDescription())) {
+            return false;
+        }
+        if (old instanceof DateMetadataValue
+                && ((DateMetadataValue)old).isChecked() != ((DateMetadataValue)value).isChecked()) {
+            return false;
+        }
+        if (old instanceof MetadataParent) {
+            //Empty tree nodes or nodes requiring replacement.
+            return old.equals(value);
+        }
+        return isEqual(old.getValue(), value.getValue());
+    }
+
+    /**
+     * Null safe equals.
+     *
+     * @param a the one.
+     * @param b the other.
+     * @return true if equal.
+     */
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a instanceof long[] && b instanceof long[]) {
+            //The value of a NumberArrayMetadataValue.
+            return Arrays.equals((long[])a, (long[])b);
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Copies the path.
+     *
+     * @param path the path.
+     * @return a new array.
+     */
+    private static String[] toArray(List<String> path) {
+        return path.toArray(new String[path.size()]);
+    }
+
+    /**
+     * Finds the parent node of the entry's leaf.
+     *
+     * @param root the parent the diff was computed against.
+     * @param path the path to the leaf.
+     * @return the node.
+     */
+    private static MetadataParent<MetadataValue> getNode(MetadataParent<MetadataValue> root, String[] path) {
+        MetadataParent<MetadataValue> node = root;
+        for (int i = 0; i < path.length - 1; i++) {
+            MetadataValue child = node.getChild(path[i]);
+            if (!(child instanceof MetadataParent)) {
+                throw new IllegalStateException("The tree has changed since the diff was computed at "
+                        + Arrays.toString(path));
+            }
+            node = (MetadataParent<MetadataValue>)child;
+        }
+        return node;
+    }
+
+    /**
+     * Finds the parent node of an added leaf, creating the missing tree nodes along the way.
+     *
+     * @param root  the parent the diff was computed against.
+     * @param entry the added entry.
+     * @return the node.
+     */
+    private static MetadataParent<MetadataValue> getOrCreateNode(MetadataParent<MetadataValue> root, Entry entry) {
+        String[] path = entry.path;
+        //The ancestors of the new leaf in the new tree, nearest first.
+        List<MetadataValue> ancestors = new ArrayList<MetadataValue>();
+        MetadataParent<MetadataValue> ancestor = entry.getNewValue().getParent();
+        for (int i = 0; i < path.length - 1 && ancestor instanceof MetadataValue; i++) {
+            ancestors.add((MetadataValue)ancestor);
+            ancestor = ((MetadataValue)ancestor).getParent();
+        }
+        MetadataParent<MetadataValue> node = root;
+        for (int i = 0; i < path.length - 1; i++) {
+            MetadataValue child = node.getChild(path[i]);
+            if (child == null) {
+                TreeNodeMetadataValue created = new TreeNodeMetadataValue(path[i]);
+                int index = path.length - 2 - i;
+                if (index < ancestors.size()) {
+                    MetadataValue template = ancestors.get(index);
+                    created.setDescription(template.getDescription());
+                    created.setGenerated(template.isGenerated());
+                    created.setExposeToEnvironment(template.isExposedToEnvironment());
+                }
+                node.addChild(created);
+                child = created;
+            } else if (!(child instanceof MetadataParent)) {
+                throw new IllegalStateException("The tree has changed since the diff was computed at "
+                        + Arrays.toString(path));
+            }
+            node = (MetadataParent<MetadataValue>)child;
+        }
+        return node;
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model.values;
+
+import com.sonyericsson.hudson.plugins.metadata.Messages;
+import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamConverter;
+import com.thoughtworks.xstream.converters.SingleValueConverter;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Descriptor;
+import hudson.model.Hudson;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.Arrays;
+
+import static com.sonyericsson.hudson.plugins.metadata.Constants.SERIALIZATION_ALIAS_NUMBER_ARRAY;
+import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.DESCRIPTION;
+import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.EXPOSED;
+import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.GENERATED;
+import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.NAME;
+import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.VALUE;
+import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.checkRequiredJsonAttribute;
+
+/**
+ * Meta data containing a series of non-decimal numbers, like the durations of the parts of a build. The numbers are
+ * kept in a primitive array instead of one {@link NumberMetadataValue} per number. Queries can compare the aggregates
+ * of the series as if they were children of the value, e.g. <code>durations.max &gt; 1000</code>.
+ *
+ * @see #getAggregate(String)
+ */
+@XStreamAlias(SERIALIZATION_ALIAS_NUMBER_ARRAY)
+public class NumberArrayMetadataValue extends AbstractMetadataValue {
+    /**
+     * Name of the aggregate for the smallest number.
+     */
+    public static final String AGGREGATE_MIN = "min";
+    /**
+     * Name of the aggregate for the largest number.
+     */
+    public static final String AGGREGATE_MAX = "max";
+    /**
+     * Name of the aggregate for the sum of the numbers.
+     */
+    public static final String AGGREGATE_SUM = "sum";
+    /**
+     * Name of the aggregate for the number of numbers.
+     */
+    public static final String AGGREGATE_COUNT = "count";
+    /**
+     * The separator between the numbers in the string form.
+     */
+    public static final String SEPARATOR = ",";
+    /**
+     * Constant for hashcode.
+     */
+    private static final int HASH_CONST = 37;
+
+    @XStreamConverter(LongArrayConverter.class)
+    private long[] value;
+
+    /**
+     * Standard DataBound Constructor.
+     *
+     * @param name        the name.
+     * @param description the description.
+     * @param value       the numbers separated by {@link #SEPARATOR}.
+     * @param exposedToEnvironment if this value should be exposed to the build as an
+     *                      environment variable.
+     * @throws NumberFormatException if one of the numbers can't be parsed.
+     */
+    @DataBoundConstructor
+    public NumberArrayMetadataValue(String name, String description, String value, boolean exposedToEnvironment) {
+        this(name, description, parse(value), exposedToEnvironment);
+    }
+
+    /**
+     * Standard Constructor.
+     *
+     * @param name        the name.
+     * @param description the description.
+     * @param value       the numbers, the array is copied.
+     * @param exposedToEnvironment if this value should be exposed to the build as an
+     *                      environment variable.
+     */
+    public NumberArrayMetadataValue(String name, String description, long[] value, boolean exposedToEnvironment) {
+        super(name, description, exposedToEnvironment);
+        setValue(value);
+    }
+
+    /**
+     * Standard Constructor.
+     *
+     * @param name        the name.
+     * @param description the description.
+     * @param value       the numbers, the array is copied.
+     */
+    public NumberArrayMetadataValue(String name, String description, long[] value) {
+        this(name, description, value, false);
+    }
+
+    /**
+     * Standard Constructor.
+     *
+     * @param name  the name.
+     * @param value the numbers, the array is copied.
+     */
+    public NumberArrayMetadataValue(String name, long[] value) {
+        this(name, null, value, false);
+    }
+
+    /**
+     * Sets the numbers.
+     *
+     * @param numbers the numbers, copied.
+     */
+    private void setValue(long[] numbers) {
+        if (numbers == null) {
+            this.value = new long[0];
+        } else {
+            this.value = numbers.clone();
+        }
+    }
+
+    /**
+     * A copy of the numbers.
+     *
+     * @return the numbers.
+     */
+    @Override
+    public long[] getValue() {
+        return value.clone();
+    }
+
+    /**
+     * The numbers separated by {@link #SEPARATOR}, for display and configuration.
+     *
+     * @return the numbers as a string.
+     */
+    public String getValueString() {
+        return format(value);
+    }
+
+    /**
+     * The number of numbers.
+     *
+     * @return the size.
+     */
+    public int size() {
+        return value.length;
+    }
+
+    /**
+     * The number at the given index.
+     *
+     * @param index the index.
+     * @return the number.
+     */
+    public long get(int index) {
+        return value[index];
+    }
+
+    /**
+     * The smallest number.
+     *
+     * @return the min, or null if there are no numbers.
+     */
+    public Long getMin() {
+        if (value.length == 0) {
+            return null;
+        }
+        long min = value[0];
+        for (long number : value) {
+            min = Math.min(min, number);
+        }
+        return min;
+    }
+
+    /**
+     * The largest number.
+     *
+     * @return the max, or null if there are no numbers.
+     */
+    public Long getMax() {
+        if (value.length == 0) {
+            return null;
+        }
+        long max = value[0];
+        for (long number : value) {
+            max = Math.max(max, number);
+        }
+        return max;
+    }
+
+    /**
+     * The sum of the numbers.
+     *
+     * @return the sum, 0 if there are no numbers.
+     */
+    public long getSum() {
+        long sum = 0;
+        for (long number : value) {
+            sum += number;
+        }
+        return sum;
+    }
+
+    /**
+     * An aggregate of the numbers as a number value, so that it can be compared like any other value.
+     * The aggregates are {@link #AGGREGATE_MIN}, {@link #AGGREGATE_MAX}, {@link #AGGREGATE_SUM} and
+     * {@link #AGGREGATE_COUNT}.
+     *
+     * @param aggregate the name of the aggregate, ignoring case.
+     * @return the aggregate, or null if there is no such aggregate or no numbers to compute it from.
+     */
+    public NumberMetadataValue getAggregate(String aggregate) {
+        Long result = null;
+        if (AGGREGATE_MIN.equalsIgnoreCase(aggregate)) {
+            result = getMin();
+        } else if (AGGREGATE_MAX.equalsIgnoreCase(aggregate)) {
+            result = getMax();
+        } else if (AGGREGATE_SUM.equalsIgnoreCase(aggregate)) {
+            result = getSum();
+        } else if (AGGREGATE_COUNT.equalsIgnoreCase(aggregate)) {
+            result = (long)value.length;
+        }
+        if (result == null) {
+            return null;
+        }
+        return new NumberMetadataValue(aggregate, result);
+    }
+
+    @Override
+    public void addEnvironmentVariables(EnvVars variables, boolean exposeAll) {
+        if (isExposedToEnvironment() || exposeAll) {
+            variables.put(getEnvironmentName(), getValueString());
+        }
+    }
+
+    @Override
+    public JSONObject toJson() {
+        JSONObject obj = toAbstractJson();
+        JSONArray array = new JSONArray();
+        for (long number : value) {
+            array.add(number);
+        }
+        obj.put(VALUE, array);
+        return obj;
+    }
+
+    @Override
+    public Descriptor<AbstractMetadataValue> getDescriptor() {
+        return Hudson.getInstance().getDescriptorByType(NumberArrayMetaDataValueDescriptor.class);
+    }
+
+    @Override
+    public NumberArrayMetadataValue clone() throws CloneNotSupportedException {
+        NumberArrayMetadataValue clone = (NumberArrayMetadataValue)super.clone();
+        clone.setValue(value);
+        return clone;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final NumberArrayMetadataValue other = (NumberArrayMetadataValue)obj;
+        return Arrays.equals(this.value, other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return HASH_CONST + Arrays.hashCode(value);
+    }
+
+    /**
+     * Compares the numbers one by one, the first difference decides, and if one series is the start of the other the
+     * shorter is smaller. A string is compared as numbers separated by {@link #SEPARATOR}.
+     *
+     * @param userValue the value to compare with.
+     * @return 0 if equal, -1 if less than userValue or if it can't be compared, 1 if larger.
+     */
+    @Override
+    public int compareTo(Object userValue) {
+        if (userValue == null) {
+            return -1;
+        }
+        long[] other;
+        if (userValue instanceof NumberArrayMetadataValue) {
+            other = ((NumberArrayMetadataValue)userValue).value;
+        } else {
+            try {
+                other = parse(userValue.toString());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        for (int i = 0; i < value.length && i < other.length; i++) {
+            if (value[i] != other[i]) {
+                if (value[i] < other[i]) {
+                    return -1;
+                } else {
+                    return 1;
+                }
+            }
+        }
+        if (value.length == other.length) {
+            return 0;
+        } else if (value.length < other.length) {
+            return -1;
+        } else {
+            return 1;
+        }
+    }
+
+    /**
+     * Parses numbers separated by {@link #SEPARATOR}, whitespace around the numbers is ignored.
+     *
+     * @param numbers the string.
+     * @return the numbers, empty for an empty or null string.
+     * @throws NumberFormatException if one of the numbers can't be parsed.
+     */
+    public static long[] parse(String numbers) {
+        if (numbers == null || numbers.trim().length() == 0) {
+            return new long[0];
+        }
+        String[] parts = numbers.split(SEPARATOR);
+        long[] parsed = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parsed[i] = Long.parseLong(parts[i].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Formats numbers separated by {@link #SEPARATOR}.
+     *
+     * @param numbers the numbers.
+     * @return the string.
+     */
+    public static String format(long[] numbers) {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < numbers.length; i++) {
+            if (i > 0) {
+                str.append(SEPARATOR);
+            }
+            str.append(numbers[i]);
+        }
+        return str.toString();
+    }
+
+    /**
+     * Writes the numbers to XML as one string of numbers separated by {@link #SEPARATOR} instead of one element per
+     * number.
+     */
+    public static class LongArrayConverter implements SingleValueConverter {
+
+        @Override
+        public String toString(Object obj) {
+            return format((long[])obj);
+        }
+
+        @Override
+        public Object fromString(String str) {
+            return parse(str);
+        }
+
+        @Override
+        public boolean canConvert(Class type) {
+            return long[].class.equals(type);
+        }
+    }
+
+    /**
+     * Descriptor for {@link NumberArrayMetadataValue}s.
+     */
+    @Extension
+    public static class NumberArrayMetaDataValueDescriptor extends AbstractMetaDataValueDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return Messages.NumberArrayMetadataValue_DisplayName();
+        }
+
+        @Override
+        public String getJsonType() {
+            return SERIALIZATION_ALIAS_NUMBER_ARRAY;
+        }
+
+        @Override
+        public MetadataValue fromJson(JSONObject json, MetadataContainer<MetadataValue> container)
+                throws JsonUtils.ParseException {
+            checkRequiredJsonAttribute(json, NAME);
+            checkRequiredJsonAttribute(json, VALUE);
+
+            long[] numbers;
+            try {
+                Object jsonValue = json.get(VALUE);
+                if (jsonValue instanceof JSONArray) {
+                    JSONArray array = (JSONArray)jsonValue;
+                    numbers = new long[array.size()];
+                    for (int i = 0; i < numbers.length; i++) {
+                        numbers[i] = array.getLong(i);
+                    }
+                } else {
+                    numbers = parse(jsonValue.toString());
+                }
+            } catch (NumberFormatException e) {
+                throw new JsonUtils.ParseException("Bad number array: " + json.get(VALUE), e, json);
+            } catch (JSONException e) {
+                throw new JsonUtils.ParseException("Bad number array: " + json.get(VALUE), e, json);
+            }
+            NumberArrayMetadataValue value = new NumberArrayMetadataValue(
+                    json.getString(NAME), json.optString(DESCRIPTION), numbers);
+            if (json.has(EXPOSED)) {
+                value.setExposeToEnvironment(json.getBoolean(EXPOSED));
+            }
+            if (json.has(GENERATED)) {
+                value.setGenerated(json.getBoolean(GENERATED));
+            } else {
+                //TODO Should we do this?
+                value.setGenerated(true);
+            }
+            return value;
+        }
+    }
+}
@@ -37,6 +37,8 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * Utility class for handling merge operation inside
@@ -46,6 +48,8 @@ import java.util.List;
  */
 public final class ParentUtil {
 
+    private static final int HASH_MULTIPLIER = 31;
+
     /**
      * Utility constructor.
      */
@@ -53,6 +57,63 @@ public final class ParentUtil {
 
     }
 
+    /**
+     * The lock guarding the tree that the parent is part of, if it has one.
+     *
+     * @param parent the parent.
+     * @return the lock or null if the parent is not guarded by any lock.
+     * @see com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer#getLock()
+     */
+    public static ReadWriteLock getLock(MetadataParent parent) {
+        if (parent instanceof MetadataContainer) {
+            return ((MetadataContainer)parent).getLock();
+        } else if (parent instanceof TreeNodeMetadataValue) {
+            return ((TreeNodeMetadataValue)parent).getLock();
+        }
+        return null;
+    }
+
+    /**
+     * Tells the container that the parent is part of, if any, that something in its tree has changed.
+     *
+     * @param parent the parent that has changed, can be null.
+     * @see com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer#markChanged()
+     */
+    public static void markChanged(MetadataParent parent) {
+        if (parent instanceof MetadataContainer) {
+            ((MetadataContainer)parent).markChanged();
+        } else if (parent instanceof TreeNodeMetadataValue) {
+            ((TreeNodeMetadataValue)parent).markChanged();
+        }
+    }
+
+    /**
+     * Acquires the write lock of the tree that the parent is part of, if it has one.
+     *
+     * @param parent the parent.
+     * @return the acquired lock, to be unlocked by the caller, or null if there was no lock to acquire.
+     */
+    static Lock lockForWrite(MetadataParent parent) {
+        ReadWriteLock lock = getLock(parent);
+        if (lock == null) {
+            return null;
+        }
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        return writeLock;
+    }
+
+    /**
+     * Releases a lock acquired by {@link #lockForWrite(MetadataParent)}.
+     *
+     * @param lock the lock, can be null.
+     */
+    static void unlock(Lock lock) {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
     /**
      * Removes a child from a parent.
      *
@@ -63,11 +124,7 @@ public final class ParentUtil {
         if (child == null) {
             throw new IllegalArgumentException("The child value is null");
         }
-        Metadata metadata = parent.getChild(child.getName());
-        if (metadata != null) {
-            parent.getChildren().remove(metadata);
-            metadata.setParent(null);
-        }
+        parent.removeChild(child.getName());
     }
 
     /**
@@ -93,12 +150,24 @@ public final class ParentUtil {
      * @param parent the parent to start with.
      */
     public static void removeEmptyBranches(MetadataParent parent) {
-        Collection<Metadata> children = parent.getChildren();
-        removeEmptyBranches(children);
+        Lock lock = lockForWrite(parent);
+        try {
+            Collection<Metadata> children = parent.getChildren();
+            for (Metadata m : new ArrayList<Metadata>(children)) {
+                if (m instanceof MetadataParent) {
+                    removeEmptyBranches((MetadataParent)m);
+                    if (((MetadataParent)m).getChildren().isEmpty()) {
+                        parent.removeChild(m.getName());
+                    }
+                }
+            }
+        } finally {
+            unlock(lock);
+        }
     }
 
     /**
-     * Removes all tree nodes without children from the collection.
+     * Removes all tree nodes without children from the collection. The collection itself must be modifiable.
      *
      * @param collection the collection to remove empty trees from.
      * @param <T> the Metadata type.
@@ -127,30 +196,34 @@ public final class ParentUtil {
         if (value == null) {
             throw new IllegalArgumentException("The child value is null");
         }
-        MetadataValue metadata = parent.getChild(value.getName());
-        if (metadata != null) {
-            if (metadata instanceof MetadataParent && value instanceof MetadataParent) {
-                MetadataParent<MetadataValue> myParent = (MetadataParent<MetadataValue>)metadata;
-                MetadataParent<MetadataValue> valueParent = (MetadataParent<MetadataValue>)value;
-                if (myParent.requiresReplacement() || valueParent.requiresReplacement()) {
+        Lock lock = lockForWrite(parent);
+        try {
+            MetadataValue metadata = parent.getChild(value.getName());
+            if (metadata != null) {
+                if (metadata instanceof MetadataParent && value instanceof MetadataParent) {
+                    MetadataParent<MetadataValue> myParent = (MetadataParent<MetadataValue>)metadata;
+                    MetadataParent<MetadataValue> valueParent = (MetadataParent<MetadataValue>)value;
+                    if (myParent.requiresReplacement() || valueParent.requiresReplacement()) {
+                        parent.setChild(parent.indexOf(metadata.getName()), value);
+                        value.setParent(parent);
+                        value.replacementOf(metadata);
+                        metadata.setParent(null); //It should be prepared to be gc'ed
+                    } else {
+                        replaceChildren(myParent, new ArrayList<MetadataValue>(valueParent.getChildren()));
+                    }
+                } else {
+                    //it exists! then it is time to replace it.
                     parent.setChild(parent.indexOf(metadata.getName()), value);
                     value.setParent(parent);
                     value.replacementOf(metadata);
                     metadata.setParent(null); //It should be prepared to be gc'ed
-                } else {
-                    replaceChildren(myParent, new ArrayList<MetadataValue>(valueParent.getChildren()));
                 }
             } else {
-                //it exists! then it is time to replace it.
-                parent.setChild(parent.indexOf(metadata.getName()), value);
-                value.setParent(parent);
-                value.replacementOf(metadata);
-                metadata.setParent(null); //It should be prepared to be gc'ed
+                //didn't exist lets just add it.
+                parent.addChild(value);
             }
-        } else {
-            //didn't exist lets just add it.
-            parent.getChildren().add(value);
-            value.setParent(parent);
+        } finally {
+            unlock(lock);
         }
     }
 
@@ -161,8 +234,13 @@ public final class ParentUtil {
      * @param children the children to add/replace
      */
     public static void replaceChildren(MetadataParent<MetadataValue> parent, List<MetadataValue> children) {
-        for (MetadataValue child : children) {
-            replaceChild(parent, child);
+        Lock lock = lockForWrite(parent);
+        try {
+            for (MetadataValue child : children) {
+                replaceChild(parent, child);
+            }
+        } finally {
+            unlock(lock);
         }
     }
 
@@ -183,7 +261,7 @@ public final class ParentUtil {
         if (value == null) {
             throw new IllegalArgumentException("The added child value is null");
         }
-        T my = parent.getChild(value.getName());
+        T my = getChildValue(children, value.getName());
         if (my != null) {
             Collection<T> returnList = null;
             if (my instanceof MetadataParent && value instanceof MetadataParent) {
@@ -265,6 +343,25 @@ public final class ParentUtil {
         return null;
     }
 
+    /**
+     * Utility method for {@link com.sonyericsson.hudson.plugins.metadata.model.MetadataParent#removeChild(String)}.
+     * Removes the child with the given name from the list and detaches it from its parent.
+     *
+     * @param children the direct list of the parents children.
+     * @param name     the name to search.
+     * @param <T>      the type for values, name and the return value.
+     * @return the removed child or null if there was none.
+     */
+    public static <T extends Metadata> T removeChildValue(List<T> children, String name) {
+        int index = getChildIndex(children, name);
+        if (index < 0) {
+            return null;
+        }
+        T removed = children.remove(index);
+        removed.setParent(null);
+        return removed;
+    }
+
     /**
      * Utility method for {@link com.sonyericsson.hudson.plugins.metadata.model.MetadataParent#indexOf(String)} }.
      *
@@ -312,4 +409,22 @@ public final class ParentUtil {
         }
         return childNames;
     }
+
+    /**
+     * A hash code of the string that is consistent with {@link String#equalsIgnoreCase(String)}, for names and
+     * values that are compared ignoring case.
+     *
+     * @param string the string.
+     * @return the hash code, 0 for null.
+     */
+    static int hashCodeIgnoreCase(String string) {
+        if (string == null) {
+            return 0;
+        }
+        int hash = 0;
+        for (int i = 0; i < string.length(); i++) {
+            hash = HASH_MULTIPLIER * hash + Character.toLowerCase(Character.toUpperCase(string.charAt(i)));
+        }
+        return hash;
+    }
 }
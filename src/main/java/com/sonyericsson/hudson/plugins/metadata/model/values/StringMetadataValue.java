@@ -27,6 +27,7 @@ package com.sonyericsson.hudson.plugins.metadata.model.values;
 import com.sonyericsson.hudson.plugins.metadata.Messages;
 import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.util.StringPool;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import hudson.Extension;
 import hudson.model.Descriptor;
@@ -94,6 +95,12 @@ public class StringMetadataValue extends AbstractMetadataValue {
         super(name);
         this.value = value;
     }
+
+    @Override
+    protected Object readResolve() {
+        value = StringPool.getDefault().intern(value);
+        return super.readResolve();
+    }
     @Override
     public String getValue() {
         return value;
@@ -115,7 +122,7 @@ public class StringMetadataValue extends AbstractMetadataValue {
     public int hashCode() {
         int hash = 0;
         if (this.value != null) {
-            hash = this.value.hashCode();
+            hash = ParentUtil.hashCodeIgnoreCase(this.value);
         }
         hash = HASH_CONST + hash;
         return hash;
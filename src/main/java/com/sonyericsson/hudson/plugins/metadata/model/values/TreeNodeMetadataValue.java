@@ -39,9 +39,14 @@ import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.sonyericsson.hudson.plugins.metadata.Constants.REQUEST_ATTR_METADATA_CONTAINER;
 import static com.sonyericsson.hudson.plugins.metadata.Constants.SERIALIZATION_ALIAS_TREE;
@@ -59,7 +64,7 @@ import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.checkRequ
  */
 @edu.umd.cs.findbugs.annotations.SuppressWarnings(
         value = "UG_SYNC_SET_UNSYNC_GET",
-        justification = "It is synchronized")
+        justification = "It is guarded by the read/write lock")
 @XStreamAlias(SERIALIZATION_ALIAS_TREE)
 public class TreeNodeMetadataValue extends AbstractMetadataValue implements MetadataParent<MetadataValue>, Cloneable {
 
@@ -67,7 +72,21 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
      * Constant for hashcode.
      */
     private static final int HASH_CONST = 32;
-    private List<MetadataValue> children;
+    /** Copy on write, see {@link #getValue()}. */
+    private volatile List<MetadataValue> children;
+    private transient volatile ReadWriteLock lock;
+    /**
+     * The cached {@link #hashCode()} of the content of this subtree, valid when {@link #contentHashValid} is set.
+     */
+    private transient volatile int contentHash;
+    /**
+     * If {@link #contentHash} is computed, cleared when something in the subtree changes.
+     */
+    private transient volatile boolean contentHashValid;
+    /**
+     * Cached result of {@link #hasExposedDescendants()}, null when it needs to be computed.
+     */
+    private transient volatile Boolean exposedDescendants;
 
     /**
      * Standard Constructor.
@@ -105,7 +124,7 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
      */
     public TreeNodeMetadataValue(String name, String description) {
         super(name, description);
-        this.children = new LinkedList<MetadataValue>();
+        this.children = new ArrayList<MetadataValue>();
     }
 
     /**
@@ -126,7 +145,7 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
      */
     public TreeNodeMetadataValue(String name) {
         super(name);
-        this.children = new LinkedList<MetadataValue>();
+        this.children = new ArrayList<MetadataValue>();
     }
 
     /**
@@ -134,23 +153,70 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
      *
      * @param children the children.
      */
-    private synchronized void setChildren(List<MetadataValue> children) {
-        this.children = children;
-        if (this.children != null) {
-            for (MetadataValue value : this.children) {
+    private void setChildren(List<MetadataValue> children) {
+        if (children != null) {
+            for (MetadataValue value : children) {
                 value.setParent(this);
             }
+            this.children = new ArrayList<MetadataValue>(children);
         } else {
-            this.children = new LinkedList<MetadataValue>();
+            this.children = new ArrayList<MetadataValue>();
+        }
+    }
+
+    /**
+     * The lock guarding this tree. A node that is part of a {@link MetadataContainer} shares the lock of the
+     * container, a node that isn't shares the lock of the root of its own tree.
+     *
+     * @return the lock.
+     * @see MetadataContainer#getLock()
+     */
+    public ReadWriteLock getLock() {
+        MetadataParent<MetadataValue> parent = getParent();
+        if (parent instanceof TreeNodeMetadataValue) {
+            return ((TreeNodeMetadataValue)parent).getLock();
+        } else if (parent instanceof MetadataContainer) {
+            ReadWriteLock containerLock = ((MetadataContainer)parent).getLock();
+            if (containerLock != null) {
+                return containerLock;
+            }
         }
+        if (lock == null) {
+            synchronized (this) {
+                if (lock == null) {
+                    lock = new ReentrantReadWriteLock();
+                }
+            }
+        }
+        return lock;
     }
 
+    /**
+     * The children of this node. The returned list is an unmodifiable snapshot that later changes to the node
+     * won't be reflected in, so it can be iterated without holding any lock. Use {@link #addChild(MetadataValue)},
+     * {@link #removeChild(String)} etc. to modify the node.
+     *
+     * @return the children.
+     */
     @Override
-    public synchronized List<MetadataValue> getValue() {
-        if (children == null) {
-            children = new LinkedList<MetadataValue>();
+    public List<MetadataValue> getValue() {
+        List<MetadataValue> current = children;
+        if (current == null) {
+            return Collections.emptyList();
         }
-        return children;
+        return Collections.unmodifiableList(current);
+    }
+
+    /**
+     * Tells the container that this node is in, if any, that the tree has changed. Clears the cached content hash of
+     * this node and its ancestors on the way up.
+     *
+     * @see MetadataContainer#markChanged()
+     */
+    void markChanged() {
+        contentHashValid = false;
+        exposedDescendants = null;
+        ParentUtil.markChanged(getParent());
     }
 
     /**
@@ -160,32 +226,77 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
      * @return the value.
      */
     @Override
-    public synchronized MetadataValue getChild(String name) {
-        return ParentUtil.getChildValue(children, name);
+    public MetadataValue getChild(String name) {
+        return ParentUtil.getChildValue(getValue(), name);
+    }
+
+    @Override
+    public int indexOf(String name) {
+        return ParentUtil.getChildIndex(getValue(), name);
     }
 
     @Override
-    public synchronized int indexOf(String name) {
-        return ParentUtil.getChildIndex(children, name);
+    public MetadataValue setChild(int index, MetadataValue value) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValue());
+            MetadataValue old = copy.set(index, value);
+            children = copy;
+            markChanged();
+            return old;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized MetadataValue setChild(int index, MetadataValue value) {
-        return children.set(index, value);
+    public Collection<MetadataValue> addChild(MetadataValue value) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValue());
+            Collection<MetadataValue> leftOvers = ParentUtil.addChildValue(this, copy, value);
+            children = copy;
+            markChanged();
+            return leftOvers;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> addChild(MetadataValue value) {
-        return ParentUtil.addChildValue(this, children, value);
+    public Collection<MetadataValue> addChildren(Collection<MetadataValue> values) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValue());
+            Collection<MetadataValue> leftOvers = ParentUtil.addChildValues(this, copy, values);
+            children = copy;
+            markChanged();
+            return leftOvers;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> addChildren(Collection<MetadataValue> values) {
-        return ParentUtil.addChildValues(this, children, values);
+    public MetadataValue removeChild(String name) {
+        Lock writeLock = getLock().writeLock();
+        writeLock.lock();
+        try {
+            List<MetadataValue> copy = new ArrayList<MetadataValue>(getValue());
+            MetadataValue removed = ParentUtil.removeChildValue(copy, name);
+            children = copy;
+            markChanged();
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized Collection<MetadataValue> getChildren() {
+    public Collection<MetadataValue> getChildren() {
         return getValue();
     }
 
@@ -195,13 +306,19 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
     }
 
     @Override
-    public synchronized void replacementOf(MetadataValue old) {
+    public void replacementOf(MetadataValue old) {
         if (old instanceof MetadataParent) {
-            MetadataParent<MetadataValue> oldParent = (MetadataParent<MetadataValue>)old;
-            for (MetadataValue child : oldParent.getChildren()) {
-                if (getChild(child.getName()) == null) {
-                    addChild(child);
+            Lock writeLock = getLock().writeLock();
+            writeLock.lock();
+            try {
+                MetadataParent<MetadataValue> oldParent = (MetadataParent<MetadataValue>)old;
+                for (MetadataValue child : oldParent.getChildren()) {
+                    if (getChild(child.getName()) == null) {
+                        addChild(child);
+                    }
                 }
+            } finally {
+                writeLock.unlock();
             }
         }
     }
@@ -212,14 +329,38 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
     }
 
     @Override
-    public synchronized JSONObject toJson() {
-        JSONObject obj = toAbstractJson();
-        JSONArray array = new JSONArray();
-        for (MetadataValue child : children) {
-            array.add(child.toJson());
+    public JSONObject toJson() {
+        return toJson(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Converts this node into a JSON object, with the subtree only down to the given number of levels. The nodes
+     * at the last level are written without {@link com.sonyericsson.hudson.plugins.metadata.model.JsonUtils#CHILDREN}
+     * so that they can be told apart from empty nodes.
+     *
+     * @param levels the number of levels of children to include, 0 for just this node.
+     * @return the JSON object.
+     */
+    public JSONObject toJson(int levels) {
+        Lock readLock = getLock().readLock();
+        readLock.lock();
+        try {
+            JSONObject obj = toAbstractJson();
+            if (levels > 0) {
+                JSONArray array = new JSONArray();
+                for (MetadataValue child : getValue()) {
+                    if (child instanceof TreeNodeMetadataValue) {
+                        array.add(((TreeNodeMetadataValue)child).toJson(levels - 1));
+                    } else {
+                        array.add(child.toJson());
+                    }
+                }
+                obj.put(CHILDREN, array);
+            }
+            return obj;
+        } finally {
+            readLock.unlock();
         }
-        obj.put(CHILDREN, array);
-        return obj;
     }
 
     @Override
@@ -227,9 +368,63 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
         return false;
     }
 
+    /**
+     * If anything in this subtree would be added to the environment, i.e. if this node or any value below it is
+     * exposed to the environment. The part below this node is cached until something in the subtree changes.
+     *
+     * @return true if something is exposed.
+     */
+    public boolean hasExposedValues() {
+        return isExposedToEnvironment() || hasExposedDescendants();
+    }
+
+    /**
+     * If any value below this node is exposed to the environment.
+     *
+     * @return true if something is exposed.
+     */
+    private boolean hasExposedDescendants() {
+        Boolean exposed = exposedDescendants;
+        if (exposed == null) {
+            Lock readLock = getLock().readLock();
+            readLock.lock();
+            try {
+                exposed = Boolean.FALSE;
+                for (MetadataValue child : getValue()) {
+                    if (isExposed(child)) {
+                        exposed = Boolean.TRUE;
+                        break;
+                    }
+                }
+                exposedDescendants = exposed;
+            } finally {
+                readLock.unlock();
+            }
+        }
+        return exposed;
+    }
+
+    /**
+     * If the child or anything below it is exposed to the environment. Parents of other kinds than tree nodes
+     * are assumed to expose something, since it can't be told without walking them.
+     *
+     * @param child the child.
+     * @return true if something is exposed.
+     */
+    private static boolean isExposed(MetadataValue child) {
+        if (child instanceof TreeNodeMetadataValue) {
+            return ((TreeNodeMetadataValue)child).hasExposedValues();
+        }
+        return child.isExposedToEnvironment() || child instanceof MetadataParent;
+    }
+
     @Override
     public void addEnvironmentVariables(EnvVars variables, boolean exposeAll) {
-        for (MetadataValue v : getChildren()) {
+        if (!exposeAll && !hasExposedValues()) {
+            //Nothing in this branch is exposed.
+            return;
+        }
+        for (MetadataValue v : getValue()) {
             if (isExposedToEnvironment()) {
                 v.addEnvironmentVariables(variables, true);
             } else {
@@ -238,11 +433,28 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
         }
     }
 
+    /**
+     * A shallow copy of this node that holds the given children instead of its own. The children are not adopted,
+     * their parent is still the node they belong to, so the copy is only meant as a read only view of a part of
+     * this subtree, e.g. when rendering a selection of the values.
+     *
+     * @param viewChildren the children the copy should hold.
+     * @return the copy.
+     */
+    public TreeNodeMetadataValue withChildren(List<MetadataValue> viewChildren) {
+        TreeNodeMetadataValue view = new TreeNodeMetadataValue(getName(), getDescription());
+        view.setExposeToEnvironment(isExposedToEnvironment());
+        view.setGenerated(isGenerated());
+        view.children = new ArrayList<MetadataValue>(viewChildren);
+        return view;
+    }
+
     @Override
         public TreeNodeMetadataValue clone() throws CloneNotSupportedException {
             TreeNodeMetadataValue tree = (TreeNodeMetadataValue)super.clone();
-            List<MetadataValue> clonedChildren = new LinkedList<MetadataValue>();
-            for (MetadataValue child : children) {
+            tree.lock = null;
+            List<MetadataValue> clonedChildren = new ArrayList<MetadataValue>();
+            for (MetadataValue child : getValue()) {
                 MetadataValue clonedChild = child.clone();
                 clonedChild.setParent(tree);
                 clonedChildren.add(clonedChild);
@@ -261,8 +473,14 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
             return false;
         }
         final TreeNodeMetadataValue other = (TreeNodeMetadataValue)obj;
+        if (this == other) {
+            return true;
+        }
+        if (hashCode() != other.hashCode()) {
+            return false;
+        }
         Collection<MetadataValue> otherChildren = other.getChildren();
-        if (children.size() != otherChildren.size()) {
+        if (getValue().size() != otherChildren.size()) {
             return false;
         }
         for (MetadataValue child : getChildren()) {
@@ -276,9 +494,32 @@ public class TreeNodeMetadataValue extends AbstractMetadataValue implements Meta
         return true;
     }
 
+    /**
+     * A hash of the content of this subtree, consistent with {@link #equals(Object)}. It is computed from the names
+     * and hash codes of the children independent of their order, and cached until something in the subtree changes.
+     * So two different subtrees can in the common case be told apart, or found to be possible duplicates, without
+     * walking them.
+     *
+     * @return the hash code.
+     */
     @Override
     public int hashCode() {
-        return HASH_CONST;
+        if (contentHashValid) {
+            return contentHash;
+        }
+        Lock readLock = getLock().readLock();
+        readLock.lock();
+        try {
+            int hash = HASH_CONST;
+            for (MetadataValue child : getValue()) {
+                hash += ParentUtil.hashCodeIgnoreCase(child.getName()) ^ child.hashCode();
+            }
+            contentHash = hash;
+            contentHashValid = true;
+            return hash;
+        } finally {
+            readLock.unlock();
+        }
     }
 
    @Override
@@ -371,6 +371,26 @@ public abstract class TreeStructureUtil {
         }
     }
 
+    /**
+     * Counts all the values in the collection and below it, tree nodes included.
+     *
+     * @param collection the Collection to count.
+     * @return the number of values.
+     */
+    public static int countValues(Collection<? extends Metadata> collection) {
+        if (collection == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Metadata def : collection) {
+            count++;
+            if (def instanceof MetadataParent) {
+                count += countValues(((MetadataParent)def).getChildren());
+            }
+        }
+        return count;
+    }
+
 
     /**
      * Prints the value and it's child if any into a structured string.
@@ -0,0 +1,131 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of strings used to share equal names and values between metadata, like the generated names and results
+ * that are repeated in every build. Unlike {@link String#intern()} the pool is bounded and only holds the strings
+ * weakly, so strings that aren't used by any metadata anymore are garbage collected as usual.
+ *
+ * The strings are pooled when metadata is loaded, see {@link
+ * com.sonyericsson.hudson.plugins.metadata.model.values.AbstractMetadataValue#readResolve()} and {@link
+ * com.sonyericsson.hudson.plugins.metadata.model.values.BinaryMetadataCodec}, and not for every value that is
+ * created, so that updates don't wait for each other on the pool.
+ */
+public final class StringPool {
+
+    /**
+     * The default maximum number of strings in the pool.
+     */
+    public static final int DEFAULT_MAX_SIZE = 65536;
+    /**
+     * The default maximum length of a string to be pooled, longer strings are unlikely to be repeated.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    private static final StringPool DEFAULT = new StringPool(
+            Integer.getInteger(StringPool.class.getName() + ".maxSize", DEFAULT_MAX_SIZE),
+            Integer.getInteger(StringPool.class.getName() + ".maxLength", DEFAULT_MAX_LENGTH));
+
+    private final int maxSize;
+    private final int maxLength;
+    private final Map<String, WeakReference<String>> pool = new WeakHashMap<String, WeakReference<String>>();
+    private long hits = 0;
+
+    /**
+     * Standard constructor.
+     *
+     * @param maxSize   the maximum number of strings in the pool.
+     * @param maxLength the maximum length of a string to be pooled.
+     */
+    public StringPool(int maxSize, int maxLength) {
+        this.maxSize = maxSize;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * The pool used by the metadata.
+     *
+     * @return the pool.
+     */
+    public static StringPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the pooled string equal to the given one, or adds the given string to the pool if there is none and the
+     * pool isn't full.
+     *
+     * @param string the string.
+     * @return the pooled string, or the given string if it isn't pooled.
+     */
+    public String intern(String string) {
+        if (string == null || string.length() > maxLength) {
+            return string;
+        }
+        synchronized (pool) {
+            WeakReference<String> reference = pool.get(string);
+            if (reference != null) {
+                String pooled = reference.get();
+                if (pooled != null) {
+                    if (pooled != string) {
+                        hits++;
+                    }
+                    return pooled;
+                }
+            }
+            if (pool.size() < maxSize) {
+                pool.put(string, new WeakReference<String>(string));
+            }
+            return string;
+        }
+    }
+
+    /**
+     * The number of strings in the pool.
+     *
+     * @return the size.
+     */
+    public int size() {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+
+    /**
+     * The number of times a string was replaced by an equal string from the pool since the start. It only grows, also
+     * when the metadata that got the pooled strings is gone, so it is not the number of strings shared right now.
+     *
+     * @return the cumulative number of hits.
+     */
+    public long getHits() {
+        synchronized (pool) {
+            return hits;
+        }
+    }
+}
@@ -26,6 +26,7 @@ package com.sonyericsson.hudson.plugins.metadata;
 
 import com.sonyericsson.hudson.plugins.metadata.model.values.AbstractMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.DateMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.NumberArrayMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.NumberMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
@@ -169,6 +170,25 @@ public final class MockUtils {
         }
     }
 
+    /**
+     * Creates a "real" {@link
+     * com.sonyericsson.hudson.plugins.metadata.model.values.NumberArrayMetadataValue.NumberArrayMetaDataValueDescriptor}
+     * And makes sure that it is returned from {@link Hudson#getDescriptorByType(Class)}.
+     *
+     * @param hudson the mocked hudson object.
+     * @param list   the list of all descriptors - used by {@link #mockMetadataValueDescriptors(hudson.model.Hudson)}
+     */
+    public static void mockNumberArrayMetadataValueDescriptor(Hudson hudson,
+                           List<AbstractMetadataValue.AbstractMetaDataValueDescriptor> list) {
+        NumberArrayMetadataValue.NumberArrayMetaDataValueDescriptor descriptor =
+                new NumberArrayMetadataValue.NumberArrayMetaDataValueDescriptor();
+        when(hudson.getDescriptorByType(NumberArrayMetadataValue.NumberArrayMetaDataValueDescriptor.class)).
+                thenReturn(descriptor);
+        if (list != null) {
+            list.add(descriptor);
+        }
+    }
+
     /**
      * Creates mocks for all the MetadataValue descriptors, and makes sure they are returned from {@link
      * Hudson#getExtensionList(Class)}.
@@ -186,6 +206,7 @@ public final class MockUtils {
         mockStringMetadataValueDescriptor(hudson, list);
         mockDateMetadataValueDescriptor(hudson, list);
         mockNumberMetadataValueDescriptor(hudson, list);
+        mockNumberArrayMetadataValueDescriptor(hudson, list);
         PowerMockito.mockStatic(ExtensionUtils.class);
         PowerMockito.when(ExtensionUtils.getMetadataValueDescriptors()).thenReturn(list);
     }
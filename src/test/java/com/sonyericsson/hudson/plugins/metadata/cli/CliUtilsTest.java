@@ -364,6 +364,7 @@ public class CliUtilsTest {
         MetadataParent container = CliUtils.getContainer(null, "theJob", 1, true);
         assertNotNull(container);
         verify(build).addAction(isA(MetadataBuildAction.class));
+        verify(build).save();
     }
 
 }
@@ -24,17 +24,23 @@
  */
 package com.sonyericsson.hudson.plugins.metadata.cli;
 
+import com.sonyericsson.hudson.plugins.metadata.MetadataUpdateListener;
 import com.sonyericsson.hudson.plugins.metadata.MockUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataJobProperty;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataJournal;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataPathIndex;
 import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
 import com.sonyericsson.hudson.plugins.metadata.util.ExtensionUtils;
+import hudson.ExtensionList;
 import hudson.model.Hudson;
 import hudson.model.Queue;
 import hudson.security.ACL;
+import net.sf.json.JSON;
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import net.sf.json.JSONSerializer;
 import org.junit.Before;
@@ -51,18 +57,33 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import javax.servlet.ServletOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.sonyericsson.hudson.plugins.metadata.cli.CliResponse.CONTENT_TYPE;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -72,7 +93,7 @@ import static org.mockito.Mockito.when;
  * @author Robert Sandell &lt;robert.sandell@sonyericsson.com&gt;
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({CliUtils.class, Hudson.class, ACL.class, Queue.class, ExtensionUtils.class })
+@PrepareForTest({CliUtils.class, Hudson.class, ACL.class, Queue.class, ExtensionUtils.class, ExtensionList.class })
 public class HttpCliRootActionTest {
 
     private MetadataContainer<MetadataValue> container;
@@ -94,10 +115,14 @@ public class HttpCliRootActionTest {
     public void prepareSomeStuff() throws Exception {
         Hudson hudson = MockUtils.mockHudson();
         MockUtils.mockMetadataValueDescriptors(hudson);
+        ExtensionList<MetadataUpdateListener> listeners = PowerMockito.mock(ExtensionList.class);
+        when(listeners.iterator()).thenReturn(new LinkedList<MetadataUpdateListener>().iterator());
+        when(hudson.getExtensionList(MetadataUpdateListener.class)).thenReturn(listeners);
 
         container = mock(MetadataContainer.class);
         acl = PowerMockito.mock(ACL.class);
         when(container.getACL()).thenReturn(acl);
+        when(container.getLock()).thenReturn(new ReentrantReadWriteLock());
         PowerMockito.mockStatic(Queue.class);
         queue = PowerMockito.mock(Queue.class);
         PowerMockito.when(Queue.getInstance()).thenReturn(queue);
@@ -115,6 +140,24 @@ public class HttpCliRootActionTest {
         printed = null;
     }
 
+    /**
+     * Makes the mocked container keep the children that are added to it, so that the updates see them.
+     *
+     * @return the children.
+     */
+    private List<MetadataValue> keepChildren() {
+        final List<MetadataValue> children = new LinkedList<MetadataValue>();
+        when(container.getChildren()).thenReturn(children);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                children.addAll((Collection<MetadataValue>)invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(container).addChildren(any(Collection.class));
+        return children;
+    }
+
     /**
      * Happy tests for {@link HttpCliRootAction#doUpdate(org.kohsuke.stapler.StaplerRequest,
      * org.kohsuke.stapler.StaplerResponse)}.
@@ -163,6 +206,7 @@ public class HttpCliRootActionTest {
         PowerMockito.when(CliUtils.getContainer(null, job, null, true)).thenReturn(container);
 
         when(container.getChild(eq("owner"))).thenReturn(value);
+        when(container.getChildren()).thenReturn(Collections.<MetadataValue>singletonList(value));
 
         action.doUpdate(request, response);
 
@@ -171,6 +215,61 @@ public class HttpCliRootActionTest {
         verify(container).setChild(anyInt(), any(MetadataValue.class));
     }
 
+    /**
+     * Tests for {@link HttpCliRootAction#doUpdate(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)}. Adding what is there already, as when a client retries, changes nothing
+     * and so isn't appended to the journal.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoUpdateAddNothingNew() throws Exception {
+        StringMetadataValue value = new StringMetadataValue("owner", "bobby");
+        String data = new StringMetadataValue("owner", "bobby").toJson().toString();
+        MetadataJournal journal = mock(MetadataJournal.class);
+
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        when(request.getParameter(eq("data"))).thenReturn(data);
+        PowerMockito.when(CliUtils.getContainer(null, job, null, true)).thenReturn(container);
+        when(container.getChildren()).thenReturn(Collections.<MetadataValue>singletonList(value));
+        when(container.getJournal()).thenReturn(journal);
+        when(container.addChildren(any(Collection.class)))
+                .thenReturn(Collections.<MetadataValue>singletonList(value));
+
+        action.doUpdate(request, response);
+
+        verify(journal, never()).append(any(String.class), any(JSON.class), anyBoolean());
+        verify(container, never()).save();
+    }
+
+    /**
+     * Tests for {@link HttpCliRootAction#doUpdate(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)}. Adding leaves under a tree node that is there already but empty is a
+     * change, and is saved.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoUpdateAddUnderEmptyNode() throws Exception {
+        MetadataJobProperty myContainer = spy(new MetadataJobProperty());
+        when(myContainer.getACL()).thenReturn(acl);
+        doNothing().when(myContainer).save();
+        myContainer.addChild(new TreeNodeMetadataValue("owner"));
+        String data = TreeStructureUtil.createPath("Bobby", "description", "owner", "name").toJson().toString();
+
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        when(request.getParameter(eq("data"))).thenReturn(data);
+        when(request.getParameter(eq("sync"))).thenReturn("true");
+        PowerMockito.when(CliUtils.getContainer(null, job, null, true)).thenReturn(myContainer);
+
+        action.doUpdate(request, response);
+
+        verify(out).print(contains("\"type\":\"ok\""));
+        assertEquals("Bobby", TreeStructureUtil.getPath(myContainer, "owner", "name").getValue());
+        verify(myContainer).save();
+        verify(queue).scheduleMaintenance();
+    }
+
     /**
      * Double update test for {@link HttpCliRootAction#doUpdate(org.kohsuke.stapler.StaplerRequest,
      * org.kohsuke.stapler.StaplerResponse)}.
@@ -209,6 +308,79 @@ public class HttpCliRootActionTest {
         assertEquals("Tomas", TreeStructureUtil.getPath(myContainer, "owner", "name").getValue());
     }
 
+    /**
+     * Tests for {@link HttpCliRootAction#doUpdate(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)} with the data streamed in the body of the request.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoUpdateStreamed() throws Exception {
+        MetadataJobProperty myContainer = spy(new MetadataJobProperty());
+        when(myContainer.getACL()).thenReturn(acl);
+        JSONArray data = new JSONArray();
+        data.add(new StringMetadataValue("owner", "{bo]b\"by'}").toJson());
+        data.add(TreeStructureUtil.createPath("Admin", "description", "owner-info", "type").toJson());
+
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader("  " + data.toString() + "\n")));
+        PowerMockito.when(CliUtils.getContainer(null, job, null, true)).thenReturn(myContainer);
+
+        action.doUpdate(request, response);
+
+        verify(out).print(contains("\"type\":\"ok\""));
+        assertEquals(2, myContainer.getChildren().size());
+        assertEquals("{bo]b\"by'}", myContainer.getChild("owner").getValue());
+        assertEquals("Admin", TreeStructureUtil.getPath(myContainer, "owner-info", "type").getValue());
+    }
+
+    /**
+     * Tests for {@link HttpCliRootAction#doUpdate(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)} with a streamed body in lenient JSON, where the children of a tree come
+     * before its type and a string without quotes has a quote in it.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoUpdateStreamedLenient() throws Exception {
+        MetadataJobProperty myContainer = spy(new MetadataJobProperty());
+        when(myContainer.getACL()).thenReturn(acl);
+        String data = "[{children: [{metadata-type: string, name: owner, value: it's bobby},\n"
+                + " {'metadata-type': 'number', 'name': 'count', 'value': 12}],\n"
+                + " name: info, \"metadata-type\": \"tree\"}]";
+
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader(data)));
+        PowerMockito.when(CliUtils.getContainer(null, job, null, true)).thenReturn(myContainer);
+
+        action.doUpdate(request, response);
+
+        verify(out).print(contains("\"type\":\"ok\""));
+        assertEquals(1, myContainer.getChildren().size());
+        assertEquals("it's bobby", TreeStructureUtil.getPath(myContainer, "info", "owner").getValue());
+        assertEquals(12L, TreeStructureUtil.getPath(myContainer, "info", "count").getValue());
+    }
+
+    /**
+     * Tests for {@link HttpCliRootAction#doUpdate(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)} with a streamed body that is cut short.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoUpdateStreamedBroken() throws Exception {
+        String value = new StringMetadataValue("owner", "bobby").toJson().toString();
+        String broken = "[" + value + ", " + value.substring(0, value.length() - 2);
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader(broken)));
+        PowerMockito.when(CliUtils.getContainer(null, job, null, true)).thenReturn(container);
+
+        action.doUpdate(request, response);
+
+        verify(out).print(contains(CliUtils.Status.ERR_BAD_DATA.name()));
+        verify(container, times(0)).addChildren(any(Collection.class));
+    }
+
     /**
      * Happy tests for {@link HttpCliRootAction#doGet(org.kohsuke.stapler.StaplerRequest,
      * org.kohsuke.stapler.StaplerResponse)} .
@@ -236,6 +408,142 @@ public class HttpCliRootActionTest {
     }
 
 
+    /**
+     * Tests for {@link HttpCliRootAction#doGet(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)} . When the client has the current version already it gets 304 Not
+     * Modified and nothing is converted, when the version has changed it gets the metadata again.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoGetNotModified() throws Exception {
+        JSONObject jsonObject = new StringMetadataValue("owner", "bobby").toJson();
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        PowerMockito.when(CliUtils.getContainer(null, job, null, false)).thenReturn(container);
+        when(container.toJson()).thenReturn(jsonObject);
+        when(container.getVersion()).thenReturn(7L);
+        final String[] eTag = new String[1];
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                eTag[0] = (String)invocation.getArguments()[1];
+                return new DoesNothing().answer(invocation);
+            }
+        }).when(response).setHeader(eq(HttpCliRootAction.HEADER_ETAG), any(String.class));
+
+        action.doGet(request, response);
+        assertNotNull(eTag[0]);
+        String first = eTag[0];
+
+        when(request.getHeader(eq(HttpCliRootAction.HEADER_IF_NONE_MATCH))).thenReturn("\"other\", W/" + first);
+        action.doGet(request, response);
+        verify(response).setStatus(eq(HTTP_NOT_MODIFIED));
+        verify(container, times(1)).toJson();
+        verify(out, times(1)).print(eq(jsonObject.toString()));
+
+        when(container.getVersion()).thenReturn(8L);
+        action.doGet(request, response);
+        verify(container, times(2)).toJson();
+        assertFalse(first.equals(eTag[0]));
+    }
+
+    /**
+     * Tests for {@link HttpCliRootAction#doGet(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)} . When a path and fields are selected only that value is sent.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoGetPathAndFields() throws Exception {
+        mockTree();
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        when(request.getParameter(eq("path"))).thenReturn("Hardware.cpu.cores");
+        when(request.getParameter(eq("fields"))).thenReturn("name, value");
+        PowerMockito.when(CliUtils.getContainer(null, job, null, false)).thenReturn(container);
+        capturePrinted();
+
+        action.doGet(request, response);
+
+        verify(container, times(0)).toJson();
+        JSONObject obj = (JSONObject)JSONSerializer.toJSON(printed);
+        assertEquals(2, obj.size());
+        assertEquals("cores", obj.getString("name"));
+        assertEquals("4", obj.getString("value"));
+    }
+
+    /**
+     * Tests for {@link HttpCliRootAction#doGet(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)} . When a depth is selected the tree is cut off below it.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoGetDepth() throws Exception {
+        mockTree();
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        when(request.getParameter(eq("depth"))).thenReturn("2");
+        PowerMockito.when(CliUtils.getContainer(null, job, null, false)).thenReturn(container);
+        capturePrinted();
+
+        action.doGet(request, response);
+
+        JSONArray array = (JSONArray)JSONSerializer.toJSON(printed);
+        assertEquals(2, array.size());
+        JSONObject hardware = array.getJSONObject(0);
+        assertEquals("hardware", hardware.getString("name"));
+        JSONObject cpu = hardware.getJSONArray("children").getJSONObject(0);
+        assertEquals("cpu", cpu.getString("name"));
+        assertEquals(false, cpu.has("children"));
+        assertEquals("bobby", array.getJSONObject(1).getString("value"));
+    }
+
+    /**
+     * Tests for {@link HttpCliRootAction#doGet(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)} . When there is no value at the selected path.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoGetNoPath() throws Exception {
+        mockTree();
+        when(request.getParameter(eq("job"))).thenReturn(job);
+        when(request.getParameter(eq("path"))).thenReturn("hardware.gpu");
+        PowerMockito.when(CliUtils.getContainer(null, job, null, false)).thenReturn(container);
+        capturePrinted();
+
+        action.doGet(request, response);
+
+        JSONObject obj = (JSONObject)JSONSerializer.toJSON(printed);
+        assertEquals("error", obj.getString("type"));
+        assertEquals(CliUtils.Status.ERR_NO_METADATA.code(), obj.getInt("errorCode"));
+    }
+
+    /**
+     * Gives the container the values hardware.cpu.cores=4 and owner=bobby.
+     */
+    private void mockTree() {
+        TreeNodeMetadataValue hardware = TreeStructureUtil.createPath(new StringMetadataValue("cores", "4"),
+                "hardware", "cpu");
+        List<MetadataValue> values = new LinkedList<MetadataValue>();
+        values.add(hardware);
+        values.add(new StringMetadataValue("owner", "bobby"));
+        when(container.getChildren()).thenReturn(values);
+        when(container.getPathIndex()).thenReturn(MetadataPathIndex.build(values));
+    }
+
+    /**
+     * Keeps what is printed on the response in {@link #printed}.
+     */
+    private void capturePrinted() {
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                printed = (String)invocation.getArguments()[0];
+                return new DoesNothing().answer(invocation);
+            }
+        }).when(out).print(any(String.class));
+    }
+
     /**
      * Tests for {@link HttpCliRootAction#doGet(org.kohsuke.stapler.StaplerRequest,
      * org.kohsuke.stapler.StaplerResponse)} . When no parameters has been defined.
@@ -330,4 +638,101 @@ public class HttpCliRootActionTest {
         assertEquals(CliUtils.Status.ERR_NO_METADATA.code(), obj.getInt("errorCode"));
         assertEquals(CliUtils.Status.ERR_NO_METADATA.name(), obj.getString("errorName"));
     }
+
+    /**
+     * Tests for {@link HttpCliRootAction#doBatchUpdate(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)}. Two entries for the same job are saved once, and the entries that
+     * can't be applied get results of their own.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoBatchUpdate() throws Exception {
+        JSONObject target = new JSONObject();
+        target.put("job", job);
+        JSONArray batch = new JSONArray();
+        JSONObject first = new JSONObject();
+        first.put("target", target);
+        first.put("data", new StringMetadataValue("owner", "bobby").toJson());
+        batch.add(first);
+        JSONObject noTarget = new JSONObject();
+        noTarget.put("data", new StringMetadataValue("owner", "bobby").toJson());
+        batch.add(noTarget);
+        JSONObject second = new JSONObject();
+        second.put("target", target);
+        second.put("data", new StringMetadataValue("team", "builders").toJson());
+        batch.add(second);
+        JSONObject unknown = new JSONObject();
+        JSONObject unknownTarget = new JSONObject();
+        unknownTarget.put("job", "unknown");
+        unknown.put("target", unknownTarget);
+        unknown.put("data", new StringMetadataValue("owner", "bobby").toJson());
+        batch.add(unknown);
+
+        when(request.getParameter(eq("data"))).thenReturn(batch.toString());
+        when(request.getParameter(eq("sync"))).thenReturn("true");
+        PowerMockito.when(CliUtils.getContainer(null, job, null, true)).thenReturn(container);
+        keepChildren();
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                printed = (String)invocation.getArguments()[0];
+                return new DoesNothing().answer(invocation);
+            }
+        }).when(out).print(any(String.class));
+
+        action.doBatchUpdate(request, response);
+
+        verify(container, times(2)).addChildren(any(Collection.class));
+        verify(container, times(1)).save();
+        verify(queue).scheduleMaintenance();
+        JSONObject obj = (JSONObject)JSONSerializer.toJSON(printed);
+        assertEquals("warning", obj.getString("type"));
+        JSONArray results = obj.getJSONArray("results");
+        assertEquals(4, results.size());
+        assertEquals("ok", results.getJSONObject(0).getString("type"));
+        assertEquals(CliUtils.Status.ERR_BAD_DATA.name(), results.getJSONObject(1).getString("errorName"));
+        assertEquals("ok", results.getJSONObject(2).getString("type"));
+        assertEquals(CliUtils.Status.ERR_BAD_CMD.name(), results.getJSONObject(3).getString("errorName"));
+    }
+
+    /**
+     * Tests for {@link HttpCliRootAction#doBatchUpdate(org.kohsuke.stapler.StaplerRequest,
+     * org.kohsuke.stapler.StaplerResponse)}. An update that can't be appended to the journal is made already, so the
+     * container is saved in full instead.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testDoBatchUpdateJournalFails() throws Exception {
+        JSONObject target = new JSONObject();
+        target.put("job", job);
+        JSONObject entry = new JSONObject();
+        entry.put("target", target);
+        entry.put("data", new StringMetadataValue("owner", "bobby").toJson());
+        JSONArray batch = new JSONArray();
+        batch.add(entry);
+        MetadataJournal journal = mock(MetadataJournal.class);
+        doThrow(new IOException("Disk full")).when(journal).append(any(String.class), any(JSON.class), anyBoolean());
+
+        when(request.getParameter(eq("data"))).thenReturn(batch.toString());
+        when(request.getParameter(eq("sync"))).thenReturn("true");
+        PowerMockito.when(CliUtils.getContainer(null, job, null, true)).thenReturn(container);
+        keepChildren();
+        when(container.getJournal()).thenReturn(journal);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                printed = (String)invocation.getArguments()[0];
+                return new DoesNothing().answer(invocation);
+            }
+        }).when(out).print(any(String.class));
+
+        action.doBatchUpdate(request, response);
+
+        verify(journal).append(any(String.class), any(JSON.class), anyBoolean());
+        verify(container, times(1)).save();
+        JSONObject obj = (JSONObject)JSONSerializer.toJSON(printed);
+        assertEquals("ok", obj.getString("type"));
+    }
 }
@@ -0,0 +1,302 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.cli;
+
+import com.sonyericsson.hudson.plugins.metadata.MetadataUpdateListener;
+import com.sonyericsson.hudson.plugins.metadata.MockUtils;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataNodeProperty;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataTreeDiff;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
+import hudson.ExtensionList;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TopLevelItem;
+import hudson.security.ACL;
+import hudson.security.Permission;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.DescribableList;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link MetadataBulkTransfer}.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({CliUtils.class, Hudson.class, ACL.class, ExtensionList.class, DescribableList.class })
+public class MetadataBulkTransferTest {
+
+    /**
+     * A temporary directory for the checkpoints.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Hudson hudson;
+    private ACL acl;
+    private MetadataContainer<MetadataValue> jobA;
+    private MetadataContainer<MetadataValue> jobB;
+    private MetadataUpdateListener listener;
+
+    /**
+     * Mocks Jenkins and two jobs.
+     *
+     * @throws Exception if so.
+     */
+    @Before
+    public void setUp() throws Exception {
+        hudson = MockUtils.mockHudson();
+        MockUtils.mockMetadataValueDescriptors(hudson);
+        listener = mock(MetadataUpdateListener.class);
+        ExtensionList<MetadataUpdateListener> listeners = PowerMockito.mock(ExtensionList.class);
+        when(listeners.iterator()).thenAnswer(new Answer<Iterator<MetadataUpdateListener>>() {
+            @Override
+            public Iterator<MetadataUpdateListener> answer(InvocationOnMock invocation) throws Throwable {
+                return Collections.singletonList(listener).iterator();
+            }
+        });
+        when(hudson.getExtensionList(MetadataUpdateListener.class)).thenReturn(listeners);
+        acl = PowerMockito.mock(ACL.class);
+        when(acl.hasPermission(any(Permission.class))).thenReturn(true);
+
+        jobA = mockJob(false);
+        jobB = mockJob(false);
+        PowerMockito.mockStatic(CliUtils.class);
+        PowerMockito.when(CliUtils.getContainer(null, "a", null, true)).thenReturn(jobA);
+        PowerMockito.when(CliUtils.getContainer(null, "b", null, true)).thenReturn(jobB);
+    }
+
+    /**
+     * Mocks a job container that keeps the values added to it.
+     *
+     * @param leftOvers true if values with the name of one that is already there are left over, like in a real
+     *                  container, false if all values are kept.
+     * @return the container.
+     */
+    private MetadataContainer<MetadataValue> mockJob(final boolean leftOvers) {
+        MetadataContainer<MetadataValue> job = mock(MetadataContainer.class);
+        when(job.getACL()).thenReturn(acl);
+        when(job.getLock()).thenReturn(new ReentrantReadWriteLock());
+        final List<MetadataValue> children = new LinkedList<MetadataValue>();
+        when(job.getChildren()).thenReturn(children);
+        when(job.addChildren(any(Collection.class))).thenAnswer(new Answer<Collection<MetadataValue>>() {
+            @Override
+            public Collection<MetadataValue> answer(InvocationOnMock invocation) throws Throwable {
+                List<MetadataValue> left = new LinkedList<MetadataValue>();
+                for (MetadataValue value : (Collection<MetadataValue>)invocation.getArguments()[0]) {
+                    if (leftOvers && TreeStructureUtil.getPath(children, value.getName()) != null) {
+                        left.add(value);
+                    } else {
+                        children.add(value);
+                    }
+                }
+                if (left.isEmpty()) {
+                    return null;
+                }
+                return left;
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Creates a job record.
+     *
+     * @param job   the name of the job.
+     * @param owner the value of the owner metadata.
+     * @return the record as a line.
+     */
+    private static String record(String job, String owner) {
+        JSONObject record = new JSONObject();
+        record.put(MetadataBulkTransfer.KEY_TYPE, MetadataBulkTransfer.TYPE_JOB);
+        record.put(MetadataBulkTransfer.KEY_ID, job);
+        JSONArray metadata = new JSONArray();
+        metadata.add(new StringMetadataValue("owner", owner).toJson());
+        record.put(MetadataBulkTransfer.KEY_METADATA, metadata);
+        return record.toString() + "\n";
+    }
+
+    /**
+     * The records used by the import tests, the fourth is broken.
+     *
+     * @return the records.
+     */
+    private static BufferedReader records() {
+        String records = record("a", "1") + record("b", "2") + "\n" + record("a", "3") + "{not json\n"
+                + record("b", "4");
+        return new BufferedReader(new StringReader(records));
+    }
+
+    /**
+     * Tests that every container is saved once per batch, and that broken records are reported.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testImportBatches() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "test.checkpoint");
+        MetadataBulkTransfer.Result result = MetadataBulkTransfer.importRecords(records(), false, 0, 3, checkpoint);
+
+        assertTrue(result.isComplete());
+        assertEquals(4, result.getImported());
+        assertEquals(1, result.getFailureCount());
+        assertTrue(result.getFailures().get(0).startsWith("Record 4:"));
+        assertEquals(5, result.getCheckpoint());
+        assertFalse(checkpoint.exists());
+        verify(jobA, times(2)).addChildren(any(Collection.class));
+        verify(jobA, times(1)).save();
+        verify(jobB, times(2)).save();
+    }
+
+    /**
+     * Tests that a record that only has values that are already there doesn't save the container or notify the
+     * listeners, and that one that adds something does.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testImportAddNothingNew() throws Exception {
+        jobA = mockJob(true);
+        PowerMockito.when(CliUtils.getContainer(null, "a", null, true)).thenReturn(jobA);
+        String records = record("a", "1") + record("a", "1");
+        MetadataBulkTransfer.Result result = MetadataBulkTransfer.importRecords(
+                new BufferedReader(new StringReader(records)), false, 0, 1, null);
+
+        assertTrue(result.isComplete());
+        assertEquals(2, result.getImported());
+        verify(jobA, times(2)).addChildren(any(Collection.class));
+        verify(jobA, times(1)).save();
+        verify(listener, times(1)).metadataContainerChanged(same(jobA), any(MetadataTreeDiff.class));
+    }
+
+    /**
+     * Tests that an import resumes after its checkpoint.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testImportResume() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "test.checkpoint");
+        FileUtils.writeStringToFile(checkpoint, "3");
+        MetadataBulkTransfer.Result result = MetadataBulkTransfer.importRecords(records(), false, 0, 3, checkpoint);
+
+        assertTrue(result.isComplete());
+        assertEquals(1, result.getImported());
+        assertEquals(5, result.getCheckpoint());
+        verify(jobA, never()).save();
+        verify(jobB, times(1)).save();
+    }
+
+    /**
+     * Tests that an explicit skip wins over the checkpoint.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testImportSkip() throws Exception {
+        MetadataBulkTransfer.Result result = MetadataBulkTransfer.importRecords(records(), false, 1, 10, null);
+        assertEquals(3, result.getImported());
+        verify(jobA, times(1)).addChildren(any(Collection.class));
+    }
+
+    /**
+     * Tests that bad checkpoint names are refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadCheckpointName() {
+        MetadataBulkTransfer.getCheckpointFile("../config");
+    }
+
+    /**
+     * Tests that every container gets a record of its own.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testExport() throws Exception {
+        MetadataNodeProperty master = mock(MetadataNodeProperty.class);
+        when(master.getACL()).thenReturn(acl);
+        JSONArray masterJson = new JSONArray();
+        masterJson.add(new StringMetadataValue("owner", "bobby").toJson());
+        when(master.toJson()).thenReturn(masterJson);
+        DescribableList<NodeProperty<?>, NodePropertyDescriptor> masterProperties =
+                PowerMockito.mock(DescribableList.class);
+        when(masterProperties.get(MetadataNodeProperty.class)).thenReturn(master);
+        when(hudson.getNodeProperties()).thenReturn(masterProperties);
+
+        Node slave = mock(Node.class);
+        DescribableList<NodeProperty<?>, NodePropertyDescriptor> slaveProperties =
+                PowerMockito.mock(DescribableList.class);
+        when(slave.getNodeProperties()).thenReturn(slaveProperties);
+        when(hudson.getNodes()).thenReturn(Collections.singletonList(slave));
+        when(hudson.getItems()).thenReturn(Collections.<TopLevelItem>emptyList());
+
+        StringWriter out = new StringWriter();
+        assertEquals(1, MetadataBulkTransfer.export(out));
+        String[] lines = out.toString().split("\n");
+        assertEquals(1, lines.length);
+        JSONObject record = (JSONObject)JSONSerializer.toJSON(lines[0]);
+        assertEquals(MetadataBulkTransfer.TYPE_NODE, record.getString(MetadataBulkTransfer.KEY_TYPE));
+        assertEquals("", record.getString(MetadataBulkTransfer.KEY_ID));
+        assertFalse(record.has(MetadataBulkTransfer.KEY_BUILD));
+        assertEquals(masterJson, record.getJSONArray(MetadataBulkTransfer.KEY_METADATA));
+    }
+}
@@ -24,6 +24,8 @@
 package com.sonyericsson.hudson.plugins.metadata.contributors;
 
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataParent;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataTreeDiff;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
 import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
@@ -33,9 +35,14 @@ import org.junit.Test;
 import org.powermock.api.mockito.PowerMockito;
 
 import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 /**
@@ -48,12 +55,12 @@ public class JobContributorsControllerTest {
     //CS IGNORE LineLength FOR NEXT 5 LINES. REASON: JavaDoc
 
     /**
-     * Tests {@link JobContributorsController.SaveableOperation#cleanGeneratedValues(com.sonyericsson.hudson.plugins.metadata.model.MetadataParent)}.
+     * Tests {@link JobContributorsController.SaveableOperation#applyGenerated(com.sonyericsson.hudson.plugins.metadata.model.MetadataParent, java.util.Collection)}.
      *
      * @throws Exception if so.
      */
     @Test
-    public void testCleanGeneratedValues() throws Exception {
+    public void testApplyGeneratedCleansOldValues() throws Exception {
         TreeNodeMetadataValue[] treePath = TreeStructureUtil.createTreePath("generated", "root", "this", "is");
         treePath[0].setGenerated(false);
         TreeStructureUtil.getPath(treePath[0], "this").setGenerated(false);
@@ -64,9 +71,9 @@ public class JobContributorsControllerTest {
         System.out.println(TreeStructureUtil.prettyPrint(treePath[0], ""));
         JobContributorsController.SaveableOperation operation = new JobContributorsController.SaveableOperation(
                 mock(JobContributorsController.class), mock(AbstractProject.class), mock(User.class));
-        Method cleanGeneratedValues = PowerMockito.method(JobContributorsController.SaveableOperation.class,
-                "cleanGeneratedValues", MetadataParent.class);
-        cleanGeneratedValues.invoke(operation, treePath[0]);
+        Method applyGenerated = PowerMockito.method(JobContributorsController.SaveableOperation.class,
+                "applyGenerated", MetadataParent.class, Collection.class);
+        applyGenerated.invoke(operation, treePath[0], new LinkedList<MetadataValue>());
 
         assertNull(TreeStructureUtil.getPath(treePath[0], "this", "is"));
         assertNotNull(TreeStructureUtil.getPath(treePath[0], "this"));
@@ -74,4 +81,39 @@ public class JobContributorsControllerTest {
         assertNotNull(TreeStructureUtil.getPath(treePath[0], "and", "keep", "this"));
         assertNull(TreeStructureUtil.getPath(treePath[0], "remove"));
     }
+
+    //CS IGNORE LineLength FOR NEXT 5 LINES. REASON: JavaDoc
+
+    /**
+     * Tests {@link JobContributorsController.SaveableOperation#applyGenerated(com.sonyericsson.hudson.plugins.metadata.model.MetadataParent, java.util.Collection)}
+     * when generated data collides with user data or doesn't change.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testApplyGeneratedKeepsUserValues() throws Exception {
+        TreeNodeMetadataValue root = new TreeNodeMetadataValue("root");
+        TreeStructureUtil.addValue(root, "user", "", false, false, "owner");
+        TreeStructureUtil.addValue(root, "old", "", "job-info", "value");
+        JobContributorsController.SaveableOperation operation = new JobContributorsController.SaveableOperation(
+                mock(JobContributorsController.class), mock(AbstractProject.class), mock(User.class));
+        Method applyGenerated = PowerMockito.method(JobContributorsController.SaveableOperation.class,
+                "applyGenerated", MetadataParent.class, Collection.class);
+
+        List<MetadataValue> generated = new LinkedList<MetadataValue>();
+        StringMetadataValue owner = new StringMetadataValue("owner", "generated");
+        owner.setGenerated(true);
+        generated.add(owner);
+        generated.add(TreeStructureUtil.createPath("new", "", "job-info", "value"));
+        MetadataTreeDiff diff = (MetadataTreeDiff)applyGenerated.invoke(operation, root, generated);
+
+        assertEquals(1, diff.getEntries().size());
+        assertEquals("user", TreeStructureUtil.getPath(root, "owner").getValue());
+        assertEquals("new", TreeStructureUtil.getPath(root, "job-info", "value").getValue());
+
+        generated = new LinkedList<MetadataValue>();
+        generated.add(TreeStructureUtil.createPath("new", "", "job-info", "value"));
+        diff = (MetadataTreeDiff)applyGenerated.invoke(operation, root, generated);
+        assertTrue(diff.isEmpty());
+    }
 }
@@ -25,6 +25,9 @@ package com.sonyericsson.hudson.plugins.metadata.model;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import org.junit.Assert;
@@ -47,6 +50,7 @@ import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue
 public class HelperTest {
     private TreeNodeMetadataDefinition startTreeNode;
     private List<MetadataValue> values;
+    private List<MetadataDefinition> definitions;
 
 
     /**
@@ -64,6 +68,8 @@ public class HelperTest {
         subTreeDef.addChild(stringDef);
         startTreeNode = new TreeNodeMetadataDefinition("root", new LinkedList<MetadataDefinition>());
         startTreeNode.addChild(subTreeDef);
+        definitions = new LinkedList<MetadataDefinition>();
+        definitions.add(startTreeNode);
     }
 
     /**
@@ -71,7 +77,7 @@ public class HelperTest {
      */
     @Test
     public void testGetStringValueForDefinition() {
-        MetadataValueDefinitionHelper helper = new MetadataValueDefinitionHelper(values);
+        MetadataValueDefinitionHelper helper = new MetadataValueDefinitionHelper(values, definitions);
         MetadataDefinition definitionLeaf = TreeStructureUtil.getLeaf(startTreeNode, "child1", "child12");
         Object valueForDefinition = helper.getValueForDefinition(definitionLeaf);
         Assert.assertThat(valueForDefinition, instanceOf(StringMetadataValue.class));
@@ -79,4 +85,42 @@ public class HelperTest {
         assertThat(stringMetadataValue.getValue(), equalTo("nonDefaultVal"));
         assertThat(helper.getValues().size(), equalTo(0));
     }
+
+    /**
+     * Tests that a partly matched tree is served as a view of the unmatched values,
+     * without the user values being modified.
+     */
+    @Test
+    public void testUnmatchedValuesView() {
+        TreeNodeMetadataValue root = (TreeNodeMetadataValue)values.get(0);
+        TreeStructureUtil.addValue(root, "otherVal", "", "child1", "other");
+        MetadataValue child12 = TreeStructureUtil.getLeaf(values, "root", "child1", "child12");
+
+        MetadataValueDefinitionHelper helper = new MetadataValueDefinitionHelper(values, definitions);
+        MetadataDefinition definitionLeaf = TreeStructureUtil.getLeaf(startTreeNode, "child1", "child12");
+        assertThat(helper.getValueForDefinition(definitionLeaf), sameInstance((Object)child12));
+
+        assertThat(helper.getValues().size(), equalTo(1));
+        TreeNodeMetadataValue view = (TreeNodeMetadataValue)helper.getValues().iterator().next();
+        assertThat(view, not(sameInstance(root)));
+        assertThat(TreeStructureUtil.getLeaf(view, "child1", "child12"), nullValue());
+        assertThat(TreeStructureUtil.getLeaf(view, "child1", "other"),
+                sameInstance(TreeStructureUtil.getLeaf(values, "root", "child1", "other")));
+
+        //The user values are left as they were
+        assertThat(TreeStructureUtil.getLeaf(values, "root", "child1", "child12"), sameInstance(child12));
+        assertThat(child12.getParent(), sameInstance((Object)root.getChild("child1")));
+    }
+
+    /**
+     * Tests that values without a matching definition are served as they are.
+     */
+    @Test
+    public void testNoMatch() {
+        MetadataValueDefinitionHelper helper = new MetadataValueDefinitionHelper(values,
+                new LinkedList<MetadataDefinition>());
+        MetadataDefinition definitionLeaf = TreeStructureUtil.getLeaf(startTreeNode, "child1", "child12");
+        assertThat(helper.getValueForDefinition(definitionLeaf), sameInstance((Object)definitionLeaf));
+        assertThat(helper.getValues().iterator().next(), sameInstance(values.get(0)));
+    }
 }
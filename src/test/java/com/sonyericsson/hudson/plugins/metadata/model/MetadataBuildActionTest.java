@@ -0,0 +1,231 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.Constants;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
+import hudson.model.Run;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.internal.util.reflection.Whitebox;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link MetadataBuildAction}.
+ */
+public class MetadataBuildActionTest {
+
+    /**
+     * The build directory.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Run run;
+
+    /**
+     * Creates a run with its root directory in the temporary folder.
+     */
+    @Before
+    public void setUp() {
+        run = mock(Run.class);
+        when(run.getRootDir()).thenReturn(folder.getRoot());
+    }
+
+    /**
+     * Tests that the values are saved to their own file, that build.xml is left to Jenkins, and that the journal is
+     * only used once the file exists.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testSaveToMetadataFile() throws Exception {
+        MetadataBuildAction action = new MetadataBuildAction();
+        action.onAttached(run);
+        action.addChild(new StringMetadataValue("name", "value"));
+        assertNull(action.getJournal());
+        action.save();
+        assertTrue(new File(folder.getRoot(), Constants.BUILD_METADATA_BINARY_FILE).isFile());
+        assertNotNull(action.getJournal());
+
+        action.addChild(new StringMetadataValue("other", "value"));
+        action.save();
+        verify(run, never()).save();
+    }
+
+    /**
+     * Tests that the values of a loaded build are read from the metadata file when first needed.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testLoadFromMetadataFile() throws Exception {
+        MetadataBuildAction saved = new MetadataBuildAction();
+        saved.onLoad(run);
+        saved.addChild(new StringMetadataValue("name", "value"));
+        saved.save();
+        verify(run, never()).save();
+
+        MetadataBuildAction loaded = new MetadataBuildAction();
+        Whitebox.setInternalState(loaded, "pinned", null);
+        loaded.onLoad(run);
+        MetadataValue value = loaded.getChild("name");
+        assertEquals("value", value.getValue());
+        assertSame(loaded, value.getParent());
+    }
+
+    /**
+     * Tests that saved values are only softly referenced, and loaded again when they have been dropped.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testReleasedWhenSaved() throws Exception {
+        MetadataBuildAction action = new MetadataBuildAction();
+        action.onLoad(run);
+        action.addChild(new StringMetadataValue("name", "value"));
+        assertNotNull(Whitebox.getInternalState(action, "pinned"));
+        action.save();
+        assertNull(Whitebox.getInternalState(action, "pinned"));
+        MetadataValue value = action.getChild("name");
+
+        //Changing a value in the tree keeps the tree until it is saved.
+        value.setDescription("changed");
+        assertNotNull(Whitebox.getInternalState(action, "pinned"));
+        action.save();
+
+        //As if the garbage collector has dropped the values.
+        Whitebox.setInternalState(action, "cached", null);
+        MetadataValue loaded = action.getChild("name");
+        assertNotSame(value, loaded);
+        assertEquals("changed", loaded.getDescription());
+        assertSame(loaded, action.getPathIndex().get(MetadataPath.of("name")));
+    }
+
+    /**
+     * Tests that the built path index is only given when it is there, and that asking for it loads nothing.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testBuiltPathIndex() throws Exception {
+        MetadataBuildAction action = new MetadataBuildAction();
+        action.onLoad(run);
+        action.addChild(new StringMetadataValue("name", "value"));
+        assertNull(action.getBuiltPathIndex());
+        MetadataPathIndex<MetadataValue> index = action.getPathIndex();
+        assertSame(index, action.getBuiltPathIndex());
+        action.addChild(new StringMetadataValue("other", "value"));
+        assertNull(action.getBuiltPathIndex());
+        action.save();
+
+        //As if the garbage collector has dropped the values.
+        Whitebox.setInternalState(action, "cached", null);
+        assertNull(action.getBuiltPathIndex());
+        assertNull(Whitebox.getInternalState(action, "cached"));
+    }
+
+    /**
+     * Tests that loading the values again after they have been dropped is not seen as a change.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testReloadKeepsVersion() throws Exception {
+        MetadataBuildAction action = new MetadataBuildAction();
+        action.onLoad(run);
+        action.addChild(new StringMetadataValue("name", "value"));
+        action.save();
+        long version = action.getVersion();
+        long generation = MetadataGeneration.current();
+
+        //As if the garbage collector has dropped the values.
+        Whitebox.setInternalState(action, "cached", null);
+        assertEquals(1, action.getChildren().size());
+        assertEquals(version, action.getVersion());
+        assertEquals(generation, MetadataGeneration.current());
+    }
+
+    /**
+     * Tests that the values are kept for build.xml until they have been written to their own file, so that an action
+     * that is added to a build and never saved on its own doesn't lose its values.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testKeptInBuildXmlUntilSaved() throws Exception {
+        List<MetadataValue> preset = new LinkedList<MetadataValue>();
+        preset.add(new StringMetadataValue("name", "value"));
+        MetadataBuildAction action = new MetadataBuildAction(run, preset);
+        action.onAttached(run);
+        action.addChild(new StringMetadataValue("other", "value"));
+        List<MetadataValue> inBuildXml = (List<MetadataValue>)Whitebox.getInternalState(action, "values");
+        assertEquals(2, inBuildXml.size());
+
+        action.save();
+        assertNull(Whitebox.getInternalState(action, "values"));
+        action.addChild(new StringMetadataValue("third", "value"));
+        assertNull(Whitebox.getInternalState(action, "values"));
+    }
+
+    /**
+     * Tests that values stored in build.xml by earlier versions are moved to the metadata file.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testMigrateFromBuildXml() throws Exception {
+        File file = new File(folder.getRoot(), Constants.BUILD_METADATA_BINARY_FILE);
+        List<MetadataValue> legacy = new LinkedList<MetadataValue>();
+        legacy.add(new StringMetadataValue("name", "value"));
+        MetadataBuildAction action = new MetadataBuildAction();
+        Whitebox.setInternalState(action, "pinned", null);
+        Whitebox.setInternalState(action, "values", legacy);
+        action.onLoad(run);
+        assertFalse(file.exists());
+
+        assertEquals(1, action.getChildren().size());
+        assertSame(action, action.getChild("name").getParent());
+        assertTrue(file.isFile());
+        assertNull(Whitebox.getInternalState(action, "values"));
+    }
+}
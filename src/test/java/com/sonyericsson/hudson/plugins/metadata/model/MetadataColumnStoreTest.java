@@ -0,0 +1,340 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.model.values.DateMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.NumberMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
+import hudson.model.Job;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link MetadataColumnStore}.
+ */
+public class MetadataColumnStoreTest {
+
+    private static final MetadataPath DURATION = MetadataPath.of("build", "duration", "ms");
+    private static final MetadataPath RESULT = MetadataPath.of("build", "result");
+
+    /**
+     * A temporary directory for the columns.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetadataColumnStore store;
+
+    /**
+     * Creates the store.
+     */
+    @Before
+    public void setUp() {
+        store = new MetadataColumnStore(new File(folder.getRoot(), "columns"));
+    }
+
+    /**
+     * Creates the index of the metadata of a build.
+     *
+     * @param duration the duration, or null for none.
+     * @param result   the result, or null for none.
+     * @return the index.
+     */
+    private static MetadataPathIndex<MetadataValue> build(Long duration, String result) {
+        List<MetadataValue> children = new ArrayList<MetadataValue>();
+        if (duration != null) {
+            TreeNodeMetadataValue node = new TreeNodeMetadataValue("duration");
+            node.addChild(new NumberMetadataValue("ms", duration));
+            children.add(node);
+        }
+        if (result != null) {
+            children.add(new StringMetadataValue("result", result));
+        }
+        TreeNodeMetadataValue build = new TreeNodeMetadataValue("build");
+        build.addChildren(children);
+        List<MetadataValue> root = new ArrayList<MetadataValue>();
+        root.add(build);
+        root.add(new DateMetadataValue("started", null, 1000L, TimeZone.getTimeZone("UTC")));
+        return MetadataPathIndex.build(root);
+    }
+
+    /**
+     * Tests that the rows can be read back, with nulls where a build had no value.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRecordAndRead() throws Exception {
+        assertEquals(0, store.getRowCount());
+        assertNull(store.getColumn(DURATION));
+        assertTrue(store.record(1, build(10L, "SUCCESS")));
+        assertTrue(store.record(2, build(null, "FAILURE")));
+        assertTrue(store.record(3, build(30L, "SUCCESS")));
+        assertTrue(store.record(5, build(50L, null)));
+        assertFalse(store.record(3, build(99L, "ABORTED")));
+
+        assertEquals(4, store.getRowCount());
+        assertArrayEquals(new int[]{1, 2, 3, 5}, store.getBuildNumbers());
+
+        MetadataColumnStore.Column duration = store.getColumn(MetadataPath.of("Build", "Duration", "MS"));
+        assertEquals(MetadataColumnStore.Type.NUMBER, duration.getType());
+        assertEquals(4, duration.size());
+        assertEquals(10L, duration.getLong(0));
+        assertTrue(duration.isNull(1));
+        assertEquals(MetadataColumnStore.NULL, duration.getLong(1));
+        assertEquals(30L, duration.getLong(2));
+        assertEquals(50L, duration.getLong(3));
+
+        MetadataColumnStore.Column result = store.getColumn(RESULT);
+        assertEquals(MetadataColumnStore.Type.STRING, result.getType());
+        assertEquals("SUCCESS", result.getString(0));
+        assertEquals("FAILURE", result.getString(1));
+        assertEquals("SUCCESS", result.getString(2));
+        assertNull(result.getString(3));
+        assertTrue(result.isNull(3));
+        Map<String, Integer> counts = result.countValues();
+        assertEquals(2, counts.get("SUCCESS").intValue());
+        assertEquals(1, counts.get("FAILURE").intValue());
+
+        MetadataColumnStore.Column started = store.getColumn(MetadataPath.of("started"));
+        assertEquals(MetadataColumnStore.Type.DATE, started.getType());
+        assertEquals(1000L, started.getLong(3));
+    }
+
+    /**
+     * Tests the aggregation of the latest rows.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testAggregate() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            Long duration = null;
+            if (i != 9) {
+                duration = (long)i * 100;
+            }
+            store.record(i, build(duration, "SUCCESS"));
+        }
+        MetadataColumnStore.Statistics all = store.aggregate(DURATION, Integer.MAX_VALUE);
+        assertEquals(9, all.getCount());
+        assertEquals(4600L, all.getSum());
+        assertEquals(100L, all.getMin());
+        assertEquals(1000L, all.getMax());
+
+        MetadataColumnStore.Statistics latest = store.aggregate(DURATION, 3);
+        assertEquals(2, latest.getCount());
+        assertEquals(800L, latest.getMin());
+        assertEquals(1000L, latest.getMax());
+        assertEquals(900.0, latest.getAverage(), 0.0);
+
+        assertNull(store.aggregate(MetadataPath.of("nothing"), 10));
+        assertTrue(Double.isNaN(store.aggregate(DURATION, 0).getAverage()));
+    }
+
+    /**
+     * Tests that what a build that was never committed wrote is not mistaken for the values of the next one.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testAbandonedRow() throws Exception {
+        store.record(1, build(10L, "SUCCESS"));
+        store.record(2, build(20L, "SUCCESS"));
+        //As if the builds column didn't get the row of build 3.
+        File builds = new File(store.getDirectory(), "builds.col");
+        RandomAccessFile raf = new RandomAccessFile(builds, "rw");
+        try {
+            raf.setLength(raf.length() - 4);
+        } finally {
+            raf.close();
+        }
+        assertEquals(1, store.getRowCount());
+        assertEquals(1, store.getColumn(DURATION).size());
+
+        store.record(3, build(null, "FAILURE"));
+        assertArrayEquals(new int[]{1, 3}, store.getBuildNumbers());
+        MetadataColumnStore.Column duration = store.getColumn(DURATION);
+        assertEquals(10L, duration.getLong(0));
+        assertTrue(duration.isNull(1));
+        assertEquals("FAILURE", store.getColumn(RESULT).getString(1));
+    }
+
+    /**
+     * Tests that the row of a removed build is gone from every column, and that the store takes new rows after.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRemove() throws Exception {
+        store.record(1, build(10L, "SUCCESS"));
+        store.record(2, build(20L, "FAILURE"));
+        store.record(3, build(null, "SUCCESS"));
+
+        assertTrue(store.remove(2));
+        assertFalse(store.remove(2));
+        assertArrayEquals(new int[]{1, 3}, store.getBuildNumbers());
+        MetadataColumnStore.Column duration = store.getColumn(DURATION);
+        assertEquals(2, duration.size());
+        assertEquals(10L, duration.getLong(0));
+        assertTrue(duration.isNull(1));
+        MetadataColumnStore.Column result = store.getColumn(RESULT);
+        assertEquals("SUCCESS", result.getString(0));
+        assertEquals("SUCCESS", result.getString(1));
+        assertNull(result.countValues().get("FAILURE"));
+
+        assertTrue(store.record(2, build(25L, "ABORTED")));
+        assertTrue(store.record(4, build(40L, "FAILURE")));
+        assertArrayEquals(new int[]{1, 3, 2, 4}, store.getBuildNumbers());
+        result = store.getColumn(RESULT);
+        assertEquals("ABORTED", result.getString(2));
+        assertEquals("FAILURE", result.getString(3));
+        assertEquals(40L, store.getColumn(DURATION).getLong(3));
+        File dir = store.getDirectory();
+        assertFalse(new File(dir.getParentFile(), dir.getName() + ".old").exists());
+        assertFalse(new File(dir.getParentFile(), dir.getName() + ".new").exists());
+    }
+
+    /**
+     * Tests that a removal only marks the row as deleted, and that the store is compacted once half of the rows are.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRemoveCompacts() throws Exception {
+        store.record(1, build(10L, "SUCCESS"));
+        store.record(2, build(20L, "FAILURE"));
+        store.record(3, build(30L, "SUCCESS"));
+        store.record(4, build(40L, "ABORTED"));
+        File builds = new File(store.getDirectory(), "builds.col");
+
+        assertTrue(store.remove(1));
+        assertEquals(16, builds.length());
+        assertEquals(3, store.getRowCount());
+        MetadataColumnStore.Statistics statistics = store.aggregate(DURATION, 2);
+        assertEquals(2, statistics.getCount());
+        assertEquals(70L, statistics.getSum());
+        assertEquals(Integer.valueOf(1), store.getColumn(RESULT).countValues().get("SUCCESS"));
+
+        assertTrue(store.remove(3));
+        assertEquals(8, builds.length());
+        assertArrayEquals(new int[]{2, 4}, store.getBuildNumbers());
+        MetadataColumnStore.Column duration = store.getColumn(DURATION);
+        assertEquals(2, duration.size());
+        assertEquals(20L, duration.getLong(0));
+        assertEquals(40L, duration.getLong(1));
+        assertEquals("ABORTED", store.getColumn(RESULT).getString(1));
+    }
+
+    /**
+     * Tests that an explicit compaction drops the deleted rows.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testCompact() throws Exception {
+        store.record(1, build(10L, "SUCCESS"));
+        store.record(2, build(null, "FAILURE"));
+        store.record(3, build(30L, null));
+        store.remove(2);
+        store.compact();
+
+        assertEquals(8, new File(store.getDirectory(), "builds.col").length());
+        assertArrayEquals(new int[]{1, 3}, store.getBuildNumbers());
+        MetadataColumnStore.Column duration = store.getColumn(DURATION);
+        assertEquals(10L, duration.getLong(0));
+        assertEquals(30L, duration.getLong(1));
+        MetadataColumnStore.Column result = store.getColumn(RESULT);
+        assertEquals("SUCCESS", result.getString(0));
+        assertTrue(result.isNull(1));
+        assertTrue(store.record(5, build(50L, "SUCCESS")));
+        assertEquals(50L, store.getColumn(DURATION).getLong(2));
+    }
+
+    /**
+     * Tests that the store of a job is forgotten when the job is deleted or renamed.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testForget() throws Exception {
+        Job job = mock(Job.class);
+        File jobDir = folder.newFolder("before");
+        when(job.getRootDir()).thenReturn(jobDir);
+        MetadataColumnStore first = MetadataColumnStore.forJob(job);
+        assertSame(first, MetadataColumnStore.forJob(job));
+
+        MetadataColumnStore.JobListener listener = new MetadataColumnStore.JobListener();
+        listener.onDeleted(job);
+        MetadataColumnStore second = MetadataColumnStore.forJob(job);
+        assertNotSame(first, second);
+
+        when(job.getRootDir()).thenReturn(new File(folder.getRoot(), "after"));
+        listener.onRenamed(job, "before", "after");
+        when(job.getRootDir()).thenReturn(jobDir);
+        assertNotSame(second, MetadataColumnStore.forJob(job));
+    }
+
+    /**
+     * Tests that a removal that stopped between moving the old columns aside and the new ones in is undone.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRemoveInterrupted() throws Exception {
+        store.record(1, build(10L, "SUCCESS"));
+        store.record(2, build(20L, "FAILURE"));
+        File dir = store.getDirectory();
+        File old = new File(dir.getParentFile(), dir.getName() + ".old");
+        File next = new File(dir.getParentFile(), dir.getName() + ".new");
+        assertTrue(next.mkdirs());
+        assertTrue(dir.renameTo(old));
+
+        assertTrue(store.record(3, build(30L, "SUCCESS")));
+        assertArrayEquals(new int[]{1, 2, 3}, store.getBuildNumbers());
+        assertEquals("FAILURE", store.getColumn(RESULT).getString(1));
+        assertFalse(old.exists());
+        assertFalse(next.exists());
+    }
+}
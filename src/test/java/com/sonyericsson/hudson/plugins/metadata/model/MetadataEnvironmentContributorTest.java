@@ -29,7 +29,12 @@ import hudson.EnvVars;
 import hudson.model.AbstractBuild;
 import org.junit.Test;
 
+import java.util.Map;
+
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
@@ -87,4 +92,26 @@ public class MetadataEnvironmentContributorTest {
         assertEquals(null, variables.get(notExposedParentNotExposed.getEnvironmentName()));
 
     }
+
+    /**
+     * Tests that the variables of a build are reused until its metadata changes.
+     */
+    @Test
+    public void testEnvironmentCached() {
+        MetadataBuildAction buildAction = new MetadataBuildAction();
+        StringMetadataValue value = new StringMetadataValue("value", "", "first", true);
+        buildAction.addChild(value);
+
+        Map<String, String> variables = buildAction.getEnvironmentVariables();
+        assertEquals("first", variables.get("MD_VALUE"));
+        assertSame(variables, buildAction.getEnvironmentVariables());
+
+        buildAction.addChild(new StringMetadataValue("other", "", "second", true));
+        Map<String, String> changed = buildAction.getEnvironmentVariables();
+        assertNotSame(variables, changed);
+        assertEquals("second", changed.get("MD_OTHER"));
+
+        value.setExposeToEnvironment(false);
+        assertNull(buildAction.getEnvironmentVariables().get("MD_VALUE"));
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MetadataContainer#getVersion()} and {@link MetadataGeneration}.
+ */
+public class MetadataGenerationTest {
+
+    /**
+     * Tests that every kind of change in the tree gives the container a new version.
+     */
+    @Test
+    public void testVersion() {
+        MetadataJobProperty property = new MetadataJobProperty();
+        long version = property.getVersion();
+
+        TreeStructureUtil.addValue(property, "value", "description", "one", "two");
+        version = assertNewVersion(property, version);
+
+        TreeNodeMetadataValue one = (TreeNodeMetadataValue)property.getChild("one");
+        TreeStructureUtil.addValue(one, "other", "description", "three");
+        version = assertNewVersion(property, version);
+
+        MetadataValue two = one.getChild("two");
+        two.setExposeToEnvironment(true);
+        version = assertNewVersion(property, version);
+
+        one.setDescription("changed");
+        version = assertNewVersion(property, version);
+
+        one.removeChild("three");
+        version = assertNewVersion(property, version);
+
+        property.removeChild("one");
+        assertNewVersion(property, version);
+    }
+
+    /**
+     * Tests that the global generation follows the changes in all containers.
+     */
+    @Test
+    public void testGeneration() {
+        MetadataJobProperty property = new MetadataJobProperty();
+        MetadataNodeProperty nodeProperty = new MetadataNodeProperty();
+        long generation = MetadataGeneration.current();
+
+        TreeStructureUtil.addValue(property, "value", "description", "one");
+        assertTrue(MetadataGeneration.current() > generation);
+
+        generation = MetadataGeneration.current();
+        TreeStructureUtil.addValue(nodeProperty, "value", "description", "one");
+        assertTrue(MetadataGeneration.current() > generation);
+        assertTrue(nodeProperty.getVersion() > property.getVersion());
+    }
+
+    /**
+     * Asserts that the version of the container is newer than the given one.
+     *
+     * @param container the container.
+     * @param version   the old version.
+     * @return the new version.
+     */
+    private long assertNewVersion(MetadataContainer container, long version) {
+        long newVersion = container.getVersion();
+        assertTrue("Version not increased", newVersion > version);
+        return newVersion;
+    }
+}
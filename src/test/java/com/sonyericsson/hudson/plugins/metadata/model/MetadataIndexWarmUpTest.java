@@ -0,0 +1,97 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.MockUtils;
+import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.DescribableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link MetadataIndexWarmUp}.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Hudson.class, AbstractProject.class, DescribableList.class })
+public class MetadataIndexWarmUpTest {
+
+    /**
+     * Tests that the jobs and nodes with metadata are indexed, and that the progress adds up.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testWarmUp() throws Exception {
+        Hudson hudson = MockUtils.mockHudson();
+        MetadataNodeProperty masterProperty = mock(MetadataNodeProperty.class);
+        DescribableList<NodeProperty<?>, NodePropertyDescriptor> masterProperties =
+                PowerMockito.mock(DescribableList.class);
+        when(masterProperties.get(MetadataNodeProperty.class)).thenReturn(masterProperty);
+        when(hudson.getNodeProperties()).thenReturn(masterProperties);
+
+        Node slave = mock(Node.class);
+        DescribableList<NodeProperty<?>, NodePropertyDescriptor> slaveProperties =
+                PowerMockito.mock(DescribableList.class);
+        when(slave.getNodeProperties()).thenReturn(slaveProperties);
+        when(hudson.getNodes()).thenReturn(Collections.singletonList(slave));
+
+        AbstractProject withMetadata = PowerMockito.mock(AbstractProject.class);
+        MetadataJobProperty jobProperty = mock(MetadataJobProperty.class);
+        when(withMetadata.getProperty(MetadataJobProperty.class)).thenReturn(jobProperty);
+        AbstractProject withoutMetadata = PowerMockito.mock(AbstractProject.class);
+        when(hudson.getAllItems(AbstractProject.class)).thenReturn(Arrays.asList(withMetadata, withoutMetadata));
+
+        MetadataIndexWarmUp warmUp = new MetadataIndexWarmUp(2, false);
+        assertFalse(warmUp.isWarmingUp());
+        assertEquals(0, warmUp.getProgress());
+        warmUp.warmUp();
+
+        assertTrue(warmUp.isFinished());
+        assertFalse(warmUp.isWarmingUp());
+        assertEquals(4, warmUp.getTotal());
+        assertEquals(4, warmUp.getDone());
+        assertEquals(100, warmUp.getProgress());
+        verify(masterProperty).getPathIndex();
+        verify(jobProperty).getPathIndex();
+        verify(withMetadata, never()).getBuilds();
+    }
+}
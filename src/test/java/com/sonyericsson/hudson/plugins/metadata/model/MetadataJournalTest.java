@@ -0,0 +1,147 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link MetadataJournal}.
+ */
+public class MetadataJournalTest {
+
+    /**
+     * A temporary directory for the journal.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A journal with a stamp that can be set by the test.
+     */
+    private static class StampedJournal extends MetadataJournal {
+        private long stamp;
+
+        /**
+         * Standard constructor.
+         *
+         * @param file the file.
+         */
+        StampedJournal(File file) {
+            super(file);
+        }
+
+        @Override
+        protected long getStamp() {
+            return stamp;
+        }
+    }
+
+    /**
+     * Creates some JSON data to append.
+     *
+     * @param value the value of the data.
+     * @return the data.
+     */
+    private static JSONObject data(String value) {
+        JSONObject json = new JSONObject();
+        json.put("name", "owner");
+        json.put("value", value);
+        return json;
+    }
+
+    /**
+     * Tests that appended updates are read back and that the journal can be cleared.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testAppendAndClear() throws Exception {
+        File file = new File(new File(folder.getRoot(), "nodes"), "journal");
+        StampedJournal journal = new StampedJournal(file);
+        assertTrue(journal.isEmpty());
+        journal.stamp = 1;
+        journal.append(MetadataJournal.OP_ADD, data("a"), false);
+        journal.stamp = 2;
+        journal.append(MetadataJournal.OP_REPLACE, data("b"), true);
+        assertFalse(journal.isEmpty());
+        assertEquals(2, FileUtils.readLines(file, "UTF-8").size());
+        assertEquals(2, journal.getLastStamp());
+        journal.clear();
+        assertTrue(journal.isEmpty());
+        assertFalse(file.exists());
+        assertEquals(0, journal.getLastStamp());
+    }
+
+    /**
+     * Tests that a line that was cut short by a crash is skipped, and doesn't ruin the next update.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testTornTail() throws Exception {
+        File file = folder.newFile("journal");
+        StampedJournal journal = new StampedJournal(file);
+        journal.stamp = 1;
+        journal.append(MetadataJournal.OP_ADD, data("a"), false);
+        FileUtils.writeStringToFile(file, FileUtils.readFileToString(file, "UTF-8") + "{\"stamp\":5,\"op\":\"ad",
+                "UTF-8");
+        assertEquals(1, journal.getLastStamp());
+        journal.stamp = 3;
+        journal.append(MetadataJournal.OP_ADD, data("b"), false);
+        assertEquals(3, journal.getLastStamp());
+    }
+
+    /**
+     * Tests that updates that are already saved are not replayed.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testReplayNothingNewer() throws Exception {
+        StampedJournal journal = new StampedJournal(folder.newFile("journal"));
+        journal.stamp = 1;
+        journal.append(MetadataJournal.OP_ADD, data("a"), false);
+        MetadataValue value = new StringMetadataValue("owner", "bobby");
+        List<MetadataValue> values = journal.replay(Collections.singletonList(value), 1,
+                mock(MetadataContainer.class));
+        assertEquals(1, values.size());
+        assertSame(value, values.get(0));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.Constants;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MetadataNodeListener}.
+ */
+public class MetadataNodeListenerTest {
+
+    /**
+     * The nodes directory.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Tests that the metadata of removed nodes is deleted and that the metadata of existing nodes is kept.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRemoveOrphans() throws Exception {
+        File kept = createNodeDir("kept");
+        File removed = createNodeDir("removed");
+        File other = createNodeDir("other");
+        File otherFile = new File(other, "something-else.xml");
+        assertTrue(otherFile.createNewFile());
+
+        MetadataNodeListener.removeOrphans(folder.getRoot(), Collections.singleton("kept"));
+
+        assertTrue(new File(kept, Constants.NODE_METADATA_FILE).isFile());
+        assertTrue(new File(kept, Constants.METADATA_JOURNAL_FILE).isFile());
+        assertFalse(removed.exists());
+        assertFalse(new File(other, Constants.NODE_METADATA_FILE).exists());
+        assertTrue(otherFile.isFile());
+    }
+
+    /**
+     * Creates the directory of a node with a metadata file and a journal.
+     *
+     * @param name the name of the node.
+     * @return the directory.
+     * @throws Exception if so.
+     */
+    private File createNodeDir(String name) throws Exception {
+        File dir = folder.newFolder(name);
+        assertTrue(new File(dir, Constants.NODE_METADATA_FILE).createNewFile());
+        assertTrue(new File(dir, Constants.METADATA_JOURNAL_FILE).createNewFile());
+        return dir;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeNodeMetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.TreeStructureUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link MetadataPathIndex} and {@link MetadataContainer#getPathIndex()}.
+ */
+public class MetadataPathIndexTest {
+
+    /**
+     * Tests lookups in the index.
+     */
+    @Test
+    public void testLookup() {
+        MetadataJobProperty property = new MetadataJobProperty();
+        TreeStructureUtil.addValue(property, "value", "description", "one", "two");
+        TreeStructureUtil.addValue(property, "other", "description", "one", "three");
+        TreeStructureUtil.addValue(property, "top", "description", "four");
+
+        MetadataPathIndex<MetadataValue> index = property.getPathIndex();
+        assertEquals("value", index.get(MetadataPath.parse("ONE.Two")).getValue());
+        assertSame(TreeStructureUtil.getPath(property, "one"), index.get(MetadataPath.of("one")));
+        assertNull(index.getLeaf(MetadataPath.of("one")));
+        assertNotNull(index.getLeaf(MetadataPath.of("four")));
+        assertNull(index.get(MetadataPath.of("one", "five")));
+        assertEquals(3, index.getLeaves().size());
+        assertEquals(4, index.getValues().size());
+        assertEquals("one.two", MetadataPath.of("one", "two").toString());
+    }
+
+    /**
+     * Tests that the index is kept until something in the tree changes, also deep down in it.
+     */
+    @Test
+    public void testInvalidation() {
+        MetadataJobProperty property = new MetadataJobProperty();
+        TreeStructureUtil.addValue(property, "value", "description", "one", "two");
+
+        MetadataPathIndex<MetadataValue> index = property.getPathIndex();
+        assertSame(index, property.getPathIndex());
+
+        TreeNodeMetadataValue one = (TreeNodeMetadataValue)property.getChild("one");
+        TreeStructureUtil.addValue(one, "new", "description", "three");
+        MetadataPathIndex<MetadataValue> changed = property.getPathIndex();
+        assertNotSame(index, changed);
+        assertEquals("new", changed.get(MetadataPath.of("one", "three")).getValue());
+
+        one.removeChild("two");
+        assertNull(property.getPathIndex().get(MetadataPath.of("one", "two")));
+    }
+}
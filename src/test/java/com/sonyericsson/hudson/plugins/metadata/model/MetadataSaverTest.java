@@ -0,0 +1,152 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link MetadataSaver}.
+ */
+public class MetadataSaverTest {
+
+    private static final long LONG_INTERVAL = 60000;
+    private static final long SHORT_INTERVAL = 50;
+    private static final int WAIT = 5000;
+
+    /**
+     * Tests that many saves within the interval ends up in one save.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testCoalesced() throws Exception {
+        MetadataSaver saver = new MetadataSaver(SHORT_INTERVAL);
+        MetadataContainer container = mock(MetadataContainer.class);
+        saver.save(container);
+        saver.save(container);
+        saver.save(container);
+        verify(container, timeout(WAIT)).save();
+        Thread.sleep(SHORT_INTERVAL * 2);
+        verify(container, times(1)).save();
+        assertFalse(saver.isDirty(container));
+        saver.shutdown();
+    }
+
+    /**
+     * Tests that a synchronous save is done right away.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testSynchronous() throws Exception {
+        MetadataSaver saver = new MetadataSaver(LONG_INTERVAL);
+        MetadataContainer container = mock(MetadataContainer.class);
+        saver.save(container);
+        verify(container, never()).save();
+        saver.save(container, true);
+        verify(container, times(1)).save();
+        assertFalse(saver.isDirty(container));
+        saver.shutdown();
+        verify(container, times(1)).save();
+    }
+
+    /**
+     * Tests that dirty containers are saved on shutdown.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testShutdown() throws Exception {
+        MetadataSaver saver = new MetadataSaver(LONG_INTERVAL);
+        MetadataContainer container = mock(MetadataContainer.class);
+        saver.save(container);
+        assertTrue(saver.isDirty(container));
+        saver.shutdown();
+        verify(container, times(1)).save();
+
+        saver.save(container);
+        verify(container, times(2)).save();
+    }
+
+    /**
+     * Tests that a shutdown waits for a save that has already started, instead of interrupting it.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testShutdownDuringSave() throws Exception {
+        MetadataSaver saver = new MetadataSaver(SHORT_INTERVAL);
+        MetadataContainer container = mock(MetadataContainer.class);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean saved = new AtomicBoolean(false);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                Thread.sleep(SHORT_INTERVAL * 2);
+                saved.set(true);
+                return null;
+            }
+        }).when(container).save();
+        saver.save(container);
+        assertTrue(started.await(WAIT, TimeUnit.MILLISECONDS));
+        saver.shutdown();
+        assertTrue(saved.get());
+        verify(container, times(1)).save();
+    }
+
+    /**
+     * Tests that a container that fails to save in the background is tried again.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testFailedSaveRetried() throws Exception {
+        MetadataSaver saver = new MetadataSaver(SHORT_INTERVAL);
+        MetadataContainer container = mock(MetadataContainer.class);
+        doThrow(new IOException("Disk full")).doNothing().when(container).save();
+        saver.save(container);
+        verify(container, timeout(WAIT).times(2)).save();
+        assertFalse(saver.isDirty(container));
+        saver.shutdown();
+        verify(container, times(2)).save();
+    }
+}
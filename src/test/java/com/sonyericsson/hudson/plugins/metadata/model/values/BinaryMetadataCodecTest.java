@@ -0,0 +1,365 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model.values;
+
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataParent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link BinaryMetadataCodec}.
+ */
+public class BinaryMetadataCodecTest {
+
+    private static final int ITERATIONS = 500;
+    private static final int MAX_DEPTH = 4;
+    private static final int MAX_CHILDREN = 6;
+    private static final int MAX_STRING_LENGTH = 20;
+    private static final int MAX_ARRAY_LENGTH = 10;
+    private static final int TYPES = 5;
+    private static final String[] COMMON_NAMES = {"build", "result", "owner", "job-info", "time"};
+    private static final String[] ZONES = TimeZone.getAvailableIDs();
+    private static final int NUMBER_ARRAY = 5;
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_MORE = 0x80;
+
+    /**
+     * A temporary folder for the file tests.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Encodes and decodes random trees and checks that they come back the same.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRoundTripFuzz() throws Exception {
+        long seed = System.currentTimeMillis();
+        Random random = new Random(seed);
+        for (int i = 0; i < ITERATIONS; i++) {
+            List<MetadataValue> values = randomValues(random, 0);
+            List<MetadataValue> read = roundTrip(values);
+            assertValuesEqual("seed " + seed + ", iteration " + i, values, read, null);
+        }
+    }
+
+    /**
+     * Tests the extreme numbers and an empty tree.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testEdgeCases() throws Exception {
+        List<MetadataValue> values = new ArrayList<MetadataValue>();
+        values.add(new NumberMetadataValue("max", Long.MAX_VALUE));
+        values.add(new NumberMetadataValue("min", Long.MIN_VALUE));
+        values.add(new NumberArrayMetadataValue("array", new long[]{Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE}));
+        values.add(new NumberArrayMetadataValue("empty", new long[0]));
+        values.add(new StringMetadataValue("empty", ""));
+        values.add(new TreeNodeMetadataValue("tree"));
+        assertValuesEqual("edge cases", values, roundTrip(values), null);
+        assertTrue(roundTrip(Collections.<MetadataValue>emptyList()).isEmpty());
+    }
+
+    /**
+     * Tests writing to and reading from a file.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testFile() throws Exception {
+        File file = new File(folder.getRoot(), "metadata.bin");
+        List<MetadataValue> values = randomValues(new Random(1), 0);
+        BinaryMetadataCodec.write(values, file);
+        BinaryMetadataCodec.write(values, file);
+        assertValuesEqual("file", values, BinaryMetadataCodec.read(file), null);
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    /**
+     * Tests that values of unknown types are refused.
+     */
+    @Test
+    public void testCanEncode() {
+        List<MetadataValue> values = new ArrayList<MetadataValue>();
+        TreeNodeMetadataValue tree = new TreeNodeMetadataValue("tree");
+        tree.addChild(new StringMetadataValue("known", "value"));
+        values.add(tree);
+        assertTrue(BinaryMetadataCodec.canEncode(values));
+        tree.addChild(new StringMetadataValue("unknown", "value") { });
+        assertFalse(BinaryMetadataCodec.canEncode(values));
+        try {
+            BinaryMetadataCodec.write(values, new ByteArrayOutputStream());
+            fail("An unknown type should not be written.");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
+
+    /**
+     * Tests that every truncation of an encoded tree, and a corrupt header, fail to decode.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testCorrupt() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryMetadataCodec.write(randomValues(new Random(2), 0), out);
+        byte[] bytes = out.toByteArray();
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                BinaryMetadataCodec.read(new ByteArrayInputStream(Arrays.copyOf(bytes, length)));
+                fail("Read a stream truncated to " + length + " bytes");
+            } catch (IOException e) {
+                //Expected
+            }
+        }
+        byte[] newer = bytes.clone();
+        newer[BinaryMetadataCodec.MAGIC.length] = (byte)(BinaryMetadataCodec.VERSION + 1);
+        try {
+            BinaryMetadataCodec.read(new ByteArrayInputStream(newer));
+            fail("Read a newer version");
+        } catch (IOException e) {
+            //Expected
+        }
+        try {
+            BinaryMetadataCodec.read(new ByteArrayInputStream("<xml/>".getBytes("UTF-8")));
+            fail("Read XML");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
+
+    /**
+     * Encodes and decodes the values.
+     *
+     * @param values the values.
+     * @return the decoded values.
+     * @throws IOException if so.
+     */
+    private static List<MetadataValue> roundTrip(List<MetadataValue> values) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryMetadataCodec.write(values, out);
+        return BinaryMetadataCodec.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    /**
+     * Creates random values of all known types.
+     *
+     * @param random the random.
+     * @param depth  the depth in the tree of the values.
+     * @return the values.
+     */
+    private static List<MetadataValue> randomValues(Random random, int depth) {
+        List<MetadataValue> values = new ArrayList<MetadataValue>();
+        int count = random.nextInt(MAX_CHILDREN);
+        for (int i = 0; i < count; i++) {
+            String name = randomName(random);
+            String description = random.nextBoolean() ? null : randomString(random);
+            boolean exposed = random.nextBoolean();
+            AbstractMetadataValue value;
+            int type = random.nextInt(TYPES);
+            if (type == 0 && depth >= MAX_DEPTH) {
+                type = 1;
+            }
+            switch (type) {
+                case 0:
+                    value = new TreeNodeMetadataValue(name, description, randomValues(random, depth + 1), exposed);
+                    break;
+                case 1:
+                    value = new StringMetadataValue(name, description, randomString(random), exposed);
+                    break;
+                case 2:
+                    value = new NumberMetadataValue(name, description, random.nextLong(), exposed);
+                    break;
+                case 3:
+                    String zone = random.nextBoolean() ? null : ZONES[random.nextInt(ZONES.length)];
+                    value = new DateMetadataValue(name, description, random.nextLong(), zone, random.nextBoolean());
+                    value.setExposeToEnvironment(exposed);
+                    break;
+                default:
+                    long[] numbers = new long[random.nextInt(MAX_ARRAY_LENGTH)];
+                    for (int j = 0; j < numbers.length; j++) {
+                        numbers[j] = random.nextBoolean() ? random.nextInt() : random.nextLong();
+                    }
+                    value = new NumberArrayMetadataValue(name, description, numbers, exposed);
+                    break;
+            }
+            value.setGenerated(random.nextBoolean());
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * A random name, often one that is repeated.
+     *
+     * @param random the random.
+     * @return the name.
+     */
+    private static String randomName(Random random) {
+        if (random.nextBoolean()) {
+            return COMMON_NAMES[random.nextInt(COMMON_NAMES.length)];
+        }
+        return "n" + randomString(random);
+    }
+
+    /**
+     * A random string of any valid code points.
+     *
+     * @param random the random.
+     * @return the string.
+     */
+    private static String randomString(Random random) {
+        StringBuilder str = new StringBuilder();
+        int length = random.nextInt(MAX_STRING_LENGTH);
+        while (str.length() < length) {
+            int codePoint = random.nextInt(Character.MAX_CODE_POINT + 1);
+            if (codePoint < Character.MIN_SURROGATE || codePoint > Character.MAX_SURROGATE) {
+                str.appendCodePoint(codePoint);
+            }
+        }
+        return str.toString();
+    }
+
+    /**
+     * Asserts that two lists of values are equal in every stored detail.
+     *
+     * @param message  the message on failure.
+     * @param expected the expected values.
+     * @param actual   the actual values.
+     * @param parent   the expected parent of the actual values.
+     */
+    private static void assertValuesEqual(String message, List<MetadataValue> expected, List<MetadataValue> actual,
+                                          MetadataParent parent) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            MetadataValue e = expected.get(i);
+            MetadataValue a = actual.get(i);
+            String path = message + " at " + e.getFullName();
+            assertSame(path, e.getClass(), a.getClass());
+            assertEquals(path, e.getName(), a.getName());
+            assertEquals(path, e.getDescription(), a.getDescription());
+            assertEquals(path, e.isExposedToEnvironment(), a.isExposedToEnvironment());
+            assertEquals(path, e.isGenerated(), a.isGenerated());
+            if (parent != null) {
+                assertSame(path, parent, a.getParent());
+            }
+            if (e instanceof TreeNodeMetadataValue) {
+                assertValuesEqual(message, ((TreeNodeMetadataValue)e).getValue(),
+                        ((TreeNodeMetadataValue)a).getValue(), (TreeNodeMetadataValue)a);
+            } else if (e instanceof DateMetadataValue) {
+                DateMetadataValue date = (DateMetadataValue)e;
+                assertEquals(path, date.getTime(), ((DateMetadataValue)a).getTime());
+                assertEquals(path, date.getZoneId(), ((DateMetadataValue)a).getZoneId());
+                assertEquals(path, date.isChecked(), ((DateMetadataValue)a).isChecked());
+            } else if (e instanceof NumberArrayMetadataValue) {
+                assertArrayEquals(path, ((NumberArrayMetadataValue)e).getValue(),
+                        ((NumberArrayMetadataValue)a).getValue());
+            } else {
+                assertEquals(path, e.getValue(), a.getValue());
+            }
+        }
+    }
+
+    /**
+     * Tests that lengths that can't fit in what is left of the stream are refused before anything is allocated.
+     * Huge lengths at each place there is one, the string table, a string, a list of values and a number array.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testHugeLength() throws Exception {
+        //The string table.
+        assertCorrupt(stream(Integer.MAX_VALUE));
+        //A string.
+        assertCorrupt(stream(1, Integer.MAX_VALUE));
+        //The values.
+        assertCorrupt(stream(0, Integer.MAX_VALUE));
+        //A number array named by the one string.
+        assertCorrupt(stream(1, 1, 'a', 1, NUMBER_ARRAY, 1, 0, 0, Integer.MAX_VALUE));
+        //The same number array with its one number, which is fine.
+        assertEquals(1, BinaryMetadataCodec.read(new ByteArrayInputStream(
+                stream(1, 1, 'a', 1, NUMBER_ARRAY, 1, 0, 0, 1, 2))).size());
+    }
+
+    /**
+     * Creates a stream with the header followed by the numbers as variable length ints, except for the ones that are
+     * noted as single bytes by the format, which are small enough to be the same.
+     *
+     * @param numbers the numbers.
+     * @return the stream.
+     * @throws Exception if so.
+     */
+    private static byte[] stream(int... numbers) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(BinaryMetadataCodec.MAGIC);
+        out.write(BinaryMetadataCodec.VERSION);
+        for (int number : numbers) {
+            int remaining = number;
+            while ((remaining & ~VARINT_MASK) != 0) {
+                out.write((remaining & VARINT_MASK) | VARINT_MORE);
+                remaining >>>= VARINT_BITS;
+            }
+            out.write(remaining);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Checks that reading the stream fails with an {@link IOException}.
+     *
+     * @param bytes the stream.
+     */
+    private static void assertCorrupt(byte[] bytes) {
+        try {
+            BinaryMetadataCodec.read(new ByteArrayInputStream(bytes));
+            fail("Read a stream with a huge length");
+        } catch (IOException e) {
+            //Expected
+        }
+    }
+}
@@ -28,11 +28,11 @@ import com.sonyericsson.hudson.plugins.metadata.MockUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
 import com.sonyericsson.hudson.plugins.metadata.util.ExtensionUtils;
+import com.thoughtworks.xstream.XStream;
 import hudson.model.Hudson;
 import net.sf.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.internal.util.reflection.Whitebox;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import com.sonyericsson.hudson.plugins.metadata.model.TimeDetails;
@@ -44,8 +44,10 @@ import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.VALUE;
 import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.DESCRIPTION;
 import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.EXPOSED;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 /**
@@ -116,11 +118,40 @@ public class DateMetadataValueTest {
         DateMetadataValue clonedValue = originalValue.clone();
         assertEquals(originalValue.getValue(), clonedValue.getValue());
 
-        Calendar originalCalendar = (Calendar)Whitebox.getInternalState(originalValue, "value");
-        Calendar clonedCalendar = (Calendar)Whitebox.getInternalState(clonedValue, "value");
-        assertNotSame(originalCalendar, clonedCalendar);
+        Calendar clonedCalendar = clonedValue.getValue();
+        assertNotSame(originalValue.getValue(), clonedCalendar);
+        clonedCalendar.add(Calendar.YEAR, 1);
+        assertEquals(value, originalValue.getValue());
+        assertEquals(value, clonedValue.getValue());
     }
 
+    //CS IGNORE MagicNumber FOR NEXT 40 LINES. REASON: TestData
+    /**
+     * Tests that values stored as a Calendar by older versions are read and stored as time and time zone.
+     */
+    @Test
+    public void testReadOldXml() {
+        XStream xStream = new XStream();
+        xStream.processAnnotations(DateMetadataValue.class);
+        String xml = "<metadata-date>"
+                + "<name>time</name>"
+                + "<description>old</description>"
+                + "<generated>true</generated>"
+                + "<exposedToEnvironment>false</exposedToEnvironment>"
+                + "<value><time>1357041600000</time><timezone>Asia/Tokyo</timezone></value>"
+                + "<checked>true</checked>"
+                + "</metadata-date>";
+        DateMetadataValue value = (DateMetadataValue)xStream.fromXML(xml);
+        assertEquals(1357041600000L, value.getTime());
+        assertEquals("Asia/Tokyo", value.getTimeZone().getID());
+        assertEquals(2013, value.getYear());
+        assertEquals(21, value.getHour());
+        assertTrue(value.isChecked());
+
+        String newXml = xStream.toXML(value);
+        assertFalse(newXml.contains("<value>"));
+        assertEquals(value, xStream.fromXML(newXml));
+    }
 
     //CS IGNORE MagicNumber FOR NEXT 40 LINES. REASON: TestData
     /**
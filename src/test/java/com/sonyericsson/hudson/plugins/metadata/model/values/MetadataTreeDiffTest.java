@@ -0,0 +1,141 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model.values;
+
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataJobProperty;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MetadataTreeDiff}.
+ */
+public class MetadataTreeDiffTest {
+
+    /**
+     * Tests that two equal trees give an empty diff.
+     */
+    @Test
+    public void testComputeSame() {
+        MetadataJobProperty property = new MetadataJobProperty();
+        TreeStructureUtil.addValue(property, "value", "description", "one", "two");
+        TreeStructureUtil.addValue(property, "other", "description", "one", "three");
+
+        List<MetadataValue> values = new LinkedList<MetadataValue>();
+        values.add(TreeStructureUtil.createPath("value", "description", "one", "two"));
+
+        assertTrue(MetadataTreeDiff.compute(property.getChildren(), values, false).isEmpty());
+    }
+
+    /**
+     * Tests that leaves are compared on more than just the value.
+     */
+    @Test
+    public void testComputeChanged() {
+        MetadataJobProperty property = new MetadataJobProperty();
+        TreeStructureUtil.addValue(property, "value", "description", "one", "two");
+        TreeStructureUtil.addValue(property, "other", "description", "one", "three");
+
+        List<MetadataValue> values = new LinkedList<MetadataValue>();
+        values.add(TreeStructureUtil.createPath("VALUE", "description", "one", "two"));
+        TreeStructureUtil.addValue((TreeNodeMetadataValue)values.get(0), "other", "changed", "three");
+
+        MetadataTreeDiff diff = MetadataTreeDiff.compute(property.getChildren(), values, false);
+        assertEquals(2, diff.getEntries(MetadataTreeDiff.Type.CHANGED).size());
+        assertEquals(2, diff.getEntries().size());
+        MetadataTreeDiff.Entry entry = diff.getEntries().get(0);
+        assertArrayEquals(new String[]{"one", "two"}, entry.getPath());
+        assertEquals("value", entry.getOldValue().getValue());
+        assertEquals("VALUE", entry.getNewValue().getValue());
+    }
+
+    /**
+     * Tests {@link MetadataTreeDiff#replace(com.sonyericsson.hudson.plugins.metadata.model.MetadataParent,
+     * java.util.Collection)}.
+     */
+    @Test
+    public void testReplace() {
+        MetadataJobProperty property = new MetadataJobProperty();
+        TreeStructureUtil.addValue(property, "value", "description", "one", "two");
+        TreeStructureUtil.addValue(property, "keep", "description", "one", "three");
+        MetadataValue untouched = TreeStructureUtil.getPath(property, "one", "three");
+
+        List<MetadataValue> values = new LinkedList<MetadataValue>();
+        TreeNodeMetadataValue one = TreeStructureUtil.createPath("new", "description", "one", "two");
+        TreeStructureUtil.addValue(one, "keep", "description", "three");
+        TreeNodeMetadataValue[] added = TreeStructureUtil.createTreePath("", "four", "five");
+        added[0].setDescription("added node");
+        added[1].setExposeToEnvironment(true);
+        TreeStructureUtil.addValue(added[1], "added", "", "six");
+        one.addChild(added[0]);
+        values.add(one);
+
+        MetadataTreeDiff diff = MetadataTreeDiff.replace(property, values);
+        assertEquals(1, diff.getEntries(MetadataTreeDiff.Type.CHANGED).size());
+        assertEquals(1, diff.getEntries(MetadataTreeDiff.Type.ADDED).size());
+
+        assertEquals("new", TreeStructureUtil.getPath(property, "one", "two").getValue());
+        assertSame(untouched, TreeStructureUtil.getPath(property, "one", "three"));
+        MetadataValue five = TreeStructureUtil.getPath(property, "one", "four", "five");
+        assertNotNull(five);
+        assertTrue(five.isExposedToEnvironment());
+        assertEquals("added", TreeStructureUtil.getPath(property, "one", "four", "five", "six").getValue());
+        assertEquals("added node", TreeStructureUtil.getPath(property, "one", "four").getDescription());
+
+        assertTrue(MetadataTreeDiff.replace(property, values).isEmpty());
+    }
+
+    /**
+     * Tests that removals are computed and applied.
+     */
+    @Test
+    public void testRemovals() {
+        MetadataJobProperty property = new MetadataJobProperty();
+        TreeStructureUtil.addValue(property, "value", "description", "one", "two");
+        TreeStructureUtil.addValue(property, "gone", "description", "one", "three");
+        TreeStructureUtil.addValue(property, "gone", "description", "four");
+
+        List<MetadataValue> values = new LinkedList<MetadataValue>();
+        values.add(TreeStructureUtil.createPath("value", "description", "one", "two"));
+
+        assertTrue(MetadataTreeDiff.compute(property.getChildren(), values, false).isEmpty());
+        MetadataTreeDiff diff = MetadataTreeDiff.compute(property.getChildren(), values, true);
+        assertEquals(2, diff.getEntries(MetadataTreeDiff.Type.REMOVED).size());
+        diff.apply(property);
+
+        assertNotNull(TreeStructureUtil.getPath(property, "one", "two"));
+        assertNull(TreeStructureUtil.getPath(property, "one", "three"));
+        assertNull(property.getChild("four"));
+        assertFalse(property.getChildren().isEmpty());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.model.values;
+
+import com.sonyericsson.hudson.plugins.metadata.MockUtils;
+import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataJobProperty;
+import com.sonyericsson.hudson.plugins.metadata.search.antlr.QueryLexer;
+import com.sonyericsson.hudson.plugins.metadata.search.antlr.QueryParser;
+import com.sonyericsson.hudson.plugins.metadata.search.antlr.QueryWalker;
+import com.sonyericsson.hudson.plugins.metadata.util.ExtensionUtils;
+import com.thoughtworks.xstream.XStream;
+import hudson.model.Hudson;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.CommonTreeNodeStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.NAME;
+import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.VALUE;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Mockito.mock;
+
+//CS IGNORE MagicNumber FOR NEXT 200 LINES. REASON: TestData
+
+/**
+ * Tests for {@link NumberArrayMetadataValue}.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Hudson.class, ExtensionUtils.class })
+public class NumberArrayMetadataValueTest {
+
+    /**
+     * Tests the JSON form and reading it back.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testJson() throws Exception {
+        Hudson hudson = MockUtils.mockHudson();
+        MockUtils.mockMetadataValueDescriptors(hudson);
+        NumberArrayMetadataValue value = new NumberArrayMetadataValue("durations", "desc", new long[]{3, 1, 2});
+        JSONObject json = value.toJson();
+        assertEquals(3, json.getJSONArray(VALUE).size());
+
+        NumberArrayMetadataValue read = (NumberArrayMetadataValue)JsonUtils.toValue(json,
+                mock(MetadataContainer.class));
+        assertEquals("durations", read.getName());
+        assertArrayEquals(new long[]{3, 1, 2}, read.getValue());
+
+        JSONObject stringJson = new JSONObject();
+        stringJson.put(NAME, "samples");
+        stringJson.put(VALUE, "4, 5");
+        stringJson.put(JsonUtils.METADATA_TYPE, "metadata-number-array");
+        read = (NumberArrayMetadataValue)JsonUtils.toValue(stringJson, mock(MetadataContainer.class));
+        assertArrayEquals(new long[]{4, 5}, read.getValue());
+
+        JSONObject bad = JSONObject.fromObject(stringJson);
+        bad.put(VALUE, JSONArray.fromObject("[1, \"two\"]"));
+        try {
+            JsonUtils.toValue(bad, mock(MetadataContainer.class));
+            throw new AssertionError("Should not parse");
+        } catch (JsonUtils.ParseException e) {
+            //expected
+        }
+    }
+
+    /**
+     * Tests that the numbers are written to XML as one string and read back.
+     */
+    @Test
+    public void testXml() {
+        XStream xStream = new XStream();
+        xStream.processAnnotations(NumberArrayMetadataValue.class);
+        NumberArrayMetadataValue value = new NumberArrayMetadataValue("durations", new long[]{10, -20, 30});
+        String xml = xStream.toXML(value);
+        assertTrue(xml, xml.contains("<value>10,-20,30</value>"));
+        NumberArrayMetadataValue read = (NumberArrayMetadataValue)xStream.fromXML(xml);
+        assertEquals(value, read);
+    }
+
+    /**
+     * Tests the aggregates and comparisons.
+     */
+    @Test
+    public void testAggregates() {
+        NumberArrayMetadataValue value = new NumberArrayMetadataValue("durations", new long[]{5, 1, 9});
+        assertEquals(1L, value.getAggregate("min").getValue().longValue());
+        assertEquals(9L, value.getAggregate("MAX").getValue().longValue());
+        assertEquals(15L, value.getAggregate("sum").getValue().longValue());
+        assertEquals(3L, value.getAggregate("count").getValue().longValue());
+        assertNull(value.getAggregate("avg"));
+        assertNull(new NumberArrayMetadataValue("empty", new long[0]).getAggregate("max"));
+
+        assertEquals(0, value.compareTo("5,1,9"));
+        assertEquals(-1, value.compareTo("5,2"));
+        assertEquals(1, value.compareTo("5,1"));
+        assertEquals(-1, value.compareTo("not numbers"));
+    }
+
+    /**
+     * Tests that queries can compare the aggregates of a number array.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testQueryAggregates() throws Exception {
+        MetadataJobProperty property = new MetadataJobProperty();
+        TreeStructureUtil.addValue(property, new NumberArrayMetadataValue("durations", new long[]{5, 1, 9}), "test");
+
+        assertTrue(query("test.durations.max > 8", property));
+        assertFalse(query("test.durations.min > 1", property));
+        assertTrue(query("test.durations.sum = 15", property));
+    }
+
+    /**
+     * Evaluates a query against the metadata.
+     *
+     * @param query     the query.
+     * @param container the metadata.
+     * @return the result.
+     * @throws Exception if the query can't be parsed.
+     */
+    private boolean query(String query, MetadataContainer<MetadataValue> container) throws Exception {
+        QueryLexer lexer = new QueryLexer(new ANTLRStringStream(query));
+        QueryParser parser = new QueryParser(new CommonTokenStream(lexer));
+        CommonTree tree = (CommonTree)parser.expression().getTree();
+        QueryWalker walker = new QueryWalker(new CommonTreeNodeStream(tree));
+        return walker.evaluate(container);
+    }
+}
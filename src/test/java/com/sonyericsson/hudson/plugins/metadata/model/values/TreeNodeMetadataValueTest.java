@@ -28,8 +28,10 @@ import com.sonyericsson.hudson.plugins.metadata.Constants;
 import com.sonyericsson.hudson.plugins.metadata.MockUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.JsonUtils;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataContainer;
+import com.sonyericsson.hudson.plugins.metadata.model.MetadataJobProperty;
 import com.sonyericsson.hudson.plugins.metadata.model.MetadataParent;
 import com.sonyericsson.hudson.plugins.metadata.util.ExtensionUtils;
+import hudson.EnvVars;
 import hudson.model.Hudson;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
@@ -38,6 +40,8 @@ import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.Collection;
+
 import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.CHILDREN;
 import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.DESCRIPTION;
 import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.NAME;
@@ -45,9 +49,12 @@ import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.METADATA_
 import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.VALUE;
 import static com.sonyericsson.hudson.plugins.metadata.model.JsonUtils.EXPOSED;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -259,4 +266,96 @@ public class TreeNodeMetadataValueTest {
         clone.addChild(new NumberMetadataValue("somename", "somedescr", 0));
         assertThat(first, not(clone));
     }
+
+    /**
+     * Tests that all nodes in a tree share the lock of the container they are in and that a clone gets its own.
+     * @throws Exception if so.
+     */
+    @Test
+    public void testLockSharedWithContainer() throws Exception {
+        TreeNodeMetadataValue[] tree = TreeStructureUtil.createTreePath("", "one", "two");
+        TreeNodeMetadataValue root = tree[0];
+        TreeNodeMetadataValue leafParent = tree[1];
+        assertSame(root.getLock(), leafParent.getLock());
+
+        MetadataJobProperty container = new MetadataJobProperty();
+        container.addChild(root);
+        assertSame(container.getLock(), root.getLock());
+        assertSame(container.getLock(), leafParent.getLock());
+
+        TreeNodeMetadataValue clone = leafParent.clone();
+        clone.setParent(null);
+        assertNotSame(container.getLock(), clone.getLock());
+    }
+
+    /**
+     * Tests that the children are handed out as an unmodifiable snapshot that later changes don't show up in.
+     */
+    @Test
+    public void testChildrenSnapshot() {
+        TreeNodeMetadataValue node = new TreeNodeMetadataValue("node");
+        node.addChild(new StringMetadataValue("one", "1"));
+        Collection<MetadataValue> snapshot = node.getChildren();
+        try {
+            snapshot.add(new StringMetadataValue("two", "2"));
+            fail("The snapshot should not be modifiable.");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+
+        node.addChild(new StringMetadataValue("two", "2"));
+        MetadataValue one = node.removeChild("ONE");
+        assertNotNull(one);
+        assertNull(one.getParent());
+        assertEquals(1, snapshot.size());
+        assertEquals("one", snapshot.iterator().next().getName());
+        assertEquals(1, node.getChildren().size());
+        assertNotNull(node.getChild("two"));
+    }
+
+    /**
+     * Tests that the content hash follows equals and is recomputed when something deep down in the tree changes.
+     */
+    @Test
+    public void testContentHash() {
+        TreeNodeMetadataValue one = TreeStructureUtil.createPath("value", "", "root", "branch", "leaf");
+        TreeStructureUtil.addValue(one, "other", "", "other");
+        TreeNodeMetadataValue two = TreeStructureUtil.createPath("OTHER", "", "root", "other");
+        TreeStructureUtil.addValue(two, "VALUE", "", "BRANCH", "leaf");
+        assertEquals(one, two);
+        assertEquals(one.hashCode(), two.hashCode());
+
+        TreeNodeMetadataValue branch = (TreeNodeMetadataValue)two.getChild("branch");
+        branch.removeChild("leaf");
+        branch.addChild(new StringMetadataValue("leaf", "changed"));
+        assertThat(one.hashCode(), not(equalTo(two.hashCode())));
+        assertThat(one, not(equalTo(two)));
+    }
+
+    /**
+     * Tests that a node knows if anything below it is exposed to the environment, also after changes deep down.
+     */
+    @Test
+    public void testHasExposedValues() {
+        TreeNodeMetadataValue root = TreeStructureUtil.createPath("value", "", "root", "branch", "leaf");
+        TreeStructureUtil.addValue(root, "other", "", "other");
+        assertFalse(root.hasExposedValues());
+        EnvVars variables = new EnvVars();
+        root.addEnvironmentVariables(variables, false);
+        assertTrue(variables.isEmpty());
+
+        MetadataValue leaf = TreeStructureUtil.getPath(root, "branch", "leaf");
+        leaf.setExposeToEnvironment(true);
+        assertTrue(root.hasExposedValues());
+        assertFalse(((TreeNodeMetadataValue)root.getChild("branch")).isExposedToEnvironment());
+        root.addEnvironmentVariables(variables, false);
+        assertEquals(1, variables.size());
+        assertEquals("value", variables.get(leaf.getEnvironmentName()));
+
+        ((TreeNodeMetadataValue)root.getChild("branch")).removeChild("leaf");
+        assertFalse(root.hasExposedValues());
+        variables = new EnvVars();
+        root.addEnvironmentVariables(variables, true);
+        assertEquals(1, variables.size());
+    }
 }
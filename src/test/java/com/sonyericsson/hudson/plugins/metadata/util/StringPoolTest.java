@@ -0,0 +1,96 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonyericsson.hudson.plugins.metadata.util;
+
+import com.sonyericsson.hudson.plugins.metadata.model.values.BinaryMetadataCodec;
+import com.sonyericsson.hudson.plugins.metadata.model.values.MetadataValue;
+import com.sonyericsson.hudson.plugins.metadata.model.values.StringMetadataValue;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link StringPool}.
+ */
+public class StringPoolTest {
+
+    /**
+     * Tests that equal strings are shared and that the hits are counted.
+     */
+    @Test
+    public void testIntern() {
+        StringPool pool = new StringPool(10, 10);
+        String first = new String("SUCCESS");
+        String second = new String("SUCCESS");
+        assertSame(first, pool.intern(first));
+        assertSame(first, pool.intern(second));
+        assertSame(first, pool.intern(first));
+        assertEquals(1, pool.size());
+        assertEquals(1, pool.getHits());
+    }
+
+    /**
+     * Tests that the pool doesn't grow past its bounds.
+     */
+    @Test
+    public void testBounds() {
+        StringPool pool = new StringPool(1, 4);
+        String longString = new String("longer");
+        pool.intern(longString);
+        assertNotSame(longString, pool.intern(new String("longer")));
+        assertEquals(0, pool.size());
+
+        pool.intern("one");
+        String two = new String("two");
+        pool.intern(two);
+        assertNotSame(two, pool.intern(new String("two")));
+        assertEquals(1, pool.size());
+    }
+
+    /**
+     * Tests that metadata values loaded from different files share their strings.
+     *
+     * @throws Exception if so.
+     */
+    @Test
+    public void testLoadedValues() throws Exception {
+        List<MetadataValue> values = new LinkedList<MetadataValue>();
+        values.add(new StringMetadataValue("result", "SUCCESS"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryMetadataCodec.write(values, out);
+        byte[] bytes = out.toByteArray();
+
+        StringMetadataValue one = (StringMetadataValue)BinaryMetadataCodec.read(new ByteArrayInputStream(bytes)).get(0);
+        StringMetadataValue two = (StringMetadataValue)BinaryMetadataCodec.read(new ByteArrayInputStream(bytes)).get(0);
+        assertSame(one.getName(), two.getName());
+        assertSame(one.getValue(), two.getValue());
+    }
+}